@@ -4,6 +4,83 @@ import static comp1110.lib.Functions.*;
 
 import static comp1110.testing.Comp1110Unit.*;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+
 // Part 1
 
 // [R] is type for the analysis result
@@ -425,16 +502,162 @@ Result compareTwoInertRocksRiskTakerScavenger(String color1, String color2) {
 /** 
  * When the colors of two Inert Rocks are different, Risk Taker Scavenger use coin flip determines the outcome: 
  * there’s a 50% chance the new rock is considered valuable, and incompatible otherwise.
+ * The coin is the random source of the current thread (see randomSource).
  * @return return isValuable or isIncompatible in random.
  */
 Result coinFlip() {
-    if (Equals(RandomNumber(0, 2), 0)) {
+    if (randomBit() == 0) {
         return Result.isValuable;
     } else {
         return Result.isIncompatible;
     }
 }
 
+// Random source
+// Each thread draws from its own SplittableRandom, so a seeded simulation always gives the same outcomes.
+
+/** The random source of each thread; unseeded until useRandomSource or seedRandomSource is called. */
+ThreadLocal<SplittableRandom> randomSource = ThreadLocal.withInitial(SplittableRandom::new);
+
+/**
+ * Makes the current thread draw its coin flips and shield checks from the given generator.
+ * Parallel simulations should each use their own generator, e.g. one split() from a seeded root per worker.
+ * @param random the generator to use on this thread
+ */
+void useRandomSource(SplittableRandom random) {
+    randomSource.set(random);
+}
+
+/**
+ * Makes the current thread draw its coin flips and shield checks from a generator with the given seed.
+ * Examples:
+ *     - Given: seedRandomSource(42), then 10 calls to coinFlip(); then seedRandomSource(42) and 10 more calls
+ *       Expect: both sequences of results are identical
+ * @param seed the seed
+ */
+void seedRandomSource(long seed) {
+    useRandomSource(new SplittableRandom(seed));
+}
+
+/**
+ * Draws 0 or 1 with equal probability from the random source of the current thread.
+ * @return 0 or 1
+ */
+int randomBit() {
+    return randomSource.get().nextInt(2);
+}
+
+// Type-pair dispatch tables
+// Both protocols as 3x3 tables indexed by (owned type, new type).
+
+/** Type tag of a StarChart, used to index the dispatch tables. */
+static final int STAR_CHART_TAG = 0;
+/** Type tag of an EnergyCrystal, used to index the dispatch tables. */
+static final int ENERGY_CRYSTAL_TAG = 1;
+/** Type tag of an InertRock, used to index the dispatch tables. */
+static final int INERT_ROCK_TAG = 2;
+
+// Table codes 0 to 4 are Result ordinals; the codes below select a comparison instead.
+/** Compare the risks of two StarCharts (compareTwoStarCharts). */
+static final int COMPARE_RISK = 5;
+/** Compare the power levels of two EnergyCrystals (compareTwoEnergyCrystals). */
+static final int COMPARE_POWER = 6;
+/** Compare the colors of two InertRocks as a Rational Scavenger (compareTwoInertRocksRationalScavenger). */
+static final int COMPARE_COLOR = 7;
+/** Compare the colors of two InertRocks as a Risk Taker Scavenger (compareTwoInertRocksRiskTakerScavenger). */
+static final int COMPARE_COLOR_OR_FLIP = 8;
+
+/** The Results, indexed by ordinal. */
+static final List<Result> RESULTS = List.of(Result.values());
+
+/** rationalScavengerAnalysis as a table: row = owned type tag, column = new type tag. Read-only. */
+static final int[] RATIONAL_TABLE = {
+    // owned StarChart:     new StarChart, new EnergyCrystal, new InertRock
+    COMPARE_RISK,            Result.isMundane.ordinal(),    Result.isUnknown.ordinal(),
+    // owned EnergyCrystal
+    Result.isHazardous.ordinal(), COMPARE_POWER,            Result.isUnknown.ordinal(),
+    // owned InertRock
+    Result.isUnknown.ordinal(),   Result.isUnknown.ordinal(), COMPARE_COLOR
+};
+
+/** riskTakerScavengerAnalysis as a table: row = owned type tag, column = new type tag. Read-only. */
+static final int[] RISK_TAKER_TABLE = {
+    // owned StarChart:     new StarChart, new EnergyCrystal, new InertRock
+    Result.isValuable.ordinal(), Result.isMundane.ordinal(), Result.isMundane.ordinal(),
+    // owned EnergyCrystal
+    Result.isValuable.ordinal(), COMPARE_POWER,              Result.isUnknown.ordinal(),
+    // owned InertRock
+    Result.isValuable.ordinal(), Result.isUnknown.ordinal(), COMPARE_COLOR_OR_FLIP
+};
+
+/**
+ * Returns the type tag of an artifact.
+ * An instanceof chain is used rather than a pattern switch, as it compiles to plain type checks.
+ * Examples:
+ *     - Given: artifactTag(new StarChart("A", 1, 2, 3))
+ *       Expect: STAR_CHART_TAG
+ *     - Given: artifactTag(new InertRock("red"))
+ *       Expect: INERT_ROCK_TAG
+ * @param artifact the artifact
+ * @return STAR_CHART_TAG, ENERGY_CRYSTAL_TAG or INERT_ROCK_TAG
+ */
+int artifactTag(Artifact artifact) {
+    if (artifact instanceof StarChart) {
+        return STAR_CHART_TAG;
+    } else if (artifact instanceof EnergyCrystal) {
+        return ENERGY_CRYSTAL_TAG;
+    } else {
+        return INERT_ROCK_TAG;
+    }
+}
+
+/**
+ * Analyses a newArtifact against an ownedArtifact with a protocol table.
+ * Examples:
+ *     - Given: analyseByTable(RATIONAL_TABLE, EnergyCrystal(-2), StarChart("A", -1, 4, -8))
+ *       Expect: isHazardous
+ *     - Given: analyseByTable(RATIONAL_TABLE, StarChart("A", 8, 8, 8), StarChart("C", -1, 7, 9))
+ *       Expect: isValuable   (the risks are compared)
+ * @param table RATIONAL_TABLE or RISK_TAKER_TABLE
+ * @param ownedArtifact the artifact already owned
+ * @param newArtifact the new artifact
+ * @return the result of the analysis
+ */
+Result analyseByTable(int[] table, Artifact ownedArtifact, Artifact newArtifact) {
+    int code = table[artifactTag(ownedArtifact) * 3 + artifactTag(newArtifact)];
+    if (code < COMPARE_RISK) {
+        return RESULTS.get(code);
+    } else if (code == COMPARE_RISK) {
+        return compareTwoStarCharts(((StarChart) ownedArtifact).risk(), ((StarChart) newArtifact).risk());
+    } else if (code == COMPARE_POWER) {
+        return compareTwoEnergyCrystals(((EnergyCrystal) ownedArtifact).power(), ((EnergyCrystal) newArtifact).power());
+    } else if (code == COMPARE_COLOR) {
+        return compareTwoInertRocksRationalScavenger(((InertRock) ownedArtifact).color(), ((InertRock) newArtifact).color());
+    } else {
+        return compareTwoInertRocksRiskTakerScavenger(((InertRock) ownedArtifact).color(), ((InertRock) newArtifact).color());
+    }
+}
+
+/**
+ * Same result as rationalScavengerAnalysis, computed through RATIONAL_TABLE.
+ * @param ownedArtifact the artifact already owned by Rational Scavenger.
+ * @param newArtifact the new artifact Rational Scavenger got.
+ * @return the result through comparative analysis of the newArtifact and the ownedArtifact.
+ */
+Result rationalScavengerAnalysisByTable(Artifact ownedArtifact, Artifact newArtifact) {
+    return analyseByTable(RATIONAL_TABLE, ownedArtifact, newArtifact);
+}
+
+/**
+ * Same result as riskTakerScavengerAnalysis, computed through RISK_TAKER_TABLE.
+ * @param ownedArtifact the artifact already owned by Risk Taker Scavenger.
+ * @param newArtifact the new artifact Risk Taker Scavenger got.
+ * @return the result through comparative analysis of the newArtifact and the ownedArtifact.
+ */
+Result riskTakerScavengerAnalysisByTable(Artifact ownedArtifact, Artifact newArtifact) {
+    return analyseByTable(RISK_TAKER_TABLE, ownedArtifact, newArtifact);
+}
+
 boolean isValuable(Result result) {
     return result == Result.isValuable;
 }
@@ -570,6 +793,51 @@ void testRationalAnalysis_InertRockEnergyCrystal() {
     testEqual(true, isUnknown(result), "RationalScavenger: InertRock with different type should be unknown.");
 }
 
+void testAnalysisTables() {
+    Artifact[] artifacts = {
+        new StarChart("A", 8, 8, 8), new StarChart("C", -1, 7, 9), new StarChart("F", 8, 0, 0),
+        new EnergyCrystal(-1), new EnergyCrystal(2), new EnergyCrystal(2),
+        new InertRock("black"), new InertRock("black"), new InertRock("red")
+    };
+    for (Artifact owned : artifacts) {
+        for (Artifact found : artifacts) {
+            testEqual(rationalScavengerAnalysis(owned, found), rationalScavengerAnalysisByTable(owned, found),
+                "Rational table should agree with rationalScavengerAnalysis on " + owned + " / " + found);
+            Result expected = riskTakerScavengerAnalysis(owned, found);
+            Result actual = riskTakerScavengerAnalysisByTable(owned, found);
+            if (owned instanceof InertRock rock1 && found instanceof InertRock rock2 && !Equals(rock1.color(), rock2.color())) {
+                // rocks of different colors: both results come from a coin flip
+                testEqual(true, isValuable(actual) || isIncompatible(actual),
+                    "Risk taker table should flip a coin on " + owned + " / " + found);
+            } else {
+                testEqual(expected, actual, "Risk taker table should agree with riskTakerScavengerAnalysis on " + owned + " / " + found);
+            }
+        }
+    }
+}
+
+void testSeededRandomSource() {
+    SplittableRandom callerRandom = randomSource.get();
+    try {
+        Scavenger explorer = new Scavenger("M", this::rationalScavengerAnalysis, new EnergyCrystal(5));
+        Artifact hazard = new StarChart("Mars", 2, 3, 4);
+        String[] runs = new String[2];
+        for (int run = 0; run < 2; run++) {
+            seedRandomSource(1110);
+            StringBuilder outcomes = new StringBuilder();
+            for (int i = 0; i < 64; i++) {
+                outcomes.append(coinFlip()).append(' ');
+                outcomes.append(handleHazardousArtifact(explorer, hazard).first().cargo()).append(' ');
+            }
+            runs[run] = outcomes.toString();
+        }
+        testEqual(runs[0], runs[1], "The same seed should give the same coin flips and shield checks.");
+        testEqual(true, runs[0].contains("isValuable") && runs[0].contains("isIncompatible"), "Coin flips should give both results.");
+    } finally {
+        useRandomSource(callerRandom);
+    }
+}
+
 // Part 1 - riskTakerScavengerAnalysis tests
 void testRiskTaker_NewStarChart1() {
     Artifact owned = new StarChart("D", 2, -8, 8);
@@ -675,14 +943,47 @@ void test() {
     runAsTest(this::testRiskTaker_TwoInertRocks2);
     runAsTest(this::testRiskTaker_InertRockEnergyCrystal);
 
+    // Part 1 - dispatch table tests
+    runAsTest(this::testAnalysisTables);
+
+    // Part 1 - random source tests
+    runAsTest(this::testSeededRandomSource);
+
     // Part 2 - exploreAsteroid tests
     runAsTest(this::testDifferentStrategies_withTestEqual);
 
     // Part 2 - tradeAtStarport tests
     runAsTest(this::testTradeAtStarport_withTestEqual);
 
+    // Part 2 - fleet engine tests
+    runAsTest(this::testSymbolTable);
+    runAsTest(this::testEvaluateArtifacts);
+    runAsTest(this::testAnalysisProtocols);
+    runAsTest(this::testExploreAsteroidRound);
+    runAsTest(this::testMatchStarport);
+    runAsTest(this::testCheckpoint);
+
     // Part 3
     runAsTest(this::testParseRationalScavengerLog);
+    runAsTest(this::testProcessLogFile);
+    runAsTest(this::testLineCache);
+    runAsTest(this::testCompressedLogs);
+    runAsTest(this::testIngestLogFile);
+    runAsTest(this::testItineraries);
+    runAsTest(this::testExactDistributions);
+    runAsTest(this::testMonteCarlo);
+    runAsTest(this::testGenerateLog);
+    runAsTest(this::testScanArtifact);
+    runAsTest(this::testScanRationalScavengerLog);
+    runAsTest(this::testProcessLogFileParallel);
+    runAsTest(this::testBinaryArtifacts);
+    runAsTest(this::testBinaryLogFiles);
+    runAsTest(this::testLedger);
+    runAsTest(this::testEncounterServer);
+    runAsTest(this::testFastStart);
+    runAsTest(this::testBenchmarkInputs);
+    runAsTest(this::testMetrics);
+    runAsTest(this::testAnalysisCache);
 }
 
 // Part 2: The Scavenger Fleet
@@ -786,6 +1087,12 @@ Pair<Scavenger, Artifact> exploreAsteroid(Scavenger scavenger, Artifact foundArt
  * @return the result of evaluating the new artifact against the owned one
  */
 Result evaluateArtifact(BiFunction<Artifact,Artifact,Result> protocol, Artifact ownedArtifact, Artifact foundArtifact) {
+    // the built-in protocols are called directly, so this call site stays inlinable whatever the mix of protocols
+    if (protocol instanceof RationalProtocol) {
+        return rationalScavengerAnalysis(ownedArtifact, foundArtifact);
+    } else if (protocol instanceof RiskTakerProtocol) {
+        return riskTakerScavengerAnalysis(ownedArtifact, foundArtifact);
+    }
     return protocol.apply(ownedArtifact, foundArtifact);
 }
 
@@ -824,7 +1131,7 @@ Pair<Scavenger, Artifact> ignoreArtifact(Scavenger scavenger, Artifact foundArti
 }
 
 /**
- * If HAZARDOUS, there is a 50% chance the ship's shields hold.
+ * If HAZARDOUS, there is a 50% chance the ship's shields hold (drawn from the random source of the current thread).
  * - If they hold, the scavenger swaps. 
  * - If they fail, the scavenger's current cargo is destroyed and replaced with a Inert Rock of color "dull grey".
  *   Return a Pair of the scavenger's new state and the artifact left behind, which is the new found artifact.
@@ -838,11 +1145,11 @@ Pair<Scavenger, Artifact> ignoreArtifact(Scavenger scavenger, Artifact foundArti
  * @return Pair<Scavenger, Artifact>: (updated scavenger after handle hazardous artifact, left behind artifact)
  */
 Pair<Scavenger, Artifact> handleHazardousArtifact(Scavenger scavenger, Artifact foundArtifact) {
-    boolean shieldHolds = Equals(RandomNumber(0, 2), 0);
+    boolean shieldHolds = randomBit() == 0;
     if (shieldHolds) {
         return swapArtifacts(scavenger, foundArtifact);
     } else {
-        Artifact destroyed = new InertRock("dull grey");
+        Artifact destroyed = new InertRock(DULL_GREY);
         Scavenger updated = new Scavenger(scavenger.name(), scavenger.analysisFunc(), destroyed);
         return new Pair<Scavenger, Artifact>(updated, foundArtifact);
     }
@@ -1037,290 +1344,7471 @@ void testTradeAtStarport_withTestEqual() {
 }
 
 
-// Part 3 
+// Symbol table
+// Interns InertRock colors and gives the strings of fleets and binary logs small int ids.
+
+/** Number of slots of the cache of recently interned strings kept by each symbol table (a power of two). */
+static final int RECENT_SYMBOLS = 1024;
+
+/** Maximum number of colors interned by the scanner of one run; later new colors are left uninterned. */
+static final int SCANNER_SYMBOLS = 4096;
 
-// 1. Syntax for describing an Artifact
 /**
- * Takes an artifact and returns a string of its details, formatted exactly as required for the log entries.
- * - Star Chart: "StarChart:destination;RISK=risk;SEC=sector;SYS=system"
- * - Energy Crystal: "EnergyCrystal:POWER=power"
- * - Inert Rock: "InertRock:COLOR=color"
+ * A concurrent table interning strings to int ids: two strings are equal if and only if their ids are,
+ * and all equal strings share one instance.
  * Examples:
- *     - Given: describeArtifact(new StarChart("Alpha", 3, 5, 7)) 
- *     - Expect: "StarChart:Alpha;RISK=3;SEC=5;SYS=7"
- *     - Given: describeArtifact(new EnergyCrystal(10)) 
- *     - Expect: "EnergyCrystal:POWER=10"
- *     - Given: describeArtifact(new InertRock("blue")) 
- *     - Expect: "InertRock:COLOR=blue"
- * @param artifact the artifact need to describe
- * @return string representation in log-entry format
+ * - SymbolTable({"red"=0, "Sirius"=1}, ["red", "Sirius", null, null], ...)
+ * @param ids the id of each interned string
+ * @param names the interned strings, indexed by id; replaced by a copy twice as long when full
+ * @param recent a cache of recently interned strings, indexed by hash, letting the scanner find a string without creating it
+ * @param capacity the maximum number of strings
+ * @param lookups the number of strings looked up
+ * @param savedBytes the estimated number of bytes of duplicate strings replaced by an interned one
  */
-String describeArtifact(Artifact artifact) {
-   return switch (artifact) {
-    case StarChart sc -> "StarChart:" + sc.dest() + ";RISK=" + sc.risk() + ";SEC=" + sc.sector() + ";SYS=" + sc.system();
-    case EnergyCrystal ec -> "EnergyCrystal:POWER=" + ec.power();
-    case InertRock ir -> "InertRock:COLOR=" + ir.color(); 
-    default -> throw new IllegalArgumentException("Unknown artifact type: " + artifact);
-   };
+record SymbolTable(ConcurrentHashMap<String, Integer> ids, AtomicReference<String[]> names, AtomicReferenceArray<String> recent,
+                   int capacity, LongAdder lookups, LongAdder savedBytes) {}
+
+/**
+ * Creates an empty symbol table with no size limit.
+ * @return a new SymbolTable with no symbols
+ */
+SymbolTable makeSymbolTable() {
+    return makeSymbolTable(Integer.MAX_VALUE);
 }
 
-// 2. Syntax for a Log Entry
 /**
- * Parses a log string from a Rational Scavenger that takes one of the following forms:
- * - ASTEROID | [ownedArtifact] | [foundArtifact]
- * - TRADING_POST | [ownedArtifact] | [otherScavengersArtifact]
- * Then it simulates the encounter and returns the artifact the Rational Scavenger possesses after log entry.
- * Examples:
- *     - Given: "ASTEROID | StarChart(A,5,1,7) | StarChart(B,3,4,6)""
- *       Expect: StarChart(B,3,4,6) 
- *     - Given: "ASTEROID | EnergyCrystal(10) | EnergyCrystal(5)"
- *       Expect: EnergyCrystal(10) 
- *     - Given: "ASTEROID | InertRock(blue) | StarChart(C,6,3,5)"
- *       Expect: InertRock(blue) 
- * @param log a string representing the log entry
- * @return Artifact the Rational Scavenger ends up with
+ * Creates an empty symbol table holding at most capacity strings.
+ * @param capacity the maximum number of strings
+ * @return a new SymbolTable with no symbols
  */
-Artifact parseRationalScavengerLog(String log) {
-    // get three part in "ASTEROID | [ownedArtifact] | [foundArtifact]"
-    int firstBar = IndexOf("|", log, 0);
-    String encounter = SubString(log, 0, firstBar).trim();
-    int secondBar = IndexOf("|", log, firstBar + 1);
-    String ownedStr = SubString(log, firstBar + 1, secondBar).trim();
-    String otherStr = SubString(log, secondBar + 1, Length(log)).trim();
+SymbolTable makeSymbolTable(int capacity) {
+    return new SymbolTable(new ConcurrentHashMap<String, Integer>(), new AtomicReference<String[]>(new String[16]),
+        new AtomicReferenceArray<String>(RECENT_SYMBOLS), capacity, new LongAdder(), new LongAdder());
+}
 
-    // transfer from String to Artifact
-    Artifact owned = parseArtifact(ownedStr);
-    Artifact other = parseArtifact(otherStr);
+/** The symbol table of the colors created by the scanner on each thread; each command starts a new one. */
+ThreadLocal<SymbolTable> artifactSymbols = ThreadLocal.withInitial(() -> makeSymbolTable(SCANNER_SYMBOLS));
 
-    return encounter(encounter, owned, other);
- }
+/**
+ * Makes the scanner of the current thread intern into the given table.
+ * @param table the symbol table
+ */
+void useSymbolTable(SymbolTable table) {
+    artifactSymbols.set(table);
+}
 
 /**
- * Simulates an encounter between the Rational Scavenger and another artifact.
- * The behavior depends on the type of encounter:
- * - "ASTEROID": The Rational Scavenger encounters an artifact in space, 
- *   uses Rational Scavenger's analysis protocol to decide whether to keep the owned artifact or swap.
- * - "TRADING_POST": The Rational Scavenger is on a trade by another scavenger, 
- *   uses the RiskTaker's protocol to determine if the trade is accepted.
- * The result is the artifact the Rational Scavenger ends up with after the encounter.
+ * Returns the id of a string, adding it to the table if it is new. Safe to call from several threads.
  * Examples:
- *   - Given: encounter("ASTEROID", StarChart("A",5,2,3), StarChart("B",3,4,6))
- *     Expect: StarChart("B",3,4,6), swap  
- *   - Given: encounter("ASTEROID", EnergyCrystal(10), EnergyCrystal(5))
- *     Expect: EnergyCrystal(10)   , no trade
- *   - Given: encounter("TRADING_POST", EnergyCrystal(5), InertRock("red"))
- *     Expect: EnergyCrystal(5)    , no trade
- * @param encounterType the type of encounter ("ASTEROID" or "TRADING_POST")
- * @param owned the artifact currently owned by the Rational Scavenger
- * @param other the encountered artifact (either found in asteroid or in trade)
- * @return the artifact Rational Scavenger has after the encounter
+ *     - Given: an empty table, internSymbol(table, "red"), then internSymbol(table, "blue"), then internSymbol(table, "red")
+ *       Expect: 0, 1, 0
+ * @param table the symbol table
+ * @param name the string to intern
+ * @return the id of the string
+ * @throws IllegalArgumentException if the string is new and the table is full
  */
-Artifact encounter(String encounterType, Artifact owned, Artifact other) {
-    if (Equals(encounterType, "ASTEROID")) {
-        return handleAsteroidEncounter(owned, other);
-    } else {
-        return handleTradingPostEncounter(owned, other);
+int internSymbol(SymbolTable table, String name) {
+    table.lookups().increment();
+    Integer id = table.ids().get(name);
+    if (id == null) {
+        int added = addSymbol(table, name);
+        if (added < 0) {
+            throw new IllegalArgumentException("Symbol table full: " + table.capacity() + " strings");
+        }
+        return added;
     }
+    if (symbolName(table, id) != name) {
+        table.savedBytes().add(estimatedStringBytes(name));
+    }
+    return id;
 }
 
-// Encounter Asteroid
 /**
- * Simulates an encounter between a Rational Scavenger and an artifact found on an asteroid.
- * According to the Rational Scavenger rules:
- * - If the found artifact is considered VALUABLE, the scavenger replaces their current artifact with it.
- * - Otherwise, the scavenger keeps their owned artifact.
+ * Adds a string to the table unless another thread just did, and returns its id.
+ * The name is stored, and the array of names published, before the id is published in ids,
+ * so a visible id always has its name. Growing the array doubles it, so adding a string costs O(1) on average.
+ * @param table the symbol table
+ * @param name the string to add
+ * @return the id of the string, or -1 if the string is new and the table is full
+ */
+int addSymbol(SymbolTable table, String name) {
+    synchronized (table) {
+        Integer id = table.ids().get(name);
+        if (id == null) {
+            id = table.ids().size();
+            if (id >= table.capacity()) {
+                return -1;
+            }
+            String[] names = table.names().get();
+            if (id == names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[id] = name;
+            table.names().set(names);
+            table.ids().put(name, id);
+        }
+        return id;
+    }
+}
+
+/**
+ * Returns the number of strings in a table.
+ * @param table the symbol table
+ * @return the number of strings
+ */
+int symbolCount(SymbolTable table) {
+    return table.ids().size();
+}
+
+/**
+ * Returns the string with the given id.
  * Examples:
- *    - Given: owned = StarChart("A", 6, 1, 2), found = StarChart("B", 3, 4, 7)
- *      Expect: StarChart("B", 3, 4, 7) 
- *    - Given: owned = EnergyCrystal(10), found = EnergyCrystal(5)
- *      Expect: EnergyCrystal(10)
- *    - Given: owned = InertRock("blue"), found = InertRock("red")
- *      Expect: InertRock("blue")
- *    - Given: owned = EnergyCrystal(4), found = StarChart("C", 2, 1, 5)
- *      Expect: EnergyCrystal(4)
- *    - Given: owned = InertRock("green"), found = StarChart("D", 5, 2, 1)
- *      Expect: InertRock("green")
- * @param owned the artifact currently owned by the Rational Scavenger
- * @param found the artifact found on the asteroid
- * @return the artifact the scavenger ends up holding after the encounter
+ *     - Given: symbolName(table, internSymbol(table, "red"))
+ *       Expect: "red"
+ * @param table the symbol table
+ * @param id the id of an interned string
+ * @return the interned string
  */
-Artifact handleAsteroidEncounter(Artifact owned, Artifact found) {
-    Result result = rationalScavengerAnalysis(owned, found);
-    if (isValuable(result)) {
-        return found;
-    } else {
-        return owned;
+String symbolName(SymbolTable table, int id) {
+    return table.names().get()[id];
+}
+
+/**
+ * Returns the interned instance of a string, or the string itself if it is new and the table is full.
+ * Examples:
+ *     - Given: internString(table, new String("red")) == internString(table, "red")
+ *       Expect: true
+ * @param table the symbol table
+ * @param name the string
+ * @return the instance stored in the table, equal to name
+ */
+String internString(SymbolTable table, String name) {
+    table.lookups().increment();
+    Integer id = table.ids().get(name);
+    if (id == null) {
+        id = addSymbol(table, name);
+        if (id < 0) {
+            return name;
+        }
+    } else if (symbolName(table, id) != name) {
+        table.savedBytes().add(estimatedStringBytes(name));
     }
+    return symbolName(table, id);
 }
 
-// Encounter TradingPost
 /**
- * Simulates a trade encounter at a Trading Post between a Rational Scavenger and a Risk Taker Scavenger.
- * The Rational Scavenger is the primary actor. They will trade only if:
- * - The RiskTakerScavenger considers the Rational Scavenger's artifact to be VALUABLE, according to RiskTakerScavengerAnalysis.
- * - In that case, the Rational Scavenger receives the other scavenger’s artifact. Otherwise, they keep their current artifact.
+ * Returns the interned string equal to s[start, end). When the string was interned recently,
+ * it is found through the recent cache without creating a String at all.
  * Examples:
- *    - Given: owned = InertRock("blue"), other = StarChart("X", 1, 1, 1)
- *      Expect: StarChart("X", 1, 1, 1)
- *    - Given: owned = EnergyCrystal(10), other = EnergyCrystal(3)
- *      Expect: EnergyCrystal(10)
- *    - Given: owned = EnergyCrystal(3), other = InertRock("red")
- *      Expect: EnergyCrystal(3)
- * @param owned the artifact currently owned by the Rational Scavenger
- * @param other the artifact owned by the Risk Taker Scavenger
- * @return the artifact the Rational Scavenger ends up owned after the trade
+ *     - Given: internRegion(table, "InertRock:COLOR=red", 16, 19)
+ *       Expect: "red", the same instance on every call
+ * @param table the symbol table
+ * @param s the characters holding the string
+ * @param start index of the first character
+ * @param end index just past the last character
+ * @return the interned string
  */
-Artifact handleTradingPostEncounter(Artifact owned, Artifact other) {
-    Result riskTakerResult = riskTakerScavengerAnalysis(other, owned);
-    if (isValuable(riskTakerResult)) {
-        return other;
-    } else {
-        return owned;
+String internRegion(SymbolTable table, CharSequence s, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+        hash = 31 * hash + s.charAt(i);
+    }
+    int slot = hash & (table.recent().length() - 1);
+    String cached = table.recent().get(slot);
+    if (cached != null && regionEquals(cached, s, start, end)) {
+        table.lookups().increment();
+        table.savedBytes().add(estimatedStringBytes(cached));
+        return cached;
     }
+    String interned = internString(table, regionText(s, start, end));
+    table.recent().set(slot, interned);
+    return interned;
 }
 
-// Parses String to StarChart / EnergyCrystal / InertRock
 /**
- * Parses a string representation of an artifact and returns the corresponding Artifact object.
- * The string must be in one of the following formats:
- * - StarChart:destination;RISK=risk;SEC=sector;SYS=system
- * - EnergyCrystal:POWER=power
- * - InertRock:COLOR=color
- * The function identifies the type based on the prefix (before the colon ':'),
- * and extracts the necessary fields to construct the corresponding object.
+ * Checks whether s[start, end) holds exactly the characters of a string.
  * Examples:
- *    - Given: "StarChart:Proxima Centauri;RISK=3;SEC=7;SYS=42"
- *      Expect: new StarChart("Proxima Centauri", 3, 7, 42)
- *    - Given: "EnergyCrystal:POWER=500"
- *      Expect: new EnergyCrystal(500)
- *    - Given: "InertRock:COLOR=quartz"
- *      Expect: new InertRock("quartz")
- * @param s a string representation of an artifact
- * @return an Artifact object corresponding to the input string
- * @throws IllegalArgumentException if the input string has an unknown or malformed format
+ *     - Given: regionEquals("red", "InertRock:COLOR=red", 16, 19)
+ *       Expect: true
+ * @param expected the string
+ * @param s the characters to compare
+ * @param start index of the first character
+ * @param end index just past the last character
+ * @return true if the region equals the string
  */
-Artifact parseArtifact(String s) {
-    // get type（before the ":"）
-    int colonIndex = IndexOf(":", s, 0);
-    String type = SubString(s, 0, colonIndex);
+boolean regionEquals(String expected, CharSequence s, int start, int end) {
+    return end - start == expected.length() && scanMatches(expected, s, start, end);
+}
 
-    // StarChart, eg.| StarChart:Proxima Centauri;RISK=3;SEC=7;SYS=42 |
-    if (Equals(type, "StarChart")) {
-        // get destination（between ":" and ";"）in 
-        int semi1 = IndexOf(";", s, colonIndex);
-        String dest = SubString(s, colonIndex + 1, semi1);
+/**
+ * Estimates the heap size of a String of Latin-1 characters: the String object and its byte array, with 8-byte alignment.
+ * Examples:
+ *     - Given: estimatedStringBytes("red")
+ *       Expect: 48   (24-byte String + 16-byte array header + 8 bytes of characters)
+ * @param s the string
+ * @return the estimated number of bytes
+ */
+long estimatedStringBytes(String s) {
+    return 24 + 16 + (s.length() + 7) / 8 * 8;
+}
 
-        // get risk (after "RISK=" and before second semicolon ":")
-        int riskStart = IndexOf("RISK=", s, semi1) + 5;
-        int semi2 = IndexOf(";", s, riskStart);
-        String riskStr = SubString(s, riskStart, semi2);
-        int risk = StringToInt(riskStr);
+/**
+ * Describes the content and savings of a symbol table.
+ * Examples:
+ *     - Given: a table with 2 symbols after 1000 lookups
+ *       Expect: "2 symbols, 1000 lookups, 47.1 KiB of duplicate strings saved"
+ * @param table the symbol table
+ * @return the report line
+ */
+String symbolReport(SymbolTable table) {
+    return String.format("%d symbols, %d lookups, %.1f KiB of duplicate strings saved",
+        symbolCount(table), table.lookups().sum(), table.savedBytes().sum() / 1024.0);
+}
 
-        // get sector (after "SEC=" and before third semicolon ":")
-        int sectorStart = IndexOf("SEC=", s, semi2) + 4;
-        int semi3 = IndexOf(";", s, sectorStart);
-        String sectorStr = SubString(s, sectorStart, semi3);
-        int sector = StringToInt(sectorStr);
+void testSymbolTable() {
+    SymbolTable table = makeSymbolTable();
+    testEqual(0, internSymbol(table, "red"), "The first symbol should get id 0.");
+    testEqual(1, internSymbol(table, "blue"), "The second symbol should get id 1.");
+    testEqual(0, internSymbol(table, new String("red")), "An equal string should get the same id.");
+    testEqual(true, internString(table, new String("blue")) == symbolName(table, 1), "Equal strings should share one instance.");
+    long saved = table.savedBytes().sum();
+    internString(table, symbolName(table, 1));
+    internSymbol(table, symbolName(table, 0));
+    testEqual(saved, table.savedBytes().sum(), "Interning the stored instance itself saves nothing.");
 
-        // get system (after "SYS=" to the end of string)
-        int systemStart = IndexOf("SYS=", s, semi3) + 4;
-        String systemStr = SubString(s, systemStart, Length(s));
-        int system = StringToInt(systemStr);
+    String log = "InertRock:COLOR=red";
+    testEqual(true, internRegion(table, log, 16, 19) == internRegion(table, log, 16, 19), "Regions should be interned.");
+    testEqual(true, table.savedBytes().sum() > 0, "Duplicate strings should count as saved.");
 
-        return new StarChart(dest, risk, sector, system);
-    }
+    Artifact rock1 = parseArtifact("InertRock:COLOR=quartz");
+    Artifact rock2 = parseArtifact("InertRock:COLOR=quartz");
+    testEqual(true, ((InertRock) rock1).color() == ((InertRock) rock2).color(), "Parsed colors should be interned.");
 
-    // EnergyCrystal, eg.| EnergyCrystal:POWER=500 | 
-    if (Equals(type, "EnergyCrystal")) {
-        // get power (after "=" to the end of string)
-        int equal = IndexOf("=", s, colonIndex);
-        String powerStr = SubString(s, equal + 1, Length(s));
-        int power = StringToInt(powerStr);
-        return new EnergyCrystal(power);
+    // ids stay consistent when several threads intern at once
+    SymbolTable shared = makeSymbolTable();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+        pool.submit(() -> IntStream.range(0, 4000).parallel().forEach(i -> internSymbol(shared, "S" + i % 500))).get();
+    } catch (InterruptedException | ExecutionException e) {
+        testEqual(null, e, "Interning should not fail.");
+    } finally {
+        pool.shutdown();
     }
-
-    // InertRock, eg. | InertRock:COLOR=quartz |
-    if (Equals(type, "InertRock")) {
-        // get color (after "=" to the end of string)
-        int equal = IndexOf("=", s, colonIndex);
-        String color = SubString(s, equal + 1, Length(s));
-        return new InertRock(color);
+    testEqual(500, symbolCount(shared), "Each distinct string should be added once.");
+    for (int id = 0; id < symbolCount(shared); id++) {
+        testEqual(id, internSymbol(shared, symbolName(shared, id)), "Ids and names should agree.");
     }
 
-    throw new IllegalArgumentException("Unknown artifact format: " + s);
+    // a full table stops growing: new strings are returned as they are, and cannot get an id
+    SymbolTable small = makeSymbolTable(2);
+    internString(small, "red");
+    internString(small, "blue");
+    String green = new String("green");
+    testEqual(true, internString(small, green) == green, "A full table should return new strings uninterned.");
+    testEqual(2, symbolCount(small), "A full table should not grow.");
+    boolean rejected = false;
+    try {
+        internSymbol(small, "green");
+    } catch (IllegalArgumentException e) {
+        rejected = true;
+    }
+    testEqual(true, rejected, "A full table should not give ids to new strings.");
 }
 
-void main() {
-    test();
-    println("Rational Scavenger Tests: ");
-    testRationalScavenger();
+// Part 2 - Fleet engine
+// A Fleet stores many scavengers as parallel primitive arrays and runs whole rounds of encounters in place.
 
-    println("Risk Taker Scavenger Tests: ");
-    testRiskTakerScavenger();
+/** Protocol id of rationalScavengerAnalysis in a Fleet. */
+static final int RATIONAL_PROTOCOL = 0;
+/** Protocol id of riskTakerScavengerAnalysis in a Fleet. */
+static final int RISK_TAKER_PROTOCOL = 1;
 
-    println("Part2 Scenario 1 Tests: ");
-    testDifferentStrategies();
+/** Color of the InertRock left in the cargo hold when the shields fail. */
+static final String DULL_GREY = "dull grey";
 
-    println("Part2 Scenario 2 Tests: ");
-    testTradeAtStarport();
+/**
+ * Artifacts stored column by column: the artifact at index i is described by the i-th element of every array.
+ * Examples:
+ * - ArtifactColumns([ENERGY_CRYSTAL_TAG], [900], [0], [0], [-1]) holds EnergyCrystal(900)
+ * @param tags the type tag of each artifact (STAR_CHART_TAG, ENERGY_CRYSTAL_TAG or INERT_ROCK_TAG)
+ * @param values the risk of a StarChart or the power level of an EnergyCrystal (0 for an InertRock)
+ * @param sectors the sector of a StarChart (0 otherwise)
+ * @param systems the system of a StarChart (0 otherwise)
+ * @param symbols the symbol id of the destination of a StarChart or the color of an InertRock (-1 for an EnergyCrystal)
+ */
+record ArtifactColumns(byte[] tags, int[] values, int[] sectors, int[] systems, int[] symbols) {}
 
-    println("Part3: ");
-    String input = readln("Enter Rational Scavenger log: ");
-    Artifact finalArtifact = parseRationalScavengerLog(input);
-    String finalDecription = describeArtifact(finalArtifact);
-    println("FINAL CARGO: " + finalDecription);
+/**
+ * Creates columns for the given number of artifacts, all EnergyCrystal(0) until set.
+ * @param size the number of artifacts
+ * @return new ArtifactColumns of that size
+ */
+ArtifactColumns makeArtifactColumns(int size) {
+    ArtifactColumns columns = new ArtifactColumns(new byte[size], new int[size], new int[size], new int[size], new int[size]);
+    Arrays.fill(columns.tags(), (byte) ENERGY_CRYSTAL_TAG);
+    Arrays.fill(columns.symbols(), -1);
+    return columns;
 }
 
-void testParseRationalScavengerLog() {
-     // ASTEROID: Higher power crystal should be picked
-    String log1 = "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10";
-    Artifact result1 = parseRationalScavengerLog(log1);
-    testEqual("EnergyCrystal:POWER=10", describeArtifact(result1), "RationalScavenger should pick higher power EnergyCrystal.");
+/**
+ * Stores an artifact at an index of the columns.
+ * Examples:
+ *     - Given: setArtifact(columns, 3, new StarChart("Sirius", 2, 5, 7), symbols)
+ *       Expect: tags[3] = STAR_CHART_TAG, values[3] = 2, sectors[3] = 5, systems[3] = 7, symbols[3] = id of "Sirius"
+ * @param columns the artifact columns
+ * @param index the index to store at
+ * @param artifact the artifact to store
+ * @param symbols the symbol table for destinations and colors
+ */
+void setArtifact(ArtifactColumns columns, int index, Artifact artifact, SymbolTable symbols) {
+    switch (artifact) {
+        case StarChart(String dest, int risk, int sector, int system) ->
+            setArtifactFields(columns, index, STAR_CHART_TAG, risk, sector, system, internSymbol(symbols, dest));
+        case EnergyCrystal(int power) ->
+            setArtifactFields(columns, index, ENERGY_CRYSTAL_TAG, power, 0, 0, -1);
+        case InertRock(String color) ->
+            setArtifactFields(columns, index, INERT_ROCK_TAG, 0, 0, 0, internSymbol(symbols, color));
+    }
+}
+
+/**
+ * Stores the fields of an artifact at an index of the columns.
+ * @param columns the artifact columns
+ * @param index the index to store at
+ * @param tag the type tag
+ * @param value the risk or power level
+ * @param sector the sector
+ * @param system the system
+ * @param symbol the symbol id of the destination or color
+ */
+void setArtifactFields(ArtifactColumns columns, int index, int tag, int value, int sector, int system, int symbol) {
+    columns.tags()[index] = (byte) tag;
+    columns.values()[index] = value;
+    columns.sectors()[index] = sector;
+    columns.systems()[index] = system;
+    columns.symbols()[index] = symbol;
+}
+
+/**
+ * Rebuilds the artifact stored at an index of the columns.
+ * Examples:
+ *     - Given: setArtifact(columns, 3, new StarChart("Sirius", 2, 5, 7), symbols), then getArtifact(columns, 3, symbols)
+ *       Expect: StarChart("Sirius", 2, 5, 7)
+ * @param columns the artifact columns
+ * @param index the index to read
+ * @param symbols the symbol table for destinations and colors
+ * @return the stored artifact
+ */
+Artifact getArtifact(ArtifactColumns columns, int index, SymbolTable symbols) {
+    int tag = columns.tags()[index];
+    if (tag == STAR_CHART_TAG) {
+        return new StarChart(symbolName(symbols, columns.symbols()[index]), columns.values()[index],
+            columns.sectors()[index], columns.systems()[index]);
+    } else if (tag == ENERGY_CRYSTAL_TAG) {
+        return new EnergyCrystal(columns.values()[index]);
+    } else {
+        return new InertRock(symbolName(symbols, columns.symbols()[index]));
+    }
+}
+
+/**
+ * Swaps the artifacts at index i of one set of columns and index j of another.
+ * @param a the first columns
+ * @param i the index in the first columns
+ * @param b the second columns
+ * @param j the index in the second columns
+ */
+void swapArtifactColumns(ArtifactColumns a, int i, ArtifactColumns b, int j) {
+    byte tag = a.tags()[i];
+    int value = a.values()[i];
+    int sector = a.sectors()[i];
+    int system = a.systems()[i];
+    int symbol = a.symbols()[i];
+    setArtifactFields(a, i, b.tags()[j], b.values()[j], b.sectors()[j], b.systems()[j], b.symbols()[j]);
+    setArtifactFields(b, j, tag, value, sector, system, symbol);
+}
+
+/** Change flag of a scavenger whose protocol or cargo changed since the last checkpoint. */
+static final int RECORD_CHANGED = 1;
+/** Change flag of a scavenger whose name changed since the last checkpoint. */
+static final int NAME_CHANGED = 2;
+
+/**
+ * A fleet of scavengers stored as columns: scavenger i has names[i], protocols[i] and the cargo at index i.
+ * Examples:
+ * - Fleet(["Alice", "Bob"], [RATIONAL_PROTOCOL, RISK_TAKER_PROTOCOL], cargo, symbols, [0, RECORD_CHANGED])
+ * @param names the name of each scavenger (null for an unnamed scavenger)
+ * @param protocols the protocol id of each scavenger (RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL)
+ * @param cargo the artifact in the cargo hold of each scavenger
+ * @param symbols the symbol table of the destinations and colors in the fleet
+ * @param changes the change flags (RECORD_CHANGED, NAME_CHANGED) of each scavenger since the last checkpoint
+ */
+record Fleet(String[] names, byte[] protocols, ArtifactColumns cargo, SymbolTable symbols, byte[] changes) {}
+
+/**
+ * Creates a fleet of the given size: unnamed Rational Scavengers holding EnergyCrystal(0) until set.
+ * Every scavenger starts out changed, since the fleet was never checkpointed.
+ * @param size the number of scavengers
+ * @param symbols the symbol table of the fleet
+ * @return a new Fleet
+ */
+Fleet makeFleet(int size, SymbolTable symbols) {
+    byte[] changes = new byte[size];
+    Arrays.fill(changes, (byte) (RECORD_CHANGED | NAME_CHANGED));
+    return new Fleet(new String[size], new byte[size], makeArtifactColumns(size), symbols, changes);
+}
+
+/**
+ * Records that the protocol or cargo of a scavenger changed since the last checkpoint.
+ * @param fleet the fleet
+ * @param index the index of the scavenger
+ */
+void markChanged(Fleet fleet, int index) {
+    fleet.changes()[index] |= (byte) RECORD_CHANGED;
+}
+
+/**
+ * Returns the number of scavengers in a fleet.
+ * @param fleet the fleet
+ * @return its size
+ */
+int fleetSize(Fleet fleet) {
+    return fleet.protocols().length;
+}
+
+/**
+ * Stores a scavenger at an index of the fleet.
+ * Examples:
+ *     - Given: setScavenger(fleet, 0, "Alice", RATIONAL_PROTOCOL, new EnergyCrystal(5))
+ *       Expect: getScavenger(fleet, 0) is a Rational Scavenger "Alice" holding EnergyCrystal(5)
+ * @param fleet the fleet
+ * @param index the index of the scavenger
+ * @param name the name of the scavenger
+ * @param protocol RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @param cargo the artifact in the cargo hold
+ */
+void setScavenger(Fleet fleet, int index, String name, int protocol, Artifact cargo) {
+    fleet.names()[index] = name;
+    fleet.protocols()[index] = (byte) protocol;
+    setArtifact(fleet.cargo(), index, cargo, fleet.symbols());
+    fleet.changes()[index] |= (byte) (RECORD_CHANGED | NAME_CHANGED);
+}
+
+/**
+ * Rebuilds the Scavenger stored at an index of the fleet.
+ * Examples:
+ *     - Given: setScavenger(fleet, 0, "Alice", RATIONAL_PROTOCOL, new EnergyCrystal(5)), then getScavenger(fleet, 0)
+ *       Expect: Scavenger("Alice", rationalScavengerAnalysis, EnergyCrystal(5))
+ * @param fleet the fleet
+ * @param index the index of the scavenger
+ * @return the scavenger
+ */
+Scavenger getScavenger(Fleet fleet, int index) {
+    return new Scavenger(fleet.names()[index], protocolFunction(fleet.protocols()[index]),
+        getArtifact(fleet.cargo(), index, fleet.symbols()));
+}
+
+/**
+ * Returns the analysis protocol with the given id.
+ * @param protocol RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @return RATIONAL_ANALYSIS or RISK_TAKER_ANALYSIS
+ */
+BiFunction<Artifact, Artifact, Result> protocolFunction(int protocol) {
+    return analysisProtocol(protocol);
+}
+
+/**
+ * Returns the dispatch table of the protocol with the given id.
+ * @param protocol RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @return RATIONAL_TABLE or RISK_TAKER_TABLE
+ */
+int[] protocolTable(int protocol) {
+    if (protocol == RATIONAL_PROTOCOL) {
+        return RATIONAL_TABLE;
+    } else {
+        return RISK_TAKER_TABLE;
+    }
+}
+
+// Analysis protocols
+// The built-in protocols as a sealed interface, so evaluateArtifact can call them directly.
+
+/**
+ * An analysis protocol: either one of the two built-in protocols, or an adapted BiFunction.
+ */
+sealed interface AnalysisProtocol extends BiFunction<Artifact, Artifact, Result>
+        permits RationalProtocol, RiskTakerProtocol, AdaptedProtocol {
+    /**
+     * @return the dispatch table of the protocol, with which it analyses primitive fields (see analyseFields),
+     *         or null if it can only analyse whole artifacts
+     */
+    int[] table();
+}
+
+/** The Rational Scavenger's protocol, rationalScavengerAnalysis. */
+final class RationalProtocol implements AnalysisProtocol {
+    public Result apply(Artifact ownedArtifact, Artifact newArtifact) {
+        return rationalScavengerAnalysis(ownedArtifact, newArtifact);
+    }
+
+    public int[] table() {
+        return RATIONAL_TABLE;
+    }
+}
+
+/** The Risk Taker Scavenger's protocol, riskTakerScavengerAnalysis. */
+final class RiskTakerProtocol implements AnalysisProtocol {
+    public Result apply(Artifact ownedArtifact, Artifact newArtifact) {
+        return riskTakerScavengerAnalysis(ownedArtifact, newArtifact);
+    }
+
+    public int[] table() {
+        return RISK_TAKER_TABLE;
+    }
+}
+
+/**
+ * Any other protocol, adapted to AnalysisProtocol.
+ * @param function the protocol
+ */
+record AdaptedProtocol(BiFunction<Artifact, Artifact, Result> function) implements AnalysisProtocol {
+    public Result apply(Artifact ownedArtifact, Artifact newArtifact) {
+        return function.apply(ownedArtifact, newArtifact);
+    }
+
+    public int[] table() {
+        return null;
+    }
+}
+
+/** The Rational Scavenger's protocol. */
+final AnalysisProtocol RATIONAL_ANALYSIS = new RationalProtocol();
+
+/** The Risk Taker Scavenger's protocol. */
+final AnalysisProtocol RISK_TAKER_ANALYSIS = new RiskTakerProtocol();
+
+/**
+ * Returns the built-in protocol with the given id.
+ * @param protocol RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @return RATIONAL_ANALYSIS or RISK_TAKER_ANALYSIS
+ */
+AnalysisProtocol analysisProtocol(int protocol) {
+    if (protocol == RATIONAL_PROTOCOL) {
+        return RATIONAL_ANALYSIS;
+    } else {
+        return RISK_TAKER_ANALYSIS;
+    }
+}
+
+/**
+ * Adapts any protocol to AnalysisProtocol.
+ * Examples:
+ *     - Given: asAnalysisProtocol(RATIONAL_ANALYSIS)
+ *       Expect: RATIONAL_ANALYSIS
+ *     - Given: asAnalysisProtocol(this::rationalScavengerAnalysis)
+ *       Expect: an AdaptedProtocol   (a method reference cannot be recognised)
+ * @param protocol the protocol
+ * @return the protocol itself if it is an AnalysisProtocol, otherwise an AdaptedProtocol wrapping it
+ */
+AnalysisProtocol asAnalysisProtocol(BiFunction<Artifact, Artifact, Result> protocol) {
+    if (protocol instanceof AnalysisProtocol known) {
+        return known;
+    }
+    return new AdaptedProtocol(protocol);
+}
+
+/**
+ * Returns the fleet engine id of a protocol.
+ * @param protocol the protocol
+ * @return RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @throws IllegalArgumentException if the protocol is not a built-in one
+ */
+int protocolId(BiFunction<Artifact, Artifact, Result> protocol) {
+    if (protocol instanceof RationalProtocol) {
+        return RATIONAL_PROTOCOL;
+    } else if (protocol instanceof RiskTakerProtocol) {
+        return RISK_TAKER_PROTOCOL;
+    }
+    throw new IllegalArgumentException("The fleet engine only runs the built-in protocols, not " + protocol);
+}
+
+/**
+ * Stores a Scavenger at an index of the fleet.
+ * Examples:
+ *     - Given: putScavenger(fleet, 0, makeScavenger("Alice", RISK_TAKER_ANALYSIS, new EnergyCrystal(5)))
+ *       Expect: getScavenger(fleet, 0) is a Risk Taker Scavenger "Alice" holding EnergyCrystal(5)
+ * @param fleet the fleet
+ * @param index the index of the scavenger
+ * @param scavenger the scavenger, whose protocol must be RATIONAL_ANALYSIS or RISK_TAKER_ANALYSIS
+ * @throws IllegalArgumentException if the scavenger's protocol is not a built-in one
+ */
+void putScavenger(Fleet fleet, int index, Scavenger scavenger) {
+    setScavenger(fleet, index, scavenger.name(), protocolId(scavenger.analysisFunc()), scavenger.cargo());
+}
+
+/**
+ * Analyses a new artifact against an owned artifact given by their primitive fields (see analyseFields).
+ * Examples:
+ *     - Given: analyseFields(RATIONAL_ANALYSIS, ENERGY_CRYSTAL_TAG, 4, 0, ENERGY_CRYSTAL_TAG, 9, 0, random)
+ *       Expect: isValuable
+ * @param protocol the protocol
+ * @param ownedTag the type tag of the owned artifact
+ * @param ownedValue the value of the owned artifact
+ * @param ownedSymbol the symbol id of the owned artifact
+ * @param newTag the type tag of the new artifact
+ * @param newValue the value of the new artifact
+ * @param newSymbol the symbol id of the new artifact
+ * @param random the random source for coin flips
+ * @return the result of the analysis
+ * @throws IllegalArgumentException if the protocol can only analyse whole artifacts
+ */
+Result analyseFields(AnalysisProtocol protocol, int ownedTag, int ownedValue, int ownedSymbol, int newTag, int newValue,
+                     int newSymbol, SplittableRandom random) {
+    int[] table = protocol.table();
+    if (table == null) {
+        throw new IllegalArgumentException("Protocol cannot analyse primitive fields: " + protocol);
+    }
+    return analyseFields(table, ownedTag, ownedValue, ownedSymbol, newTag, newValue, newSymbol, random);
+}
+
+void testAnalysisProtocols() {
+    SplittableRandom callerRandom = randomSource.get();
+    try {
+        SplittableRandom random = new SplittableRandom(20);
+        BiFunction<Artifact, Artifact, Result> adapted = asAnalysisProtocol(this::rationalScavengerAnalysisByTable);
+        for (int i = 0; i < 1000; i++) {
+            Artifact owned = randomArtifact(random);
+            Artifact found = randomArtifact(random);
+            testEqual(rationalScavengerAnalysis(owned, found), evaluateArtifact(RATIONAL_ANALYSIS, owned, found), "The sealed Rational protocol should agree.");
+            testEqual(rationalScavengerAnalysis(owned, found), evaluateArtifact(adapted, owned, found), "An adapted protocol should agree.");
+            if (isDeterministic(RISK_TAKER_PROTOCOL, owned, found)) {
+                testEqual(riskTakerScavengerAnalysis(owned, found), evaluateArtifact(RISK_TAKER_ANALYSIS, owned, found), "The sealed Risk Taker protocol should agree.");
+            }
+        }
+        testEqual(RATIONAL_ANALYSIS, asAnalysisProtocol(RATIONAL_ANALYSIS), "A built-in protocol should not be wrapped.");
+        testEqual(Result.isValuable, analyseFields(RATIONAL_ANALYSIS, ENERGY_CRYSTAL_TAG, 4, 0, ENERGY_CRYSTAL_TAG, 9, 0, random),
+            "Built-in protocols should analyse primitive fields.");
+
+        Fleet fleet = makeFleet(1, makeSymbolTable());
+        putScavenger(fleet, 0, makeScavenger("Alice", RISK_TAKER_ANALYSIS, new EnergyCrystal(5)));
+        testEqual(RISK_TAKER_ANALYSIS, getScavenger(fleet, 0).analysisFunc(), "A fleet should keep the protocol of a scavenger.");
+        boolean rejected = false;
+        try {
+            putScavenger(fleet, 0, makeScavenger("Bob", adapted, new EnergyCrystal(5)));
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        testEqual(true, rejected, "The fleet engine should reject adapted protocols.");
+
+        // exploreAsteroid and tradeAtStarport through the singletons take the sealed path of evaluateArtifact
+        for (int i = 0; i < 1000; i++) {
+            Artifact owned = randomArtifact(random);
+            Artifact other = randomArtifact(random);
+            Artifact found = randomArtifact(random);
+            seedRandomSource(i);
+            Pair<Scavenger, Artifact> sealedExplore = exploreAsteroid(makeScavenger("Alice", RATIONAL_ANALYSIS, owned), found);
+            Pair<Scavenger, Scavenger> sealedTrade = tradeAtStarport(makeScavenger("Alice", RATIONAL_ANALYSIS, owned),
+                makeScavenger("Bob", RISK_TAKER_ANALYSIS, other));
+            seedRandomSource(i);
+            Pair<Scavenger, Artifact> explore = exploreAsteroid(makeScavenger("Alice", this::rationalScavengerAnalysis, owned), found);
+            Pair<Scavenger, Scavenger> trade = tradeAtStarport(makeScavenger("Alice", this::rationalScavengerAnalysis, owned),
+                makeScavenger("Bob", this::riskTakerScavengerAnalysis, other));
+            testEqual(explore.first().cargo(), sealedExplore.first().cargo(), "Exploring with the sealed protocol should agree.");
+            testEqual(explore.second(), sealedExplore.second(), "Exploring with the sealed protocol should leave the same artifact.");
+            testEqual(trade.first().cargo(), sealedTrade.first().cargo(), "Trading with the sealed protocols should agree.");
+            testEqual(trade.second().cargo(), sealedTrade.second().cargo(), "Trading with the sealed protocols should agree for both sides.");
+            testEqual(RATIONAL_ANALYSIS, sealedExplore.first().analysisFunc(), "A scavenger should keep its sealed protocol.");
+        }
+    } finally {
+        useRandomSource(callerRandom);
+    }
+}
+
+/**
+ * Analyses the artifact at index j of the found columns against the one at index i of the owned columns,
+ * reading only primitive fields. Destinations and colors are compared by symbol id.
+ * Examples:
+ *     - Given: owned[i] = EnergyCrystal(4), found[j] = EnergyCrystal(9), table = RATIONAL_TABLE
+ *       Expect: isValuable
+ * @param table RATIONAL_TABLE or RISK_TAKER_TABLE
+ * @param owned the columns holding the owned artifact
+ * @param i the index of the owned artifact
+ * @param found the columns holding the new artifact
+ * @param j the index of the new artifact
+ * @param random the random source for coin flips
+ * @return the result of the analysis
+ */
+Result analyseColumns(int[] table, ArtifactColumns owned, int i, ArtifactColumns found, int j, SplittableRandom random) {
+    return analyseFields(table, owned.tags()[i], owned.values()[i], owned.symbols()[i],
+        found.tags()[j], found.values()[j], found.symbols()[j], random);
+}
+
+/**
+ * Analyses a new artifact against an owned artifact given by the primitive fields the analysis reads:
+ * the type tag, the value (risk of a StarChart, power of an EnergyCrystal) and the symbol id of the
+ * destination or color, as stored in ArtifactColumns.
+ * Examples:
+ *     - Given: analyseFields(RISK_TAKER_TABLE, INERT_ROCK_TAG, 0, 3, INERT_ROCK_TAG, 0, 3, random)
+ *       Expect: isMundane   (rocks of the same color)
+ * @param table RATIONAL_TABLE or RISK_TAKER_TABLE
+ * @param ownedTag the type tag of the owned artifact
+ * @param ownedValue the value of the owned artifact
+ * @param ownedSymbol the symbol id of the owned artifact
+ * @param newTag the type tag of the new artifact
+ * @param newValue the value of the new artifact
+ * @param newSymbol the symbol id of the new artifact
+ * @param random the random source for coin flips
+ * @return the result of the analysis
+ */
+Result analyseFields(int[] table, int ownedTag, int ownedValue, int ownedSymbol, int newTag, int newValue, int newSymbol,
+                     SplittableRandom random) {
+    int code = table[ownedTag * 3 + newTag];
+    if (code < COMPARE_RISK) {
+        return RESULTS.get(code);
+    } else if (code == COMPARE_RISK) {
+        return compareTwoStarCharts(ownedValue, newValue);
+    } else if (code == COMPARE_POWER) {
+        return compareTwoEnergyCrystals(ownedValue, newValue);
+    } else if (ownedSymbol == newSymbol) {
+        return Result.isMundane;
+    } else if (code == COMPARE_COLOR || random.nextInt(2) != 0) {
+        return Result.isIncompatible;
+    } else {
+        return Result.isValuable;
+    }
+}
+
+/** Number of pairs evaluateArtifacts handles per block, so a block's columns and pending indices stay in cache. */
+static final int EVALUATE_BLOCK = 1024;
+
+/**
+ * Whether evaluateArtifacts compares with the Vector API: the program must be compiled and started with
+ * "--add-modules jdk.incubator.vector", on a processor with 256-bit vectors. Otherwise it uses its scalar loop.
+ */
+static final boolean VECTOR_COMPARISONS = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+    && VectorComparisons.usable();
+
+/**
+ * The Vector API version of the first pass of evaluateArtifacts, in its own class so that the incubator
+ * module is only loaded when VECTOR_COMPARISONS is true.
+ */
+final class VectorComparisons {
+    static final VectorSpecies<Integer> INTS = IntVector.SPECIES_256;
+    static final VectorSpecies<Byte> TAGS = ByteVector.SPECIES_64;
+
+    /**
+     * @return true if the processor has vectors of INTS, so they are not emulated
+     */
+    static boolean usable() {
+        return IntVector.SPECIES_PREFERRED.vectorBitSize() >= INTS.vectorBitSize();
+    }
+
+    /**
+     * Same as the first pass of evaluateArtifacts over [start, end), whose length is a multiple of INTS.length():
+     * writes the Result ordinal of each pair, or its table code for a pair of InertRocks, whose index is set aside.
+     * @param table RATIONAL_TABLE or RISK_TAKER_TABLE
+     * @param owned the owned artifacts
+     * @param found the new artifacts
+     * @param results the array receiving the Result ordinals
+     * @param start the first index
+     * @param end the index just past the last one
+     * @param pending the array receiving the indices of the pairs of InertRocks
+     * @return the number of indices set aside
+     */
+    static int compare(int[] table, ArtifactColumns owned, ArtifactColumns found, byte[] results, int start, int end, int[] pending) {
+        IntVector valuable = IntVector.zero(INTS);
+        IntVector mundane = IntVector.broadcast(INTS, 1);
+        int colors = 0;
+        for (int i = start; i < end; i = i + INTS.length()) {
+            IntVector ownedTag = (IntVector) ByteVector.fromArray(TAGS, owned.tags(), i).castShape(INTS, 0);
+            IntVector foundTag = (IntVector) ByteVector.fromArray(TAGS, found.tags(), i).castShape(INTS, 0);
+            IntVector cell = ownedTag.mul(3).add(foundTag);
+            IntVector code = IntVector.broadcast(INTS, table[0]);
+            for (int c = 1; c < 9; c++) {
+                code = code.blend(table[c], cell.eq(c));
+            }
+            IntVector ownedValue = IntVector.fromArray(INTS, owned.values(), i);
+            IntVector foundValue = IntVector.fromArray(INTS, found.values(), i);
+            IntVector riskResult = mundane.blend(valuable, foundValue.lt(ownedValue));
+            IntVector powerResult = mundane.blend(valuable, foundValue.compare(VectorOperators.GT, ownedValue));
+            IntVector result = code.blend(riskResult, code.eq(COMPARE_RISK)).blend(powerResult, code.eq(COMPARE_POWER));
+            ((ByteVector) result.castShape(TAGS, 0)).intoArray(results, i);
+            long lanes = code.compare(VectorOperators.GE, COMPARE_COLOR).toLong();
+            while (lanes != 0) {
+                pending[colors] = i + Long.numberOfTrailingZeros(lanes);
+                colors = colors + 1;
+                lanes = lanes & (lanes - 1);
+            }
+        }
+        return colors;
+    }
+
+    /**
+     * @param results the Result ordinals
+     * @param start the first index
+     * @param end the index just past the last one, such that end - start is a multiple of TAGS.length()
+     * @return the number of isValuable ordinals in [start, end)
+     */
+    static int countValuable(byte[] results, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i = i + TAGS.length()) {
+            count = count + ByteVector.fromArray(TAGS, results, i).eq((byte) 0).trueCount();
+        }
+        return count;
+    }
+}
+
+/**
+ * Analyses found[i] against owned[i] for every index, writing each Result ordinal into results.
+ * A first pass handles all pairs but those of two InertRocks, which a second pass finishes in order. The first
+ * pass uses VectorComparisons when VECTOR_COMPARISONS is true, and otherwise a branch-free scalar loop.
+ * Examples:
+ *     - Given: owned = [EnergyCrystal(4), StarChart(A, 3, 0, 0)], found = [EnergyCrystal(9), StarChart(B, 5, 0, 0)],
+ *              table = RATIONAL_TABLE
+ *       Expect: 1, and results = [isValuable.ordinal(), isMundane.ordinal()]
+ * @param table RATIONAL_TABLE or RISK_TAKER_TABLE
+ * @param owned the owned artifacts
+ * @param found the new artifacts, as many as owned
+ * @param results the array receiving the Result ordinals, as long as owned
+ * @param random the random source for coin flips
+ * @return the number of pairs whose result is isValuable
+ */
+int evaluateArtifacts(int[] table, ArtifactColumns owned, ArtifactColumns found, byte[] results, SplittableRandom random) {
+    return evaluateArtifacts(table, owned, found, results, random, VECTOR_COMPARISONS);
+}
+
+/**
+ * Same as evaluateArtifacts, choosing the first pass.
+ * @param table RATIONAL_TABLE or RISK_TAKER_TABLE
+ * @param owned the owned artifacts
+ * @param found the new artifacts, as many as owned
+ * @param results the array receiving the Result ordinals, as long as owned
+ * @param random the random source for coin flips
+ * @param vectorised whether to use VectorComparisons, which needs VECTOR_COMPARISONS to be true
+ * @return the number of pairs whose result is isValuable
+ */
+int evaluateArtifacts(int[] table, ArtifactColumns owned, ArtifactColumns found, byte[] results, SplittableRandom random,
+                      boolean vectorised) {
+    byte[] ownedTags = owned.tags();
+    byte[] foundTags = found.tags();
+    int[] ownedValues = owned.values();
+    int[] foundValues = found.values();
+    int[] pending = new int[EVALUATE_BLOCK];
+    int valuable = 0;
+    for (int block = 0; block < results.length; block = block + EVALUATE_BLOCK) {
+        int end = Math.min(block + EVALUATE_BLOCK, results.length);
+        int colors = 0;
+        int vectorEnd = block;
+        if (vectorised) {
+            vectorEnd = end - (end - block) % VectorComparisons.INTS.length();
+            colors = VectorComparisons.compare(table, owned, found, results, block, vectorEnd, pending);
+            valuable = valuable + VectorComparisons.countValuable(results, block, vectorEnd);
+        }
+        for (int i = vectorEnd; i < end; i++) {
+            int code = table[ownedTags[i] * 3 + foundTags[i]];
+            // each flag is 1 or 0: (x - 1) >>> 31 is 1 exactly when x is 0, for x in [0, 8]
+            int isRisk = ((code ^ COMPARE_RISK) - 1) >>> 31;
+            int isPower = ((code ^ COMPARE_POWER) - 1) >>> 31;
+            int riskDrops = (int) (((long) foundValues[i] - ownedValues[i]) >>> 63);
+            int powerRises = (int) (((long) ownedValues[i] - foundValues[i]) >>> 63);
+            // isValuable is 0 and isMundane is 1, so a comparison's result is 1 - (its test holds)
+            int result = code + isRisk * (1 - riskDrops - code) + isPower * (1 - powerRises - code);
+            results[i] = (byte) result;
+            valuable = valuable + ((result - 1) >>> 31);
+            pending[colors] = i;
+            colors = colors + ((COMPARE_COLOR - 1 - code) >>> 31);
+        }
+        for (int k = 0; k < colors; k++) {
+            int i = pending[k];
+            Result result = analyseColumns(table, owned, i, found, i, random);
+            results[i] = (byte) result.ordinal();
+            if (result == Result.isValuable) {
+                valuable = valuable + 1;
+            }
+        }
+    }
+    return valuable;
+}
+
+/**
+ * Times evaluateArtifact called on every pair of two random artifact arrays, then evaluateArtifacts
+ * on the same pairs stored as columns, with its scalar and (if available) its vectorised first pass,
+ * and prints the time per pair of each.
+ * @param size the number of pairs
+ * @param rounds the number of measured rounds (after as many warm-up rounds)
+ */
+void benchmarkEvaluate(int size, int rounds) {
+    SplittableRandom random = new SplittableRandom(42);
+    Artifact[] owned = new Artifact[size];
+    Artifact[] found = new Artifact[size];
+    SymbolTable symbols = makeSymbolTable();
+    ArtifactColumns ownedColumns = makeArtifactColumns(size);
+    ArtifactColumns foundColumns = makeArtifactColumns(size);
+    for (int i = 0; i < size; i++) {
+        owned[i] = randomArtifact(random);
+        found[i] = randomArtifact(random);
+        setArtifact(ownedColumns, i, owned[i], symbols);
+        setArtifact(foundColumns, i, found[i], symbols);
+    }
+    BiFunction<Artifact, Artifact, Result> protocol = this::rationalScavengerAnalysis;
+    byte[] results = new byte[size];
+    long valuable = 0;
+    long perPair = 0;
+    long scalar = 0;
+    long vector = 0;
+    for (int round = 0; round < 2 * rounds; round++) {
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            valuable += evaluateArtifact(protocol, owned[i], found[i]).ordinal();
+        }
+        long middle = System.nanoTime();
+        valuable += evaluateArtifacts(RATIONAL_TABLE, ownedColumns, foundColumns, results, random, false);
+        long scalarEnd = System.nanoTime();
+        if (VECTOR_COMPARISONS) {
+            valuable += evaluateArtifacts(RATIONAL_TABLE, ownedColumns, foundColumns, results, random, true);
+        }
+        long end = System.nanoTime();
+        if (round >= rounds) {
+            perPair += middle - start;
+            scalar += scalarEnd - middle;
+            vector += end - scalarEnd;
+        }
+    }
+    benchmarkSink = valuable;
+    double total = (double) size * rounds;
+    println(String.format("evaluateArtifact: %.2f ns/pair; evaluateArtifacts, scalar: %.2f ns/pair, %.1fx faster",
+        perPair / total, scalar / total, (double) perPair / scalar));
+    if (VECTOR_COMPARISONS) {
+        println(String.format("evaluateArtifacts, vectorised: %.2f ns/pair, %.1fx faster",
+            vector / total, (double) perPair / vector));
+    } else {
+        println("evaluateArtifacts, vectorised: unavailable (needs --add-modules jdk.incubator.vector and 256-bit vectors)");
+    }
+}
+
+void testEvaluateArtifacts() {
+    SplittableRandom random = new SplittableRandom(6);
+    int size = 3000;
+    SymbolTable symbols = makeSymbolTable();
+    Artifact[] owned = new Artifact[size];
+    Artifact[] found = new Artifact[size];
+    ArtifactColumns ownedColumns = makeArtifactColumns(size);
+    ArtifactColumns foundColumns = makeArtifactColumns(size);
+    for (int i = 0; i < size; i++) {
+        owned[i] = randomArtifact(random);
+        found[i] = randomArtifact(random);
+        setArtifact(ownedColumns, i, owned[i], symbols);
+        setArtifact(foundColumns, i, found[i], symbols);
+    }
+    for (int run = 0; run < 4; run++) {
+        int protocol = run % 2 == 0 ? RATIONAL_PROTOCOL : RISK_TAKER_PROTOCOL;
+        boolean vectorised = run >= 2;
+        if (vectorised && !VECTOR_COMPARISONS) {
+            continue;
+        }
+        int[] table = protocolTable(protocol);
+        byte[] results = new byte[size];
+        int valuable = evaluateArtifacts(table, ownedColumns, foundColumns, results, new SplittableRandom(8), vectorised);
+        SplittableRandom flips = new SplittableRandom(8);
+        int expectedValuable = 0;
+        for (int i = 0; i < size; i++) {
+            Result expected = analyseColumns(table, ownedColumns, i, foundColumns, i, flips);
+            testEqual(expected, RESULTS.get(results[i]), "Batch results should match analyseColumns at " + i);
+            if (expected == Result.isValuable) {
+                expectedValuable = expectedValuable + 1;
+            }
+            if (!(owned[i] instanceof InertRock && found[i] instanceof InertRock)) {
+                testEqual(evaluateArtifact(protocolFunction(protocol), owned[i], found[i]), RESULTS.get(results[i]),
+                    "Batch results should match evaluateArtifact for " + owned[i] + " and " + found[i]);
+            }
+        }
+        testEqual(expectedValuable, valuable, "The batch should count its valuable pairs.");
+    }
+}
+
+/**
+ * Runs one round of asteroid exploration over the whole fleet, in place:
+ * scavenger i explores an asteroid holding found[i], following the rules of exploreAsteroid.
+ * After the round, the cargo columns hold each scavenger's new cargo, and found[i] holds the artifact
+ * left behind on asteroid i (the old cargo after a swap, the found artifact otherwise).
+ * Examples:
+ *     - Given: scavenger 0 = Rational, EnergyCrystal(5); found[0] = EnergyCrystal(10)
+ *       Expect: cargo[0] = EnergyCrystal(10), found[0] = EnergyCrystal(5)
+ *     - Given: scavenger 1 = Rational, EnergyCrystal(5); found[1] = StarChart("Mars", 2, 3, 4)
+ *       Expect: - If shields hold, cargo[1] = StarChart("Mars", 2, 3, 4), found[1] = EnergyCrystal(5)
+ *               - If shields fail, cargo[1] = InertRock("dull grey"), found[1] = StarChart("Mars", 2, 3, 4)
+ * @param fleet the fleet
+ * @param found the artifact found by each scavenger, using the symbol table of the fleet
+ * @param random the random source for coin flips and shield checks
+ * @return the number of scavengers whose cargo changed
+ */
+long exploreAsteroidRound(Fleet fleet, ArtifactColumns found, SplittableRandom random) {
+    ArtifactColumns cargo = fleet.cargo();
+    byte[] protocols = fleet.protocols();
+    int dullGrey = internSymbol(fleet.symbols(), DULL_GREY);
+    boolean counted = metricsEnabled;
+    long changed = 0;
+    for (int i = 0; i < protocols.length; i++) {
+        Result result = analyseColumns(protocolTable(protocols[i]), cargo, i, found, i, random);
+        if (counted) {
+            countAnalysis(protocols[i], cargo.tags()[i], found.tags()[i], result);
+        }
+        int outcome = EXPLORE_IGNORE;
+        if (result == Result.isValuable || (result == Result.isHazardous && random.nextInt(2) == 0)) {
+            swapArtifactColumns(cargo, i, found, i);
+            markChanged(fleet, i);
+            changed = changed + 1;
+            outcome = result == Result.isValuable ? EXPLORE_SWAP : SHIELDS_HELD;
+        } else if (result == Result.isHazardous) {
+            setArtifactFields(cargo, i, INERT_ROCK_TAG, 0, 0, 0, dullGrey);
+            markChanged(fleet, i);
+            changed = changed + 1;
+            outcome = SHIELDS_FAILED;
+        }
+        if (counted) {
+            countOutcome(outcome);
+        }
+    }
+    return changed;
+}
+
+/**
+ * Fills a fleet with random scavengers (half rational, half risk takers) holding random artifacts,
+ * and fills the found columns with random artifacts, as in randomArtifact.
+ * @param fleet the fleet to fill
+ * @param found the columns to fill, of the same size as the fleet
+ * @param random the random source
+ */
+void randomizeFleet(Fleet fleet, ArtifactColumns found, SplittableRandom random) {
+    for (int i = 0; i < fleetSize(fleet); i++) {
+        fleet.protocols()[i] = (byte) random.nextInt(2);
+        setArtifact(fleet.cargo(), i, randomArtifact(random), fleet.symbols());
+        markChanged(fleet, i);
+        setArtifact(found, i, randomArtifact(random), fleet.symbols());
+    }
+}
+
+/**
+ * Times rounds of exploreAsteroidRound over a random fleet and prints the time per round and per scavenger.
+ * @param size the number of scavengers
+ * @param rounds the number of measured rounds (after as many warm-up rounds)
+ */
+void benchmarkFleet(int size, int rounds) {
+    Fleet fleet = makeFleet(size, makeSymbolTable());
+    ArtifactColumns found = makeArtifactColumns(size);
+    SplittableRandom random = new SplittableRandom(42);
+    randomizeFleet(fleet, found, random);
+    for (int round = 0; round < rounds; round++) {
+        exploreAsteroidRound(fleet, found, random);
+    }
+    long start = System.nanoTime();
+    long changed = 0;
+    for (int round = 0; round < rounds; round++) {
+        changed += exploreAsteroidRound(fleet, found, random);
+    }
+    double nsPerRound = (double) (System.nanoTime() - start) / rounds;
+    println(String.format("exploreAsteroidRound: %d scavengers, %.1f ms/round, %.2f ns/scavenger, %d cargo changes",
+        size, nsPerRound / 1e6, nsPerRound / size, changed));
+    println("Symbols: " + symbolReport(fleet.symbols()));
+}
+
+void testExploreAsteroidRound() {
+    Artifact[] cargo = {
+        new EnergyCrystal(5), new StarChart("M", 5, 1, 7), new InertRock("red"),
+        new StarChart("M", 5, 1, 7), new EnergyCrystal(5), new InertRock("blue")
+    };
+    Artifact[] found = {
+        new EnergyCrystal(10), new StarChart("Danger", 8, 2, 0), new InertRock("blue"),
+        new StarChart("Danger", 8, 2, 0), new InertRock("red"), new InertRock("blue")
+    };
+    int[] protocols = {RATIONAL_PROTOCOL, RATIONAL_PROTOCOL, RATIONAL_PROTOCOL, RISK_TAKER_PROTOCOL, RISK_TAKER_PROTOCOL, RISK_TAKER_PROTOCOL};
+    Fleet fleet = makeFleet(cargo.length, makeSymbolTable());
+    ArtifactColumns foundColumns = makeArtifactColumns(cargo.length);
+    for (int i = 0; i < cargo.length; i++) {
+        setScavenger(fleet, i, "S" + i, protocols[i], cargo[i]);
+        setArtifact(foundColumns, i, found[i], fleet.symbols());
+    }
+    exploreAsteroidRound(fleet, foundColumns, new SplittableRandom(1));
+    for (int i = 0; i < cargo.length; i++) {
+        Pair<Scavenger, Artifact> expected = exploreAsteroid(new Scavenger("S" + i, protocolFunction(protocols[i]), cargo[i]), found[i]);
+        testEqual(expected.first().cargo(), getScavenger(fleet, i).cargo(), "Fleet round should give the cargo of exploreAsteroid for S" + i);
+        testEqual(expected.second(), getArtifact(foundColumns, i, fleet.symbols()), "Fleet round should leave behind the artifact of exploreAsteroid for S" + i);
+        testEqual("S" + i, getScavenger(fleet, i).name(), "Fleet round should keep the names.");
+    }
+
+    // hazardous: the shields either hold (swap) or fail (dull grey rock)
+    Fleet hazard = makeFleet(64, makeSymbolTable());
+    ArtifactColumns hazards = makeArtifactColumns(64);
+    for (int i = 0; i < 64; i++) {
+        setScavenger(hazard, i, "H" + i, RATIONAL_PROTOCOL, new EnergyCrystal(i));
+        setArtifact(hazards, i, new StarChart("Mars", 2, 3, 4), hazard.symbols());
+    }
+    testEqual(64L, exploreAsteroidRound(hazard, hazards, new SplittableRandom(2)), "Every hazardous encounter should change the cargo.");
+    int held = 0;
+    for (int i = 0; i < 64; i++) {
+        Artifact after = getArtifact(hazard.cargo(), i, hazard.symbols());
+        Artifact left = getArtifact(hazards, i, hazard.symbols());
+        if (Equals(after, new StarChart("Mars", 2, 3, 4))) {
+            held = held + 1;
+            testEqual(new EnergyCrystal(i), left, "When the shields hold, the old cargo is left behind.");
+        } else {
+            testEqual(new InertRock(DULL_GREY), after, "When the shields fail, the cargo becomes a dull grey rock.");
+            testEqual(new StarChart("Mars", 2, 3, 4), left, "When the shields fail, the found artifact is left behind.");
+        }
+    }
+    testEqual(true, held > 0 && held < 64, "Shields should sometimes hold and sometimes fail.");
+}
+
+
+// Part 2 - Starport matchmaking
+// Only StarChart holders, or two Risk Takers with InertRocks of different colors, can ever trade.
+
+/**
+ * Packs a sort key and a scavenger index into a long, so that sorting the longs sorts the indices by key.
+ * Examples:
+ *     - Given: sortKey(-3, 7) < sortKey(2, 1)
+ *       Expect: true
+ * @param key the value to sort by
+ * @param index the index of the scavenger
+ * @return the packed key
+ */
+long sortKey(int key, int index) {
+    return ((long) key << 32) | index;
+}
+
+/**
+ * Returns the index packed in a sort key.
+ * @param sortKey a key built by sortKey
+ * @return the index of the scavenger
+ */
+int sortKeyIndex(long sortKey) {
+    return (int) sortKey;
+}
+
+/**
+ * Returns the sort keys (by value, then index) of the scavengers with the given protocol and cargo type.
+ * Examples:
+ *     - Given: a fleet where scavengers 0 and 2 are Risk Takers holding StarCharts of risk 4 and 1
+ *       Expect: [sortKey(1, 2), sortKey(4, 0)] for (RISK_TAKER_PROTOCOL, STAR_CHART_TAG, false)
+ * @param fleet the fleet
+ * @param protocol the protocol id to select
+ * @param tag the cargo type tag to select
+ * @param bySymbol true to sort by symbol id (color), false to sort by value (risk or power)
+ * @return the sorted keys of the selected scavengers
+ */
+long[] sortedStarportKeys(Fleet fleet, int protocol, int tag, boolean bySymbol) {
+    ArtifactColumns cargo = fleet.cargo();
+    long[] keys = new long[fleetSize(fleet)];
+    int count = 0;
+    for (int i = 0; i < keys.length; i++) {
+        if (fleet.protocols()[i] == protocol && cargo.tags()[i] == tag) {
+            int key = cargo.values()[i];
+            if (bySymbol) {
+                key = cargo.symbols()[i];
+            }
+            keys[count] = sortKey(key, i);
+            count = count + 1;
+        }
+    }
+    keys = Arrays.copyOf(keys, count);
+    Arrays.sort(keys);
+    return keys;
+}
+
+/**
+ * Trades the cargo of two scavengers of the fleet if, as in tradeAtStarport, each rates the other's cargo VALUABLE.
+ * Examples:
+ *     - Given: scavenger a = Rational, StarChart("A", 5, 2, 3); scavenger b = Risk Taker, StarChart("B", 3, 4, 6)
+ *       Expect: true; a now holds StarChart("B", 3, 4, 6) and b holds StarChart("A", 5, 2, 3)
+ * @param fleet the fleet
+ * @param a the index of the first scavenger
+ * @param b the index of the second scavenger
+ * @param random the random source for coin flips
+ * @return true if the trade happened
+ */
+boolean tradeInFleet(Fleet fleet, int a, int b, SplittableRandom random) {
+    ArtifactColumns cargo = fleet.cargo();
+    Result resultA = analyseColumns(protocolTable(fleet.protocols()[a]), cargo, a, cargo, b, random);
+    Result resultB = analyseColumns(protocolTable(fleet.protocols()[b]), cargo, b, cargo, a, random);
+    boolean trade = resultA == Result.isValuable && resultB == Result.isValuable;
+    if (metricsEnabled) {
+        countAnalysis(fleet.protocols()[a], cargo.tags()[a], cargo.tags()[b], resultA);
+        countAnalysis(fleet.protocols()[b], cargo.tags()[b], cargo.tags()[a], resultB);
+        countOutcome(TRADE_ATTEMPT);
+        if (trade) {
+            countOutcome(TRADE_DONE);
+        }
+    }
+    if (trade) {
+        swapArtifactColumns(cargo, a, cargo, b);
+        markChanged(fleet, a);
+        markChanged(fleet, b);
+    }
+    return trade;
+}
+
+/**
+ * Runs a conflict-free set of mutually beneficial trades over the whole fleet, in place, in O(N log N).
+ * Each scavenger trades at most once, and every trade is one tradeAtStarport would make.
+ * Examples:
+ *     - Given: Rational holders of StarCharts with risks 3, 5, 9 and Risk Taker holders with risks 1, 2, 4, 8
+ *       Expect: 3 trades: risk 3 <-> 1, 5 <-> 2, 9 <-> 4; the Risk Taker with risk 8 does not trade
+ * @param fleet the fleet at the starport
+ * @param random the random source for coin flips
+ * @return the number of trades made
+ */
+long matchStarport(Fleet fleet, SplittableRandom random) {
+    long trades = 0;
+    long[] rational = sortedStarportKeys(fleet, RATIONAL_PROTOCOL, STAR_CHART_TAG, false);
+    long[] riskTakers = sortedStarportKeys(fleet, RISK_TAKER_PROTOCOL, STAR_CHART_TAG, false);
+    boolean[] traded = new boolean[riskTakers.length];
+    int next = 0;
+    for (long key : rational) {
+        if (next < riskTakers.length && fleet.cargo().values()[sortKeyIndex(riskTakers[next])] < fleet.cargo().values()[sortKeyIndex(key)]) {
+            if (tradeInFleet(fleet, sortKeyIndex(key), sortKeyIndex(riskTakers[next]), random)) {
+                trades = trades + 1;
+                traded[next] = true;
+            }
+            next = next + 1;
+        }
+    }
+
+    int waiting = -1;
+    for (int k = 0; k < riskTakers.length; k++) {
+        if (!traded[k]) {
+            if (waiting < 0) {
+                waiting = sortKeyIndex(riskTakers[k]);
+            } else if (tradeInFleet(fleet, waiting, sortKeyIndex(riskTakers[k]), random)) {
+                trades = trades + 1;
+                waiting = -1;
+            }
+        }
+    }
+
+    long[] rocks = sortedStarportKeys(fleet, RISK_TAKER_PROTOCOL, INERT_ROCK_TAG, true);
+    int half = (rocks.length + 1) / 2;
+    for (int k = 0; k + half < rocks.length; k++) {
+        if (tradeInFleet(fleet, sortKeyIndex(rocks[k]), sortKeyIndex(rocks[k + half]), random)) {
+            trades = trades + 1;
+        }
+    }
+    return trades;
+}
+
+/**
+ * Times matchStarport over a random fleet and prints the time and number of trades.
+ * @param size the number of scavengers at the starport
+ */
+void benchmarkStarport(int size) {
+    Fleet fleet = makeFleet(size, makeSymbolTable());
+    SplittableRandom random = new SplittableRandom(42);
+    randomizeFleet(fleet, makeArtifactColumns(size), random);
+    long start = System.nanoTime();
+    long trades = matchStarport(fleet, random);
+    double elapsed = System.nanoTime() - start;
+    println(String.format("matchStarport: %d scavengers, %.1f ms, %d trades", size, elapsed / 1e6, trades));
+}
+
+void testMatchStarport() {
+    Fleet fleet = makeFleet(9, makeSymbolTable());
+    setScavenger(fleet, 0, "R5", RATIONAL_PROTOCOL, new StarChart("A", 5, 0, 0));
+    setScavenger(fleet, 1, "R3", RATIONAL_PROTOCOL, new StarChart("B", 3, 0, 0));
+    setScavenger(fleet, 2, "R9", RATIONAL_PROTOCOL, new StarChart("C", 9, 0, 0));
+    setScavenger(fleet, 3, "K4", RISK_TAKER_PROTOCOL, new StarChart("D", 4, 0, 0));
+    setScavenger(fleet, 4, "K1", RISK_TAKER_PROTOCOL, new StarChart("E", 1, 0, 0));
+    setScavenger(fleet, 5, "K8", RISK_TAKER_PROTOCOL, new StarChart("F", 8, 0, 0));
+    setScavenger(fleet, 6, "K2", RISK_TAKER_PROTOCOL, new StarChart("G", 2, 0, 0));
+    setScavenger(fleet, 7, "RE", RATIONAL_PROTOCOL, new EnergyCrystal(5));
+    setScavenger(fleet, 8, "KE", RISK_TAKER_PROTOCOL, new EnergyCrystal(10));
+    testEqual(3L, matchStarport(fleet, new SplittableRandom(1)), "Three rational/risk taker StarChart trades are possible.");
+    testEqual(new StarChart("G", 2, 0, 0), getScavenger(fleet, 0).cargo(), "R5 should trade with K2.");
+    testEqual(new StarChart("E", 1, 0, 0), getScavenger(fleet, 1).cargo(), "R3 should trade with K1.");
+    testEqual(new StarChart("D", 4, 0, 0), getScavenger(fleet, 2).cargo(), "R9 should trade with K4.");
+    testEqual(new StarChart("F", 8, 0, 0), getScavenger(fleet, 5).cargo(), "K8 has no partner left.");
+    testEqual(new EnergyCrystal(5), getScavenger(fleet, 7).cargo(), "EnergyCrystals never trade both ways.");
+
+    // every trade must be one tradeAtStarport would make
+    Scavenger before0 = new Scavenger("R5", this::rationalScavengerAnalysis, new StarChart("A", 5, 0, 0));
+    Scavenger before6 = new Scavenger("K2", this::riskTakerScavengerAnalysis, new StarChart("G", 2, 0, 0));
+    Pair<Scavenger, Scavenger> traded = tradeAtStarport(before0, before6);
+    testEqual(traded.first().cargo(), getScavenger(fleet, 0).cargo(), "Fleet trade should match tradeAtStarport.");
+    testEqual(traded.second().cargo(), getScavenger(fleet, 6).cargo(), "Fleet trade should match tradeAtStarport.");
+
+    Fleet riskTakers = makeFleet(4, makeSymbolTable());
+    for (int i = 0; i < 4; i++) {
+        setScavenger(riskTakers, i, "K" + i, RISK_TAKER_PROTOCOL, new StarChart("S" + i, i, 0, 0));
+    }
+    testEqual(2L, matchStarport(riskTakers, new SplittableRandom(1)), "Risk takers holding StarCharts should trade in pairs.");
+}
+
+
+// Part 2 - Fleet checkpoints
+// A header, one fixed-width record per scavenger, then an append-only log of names and symbols.
+// Changed records go to a forced redo journal after the log before they are rewritten in place.
+
+/** The first four bytes of a checkpoint file ("FLTC"). */
+static final int CHECKPOINT_MAGIC = 0x464C5443;
+
+/** The version of the checkpoint format. */
+static final int CHECKPOINT_VERSION = 2;
+
+/** Length of the header of a checkpoint file. */
+static final int CHECKPOINT_HEADER_LENGTH = 64;
+
+/** Length of the record of one scavenger in a checkpoint file. */
+static final int CHECKPOINT_RECORD_LENGTH = 24;
+
+/** Length of an entry of the redo journal of a checkpoint file: the record index, then the new record. */
+static final int CHECKPOINT_REDO_LENGTH = 4 + CHECKPOINT_RECORD_LENGTH;
+
+/** Kind byte of a symbol in the string log of a checkpoint. */
+static final int SYMBOL_ENTRY = 0;
+/** Kind byte of a scavenger name in the string log of a checkpoint. */
+static final int NAME_ENTRY = 1;
+
+/**
+ * Writes a full checkpoint of a fleet, replacing the file, and clears the change flags of the fleet.
+ * The checkpoint is written and forced to [path].tmp first, then moved over the file atomically,
+ * so the last good checkpoint stays in place until the new one is durable.
+ * Examples:
+ *     - Given: a fleet of 3 scavengers named "A", "B", "C", holding artifacts with 2 symbols in total
+ *       Expect: 3, and a file of 64 + 3 * 24 bytes of records followed by a 5-entry string log
+ * @param fleet the fleet to save
+ * @param path path of the checkpoint file (created or replaced)
+ * @return the number of records written
+ * @throws IOException if the file cannot be written
+ * @throws IllegalArgumentException if the fleet is too large for a checkpoint file
+ */
+long writeCheckpoint(Fleet fleet, String path) throws IOException {
+    Path temporary = Path.of(path + ".tmp");
+    long written;
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, CHECKPOINT_MAGIC);
+        header.putInt(4, CHECKPOINT_VERSION);
+        header.putInt(8, fleetSize(fleet));
+        byte[] changes = new byte[fleetSize(fleet)];
+        Arrays.fill(changes, (byte) (RECORD_CHANGED | NAME_CHANGED));
+        written = saveChanges(fleet, changes, channel, header, false);
+    }
+    Files.move(temporary, Path.of(path), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    Arrays.fill(fleet.changes(), (byte) 0);
+    return written;
+}
+
+/**
+ * Brings a checkpoint file up to date with a fleet, rewriting only the records of the scavengers
+ * that changed since the last checkpoint, and clears the change flags of the fleet once the file is durable.
+ * A crash at any point leaves a file that restores to the fleet before or after this update.
+ * Examples:
+ *     - Given: a fleet checkpointed to path, then one round of exploreAsteroidRound changing 4417204 cargos
+ *       Expect: 4417204, and restoreCheckpoint(path) gives the fleet after the round
+ * @param fleet the fleet to save, checkpointed to the file before
+ * @param path path of the checkpoint file
+ * @return the number of records rewritten
+ * @throws IOException if the file cannot be read or written
+ * @throws IllegalArgumentException if the file is not a checkpoint of a fleet of this size
+ */
+long updateCheckpoint(Fleet fleet, String path) throws IOException {
+    try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        ByteBuffer header = readCheckpointHeader(channel);
+        if (header.getInt(8) != fleetSize(fleet)) {
+            throw new IllegalArgumentException("Checkpoint holds " + header.getInt(8) + " scavengers, not " + fleetSize(fleet));
+        }
+        // finish an update interrupted after its journal was committed
+        applyRedoJournal(channel, header);
+        long written = saveChanges(fleet, fleet.changes(), channel, header, true);
+        Arrays.fill(fleet.changes(), (byte) 0);
+        return written;
+    }
+}
+
+/**
+ * Saves the changed scavengers of a fleet into a checkpoint file: appends their new names and the new symbols
+ * to the string log, writes the header, then rewrites their records. With a journal, the new records are first
+ * written after the string log and forced, and the header commits them by giving their count, so a crash while
+ * they are rewritten in place is repaired from the journal; the count is cleared once the records are durable.
+ * @param fleet the fleet to save
+ * @param changes the change flags of the scavengers to save (not cleared)
+ * @param channel the checkpoint file
+ * @param header the current header of the file (a zero symbol count, log end and journal for a new file)
+ * @param journal whether to journal the records before rewriting them, for a file that holds a checkpoint already
+ * @return the number of records rewritten
+ * @throws IOException if the file cannot be written
+ * @throws IllegalArgumentException if the fleet or its string log is too large for a checkpoint file
+ */
+long saveChanges(Fleet fleet, byte[] changes, FileChannel channel, ByteBuffer header, boolean journal) throws IOException {
+    int size = fleetSize(fleet);
+    long logStart = CHECKPOINT_HEADER_LENGTH + (long) size * CHECKPOINT_RECORD_LENGTH;
+    if (logStart > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Fleet too large for a checkpoint: " + size + " scavengers");
+    }
+    int[] nameOffsets = new int[size];
+    ByteBuffer log = ByteBuffer.allocate(BINARY_STREAM_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+    long logEnd = header.getLong(16);
+    int symbolCount = header.getInt(12);
+    for (int id = symbolCount; id < symbolCount(fleet.symbols()); id++) {
+        logEnd = appendLogString(channel, log, logStart, logEnd, SYMBOL_ENTRY, symbolName(fleet.symbols(), id));
+    }
+    symbolCount = symbolCount(fleet.symbols());
+    for (int i = 0; i < size; i++) {
+        nameOffsets[i] = -1;
+        if ((changes[i] & NAME_CHANGED) != 0 && fleet.names()[i] != null) {
+            nameOffsets[i] = (int) (logEnd + log.position());
+            logEnd = appendLogString(channel, log, logStart, logEnd, NAME_ENTRY, fleet.names()[i]);
+        }
+    }
+    logEnd = flushLog(channel, log, logStart, logEnd);
+
+    MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_WRITE, CHECKPOINT_HEADER_LENGTH,
+        (long) size * CHECKPOINT_RECORD_LENGTH);
+    records.order(ByteOrder.LITTLE_ENDIAN);
+    ByteBuffer record = ByteBuffer.allocate(CHECKPOINT_RECORD_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    int count = 0;
+    long redoEnd = logStart + logEnd;
+    for (int i = 0; i < size; i++) {
+        if (changes[i] != 0) {
+            int at = i * CHECKPOINT_RECORD_LENGTH;
+            int nameOffset = (changes[i] & NAME_CHANGED) != 0 ? nameOffsets[i] : records.getInt(at + 20);
+            putCheckpointRecord(record, fleet, i, nameOffset);
+            if (journal) {
+                if (log.remaining() < CHECKPOINT_REDO_LENGTH) {
+                    redoEnd = writeFully(channel, log.flip(), redoEnd);
+                    log.clear();
+                }
+                log.putInt(i).put(record.clear());
+            } else {
+                records.put(at, record.clear(), 0, CHECKPOINT_RECORD_LENGTH);
+            }
+            count = count + 1;
+        }
+    }
+    if (journal) {
+        writeFully(channel, log.flip(), redoEnd);
+    }
+    channel.force(false);
+
+    header.putInt(12, symbolCount);
+    header.putLong(16, logEnd);
+    header.putInt(24, journal ? count : 0);
+    channel.write(header.clear(), 0);
+    // the header must be durable before any record refers to the strings it covers, or is overwritten
+    channel.force(false);
+    if (journal) {
+        applyRedoJournal(channel, header);
+    } else {
+        records.force();
+    }
+    return count;
+}
+
+/**
+ * Writes the record of a scavenger of a fleet into a buffer, in the checkpoint record layout.
+ * @param record the buffer, CHECKPOINT_RECORD_LENGTH bytes long
+ * @param fleet the fleet
+ * @param i the index of the scavenger
+ * @param nameOffset the offset of the scavenger's name in the string log, or -1 for no name
+ */
+void putCheckpointRecord(ByteBuffer record, Fleet fleet, int i, int nameOffset) {
+    ArtifactColumns cargo = fleet.cargo();
+    record.put(0, fleet.protocols()[i]);
+    record.put(1, cargo.tags()[i]);
+    record.putShort(2, (short) 0);
+    record.putInt(4, cargo.values()[i]);
+    record.putInt(8, cargo.sectors()[i]);
+    record.putInt(12, cargo.systems()[i]);
+    record.putInt(16, cargo.symbols()[i]);
+    record.putInt(20, nameOffset);
+}
+
+/**
+ * Writes the whole of a buffer to a file at the given position.
+ * @param channel the file
+ * @param buffer the bytes to write, from its position to its limit
+ * @param position the file offset to write at
+ * @return the file offset just past the bytes written
+ * @throws IOException if the file cannot be written
+ */
+long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+        position = position + channel.write(buffer, position);
+    }
+    return position;
+}
+
+/**
+ * Copies the committed redo journal of a checkpoint file, if any, into the records, forces them,
+ * and then clears the journal count in the header. Applying a journal twice gives the same records.
+ * @param channel the checkpoint file, open for writing
+ * @param header the current header of the file, updated when the journal is cleared
+ * @throws IOException if the file cannot be read or written
+ * @throws IllegalArgumentException if the journal is damaged
+ */
+void applyRedoJournal(FileChannel channel, ByteBuffer header) throws IOException {
+    int count = header.getInt(24);
+    if (count == 0) {
+        return;
+    }
+    int size = header.getInt(8);
+    long logStart = CHECKPOINT_HEADER_LENGTH + (long) size * CHECKPOINT_RECORD_LENGTH;
+    ByteBuffer redo = mapRedoJournal(channel, header, FileChannel.MapMode.READ_ONLY);
+    MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_WRITE, CHECKPOINT_HEADER_LENGTH, logStart - CHECKPOINT_HEADER_LENGTH);
+    for (int n = 0; n < count; n++) {
+        int at = n * CHECKPOINT_REDO_LENGTH;
+        records.put(redo.getInt(at) * CHECKPOINT_RECORD_LENGTH, redo, at + 4, CHECKPOINT_RECORD_LENGTH);
+    }
+    records.force();
+    header.putInt(24, 0);
+    channel.write(header.clear(), 0);
+    channel.force(false);
+}
+
+/**
+ * Maps the committed redo journal of a checkpoint file, which follows the string log, checking its bounds.
+ * @param channel the checkpoint file
+ * @param header the header of the file
+ * @param mode the mapping mode
+ * @return the journal, in little-endian order
+ * @throws IOException if the file cannot be mapped
+ * @throws IllegalArgumentException if the journal lies outside the file or refers to records that do not exist
+ */
+ByteBuffer mapRedoJournal(FileChannel channel, ByteBuffer header, FileChannel.MapMode mode) throws IOException {
+    int size = header.getInt(8);
+    int count = header.getInt(24);
+    long start = CHECKPOINT_HEADER_LENGTH + (long) size * CHECKPOINT_RECORD_LENGTH + header.getLong(16);
+    if (count < 0 || count > size || start + (long) count * CHECKPOINT_REDO_LENGTH > channel.size()) {
+        throw new IllegalArgumentException("Damaged checkpoint: bad redo journal");
+    }
+    ByteBuffer redo = channel.map(mode, start, (long) count * CHECKPOINT_REDO_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    for (int n = 0; n < count; n++) {
+        int index = redo.getInt(n * CHECKPOINT_REDO_LENGTH);
+        if (index < 0 || index >= size) {
+            throw new IllegalArgumentException("Damaged checkpoint: redo journal refers to record " + index);
+        }
+    }
+    return redo;
+}
+
+/**
+ * Appends a string to the string log through a buffer, writing the buffer out when it is full.
+ * @param channel the checkpoint file
+ * @param log the buffer of log entries not written yet
+ * @param logStart the file offset of the string log
+ * @param logEnd the length of the string log already in the file
+ * @param kind SYMBOL_ENTRY or NAME_ENTRY
+ * @param s the string to append
+ * @return the new length of the string log in the file
+ * @throws IOException if the file cannot be written
+ */
+long appendLogString(FileChannel channel, ByteBuffer log, long logStart, long logEnd, int kind, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    if (log.remaining() < bytes.length + 5) {
+        logEnd = flushLog(channel, log, logStart, logEnd);
+    }
+    if (log.remaining() < bytes.length + 5) {
+        ByteBuffer entry = ByteBuffer.allocate(bytes.length + 5).order(ByteOrder.LITTLE_ENDIAN);
+        entry.put((byte) kind).putInt(bytes.length).put(bytes);
+        return flushLog(channel, entry, logStart, logEnd);
+    }
+    log.put((byte) kind).putInt(bytes.length).put(bytes);
+    return logEnd;
+}
+
+/**
+ * Writes the buffered log entries at the end of the string log and empties the buffer.
+ * @param channel the checkpoint file
+ * @param log the buffer of log entries not written yet
+ * @param logStart the file offset of the string log
+ * @param logEnd the length of the string log already in the file
+ * @return the new length of the string log in the file
+ * @throws IOException if the file cannot be written
+ * @throws IllegalArgumentException if the string log would exceed 2 GiB
+ */
+long flushLog(FileChannel channel, ByteBuffer log, long logStart, long logEnd) throws IOException {
+    log.flip();
+    if (logEnd + log.remaining() > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Checkpoint string log full; write a full checkpoint instead");
+    }
+    while (log.hasRemaining()) {
+        logEnd = logEnd + channel.write(log, logStart + logEnd);
+    }
+    log.clear();
+    return logEnd;
+}
+
+/**
+ * Reads and checks the header of a checkpoint file.
+ * @param channel the checkpoint file
+ * @return the header
+ * @throws IOException if the file cannot be read
+ * @throws IllegalArgumentException if the file is not a checkpoint of a known version
+ */
+ByteBuffer readCheckpointHeader(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+        // keep reading until the header is complete
+    }
+    if (header.hasRemaining() || header.getInt(0) != CHECKPOINT_MAGIC) {
+        throw new IllegalArgumentException("Not a fleet checkpoint");
+    }
+    if (header.getInt(4) != CHECKPOINT_VERSION) {
+        throw new IllegalArgumentException("Unsupported checkpoint version: " + header.getInt(4));
+    }
+    return header;
+}
+
+/**
+ * Restores a fleet from a checkpoint file by mapping it. The restored fleet has no changes
+ * and its own symbol table, with the same ids as the fleet that was saved. The records of a committed
+ * redo journal, left by an interrupted updateCheckpoint, replace the records they were meant to overwrite.
+ * Examples:
+ *     - Given: writeCheckpoint(fleet, path), then restoreCheckpoint(path)
+ *       Expect: a fleet with the same names, protocols and cargo as fleet
+ * @param path path of the checkpoint file
+ * @return the restored fleet
+ * @throws IOException if the file cannot be read
+ * @throws IllegalArgumentException if the file is not a checkpoint or is damaged
+ */
+Fleet restoreCheckpoint(String path) throws IOException {
+    try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+        ByteBuffer header = readCheckpointHeader(channel);
+        int size = header.getInt(8);
+        int symbolCount = header.getInt(12);
+        long logStart = CHECKPOINT_HEADER_LENGTH + (long) size * CHECKPOINT_RECORD_LENGTH;
+        long logEnd = header.getLong(16);
+        if (size < 0 || symbolCount < 0 || logEnd < 0 || logEnd > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Damaged checkpoint: bad header");
+        }
+        if (logStart + logEnd > channel.size()) {
+            throw new IllegalArgumentException("Damaged checkpoint: file shorter than its header says");
+        }
+        MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, CHECKPOINT_HEADER_LENGTH, logStart - CHECKPOINT_HEADER_LENGTH);
+        MappedByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, logStart, logEnd);
+        records.order(ByteOrder.LITTLE_ENDIAN);
+        log.order(ByteOrder.LITTLE_ENDIAN);
+
+        SymbolTable symbols = makeSymbolTable();
+        byte[] scratch = new byte[BINARY_MAX_SYMBOL_BYTES];
+        int at = 0;
+        while (symbolCount(symbols) < symbolCount && at < logEnd) {
+            int length = logEntryLength(log, at);
+            if (log.get(at) == SYMBOL_ENTRY) {
+                addSymbol(symbols, readLogString(log, at, scratch));
+            }
+            at = at + 5 + length;
+        }
+        if (symbolCount(symbols) < symbolCount) {
+            throw new IllegalArgumentException("Damaged checkpoint: missing symbols");
+        }
+
+        Fleet fleet = new Fleet(new String[size], new byte[size], makeArtifactColumns(size), symbols, new byte[size]);
+        for (int i = 0; i < size; i++) {
+            restoreRecord(fleet, i, records, i * CHECKPOINT_RECORD_LENGTH, log, scratch);
+        }
+        ByteBuffer redo = mapRedoJournal(channel, header, FileChannel.MapMode.READ_ONLY);
+        for (int n = 0; n < header.getInt(24); n++) {
+            int entry = n * CHECKPOINT_REDO_LENGTH;
+            restoreRecord(fleet, redo.getInt(entry), redo, entry + 4, log, scratch);
+        }
+        return fleet;
+    }
+}
+
+/**
+ * Checks a checkpoint record and stores the scavenger it describes into a fleet.
+ * @param fleet the fleet being restored, whose symbol table holds every symbol of the checkpoint
+ * @param i the index of the scavenger
+ * @param records the buffer holding the record
+ * @param record the offset of the record in the buffer
+ * @param log the mapped string log
+ * @param scratch a buffer for the bytes of a name
+ * @throws IllegalArgumentException if the record is damaged
+ */
+void restoreRecord(Fleet fleet, int i, ByteBuffer records, int record, ByteBuffer log, byte[] scratch) {
+    byte protocol = records.get(record);
+    byte tag = records.get(record + 1);
+    int symbol = records.getInt(record + 16);
+    int lowestSymbol = tag == ENERGY_CRYSTAL_TAG ? -1 : 0;
+    if (protocol < 0 || protocol >= PROTOCOL_NAMES.size() || tag < 0 || tag >= TYPE_NAMES.size()
+            || symbol < lowestSymbol || symbol >= symbolCount(fleet.symbols())) {
+        throw new IllegalArgumentException("Damaged checkpoint: bad record " + i);
+    }
+    fleet.protocols()[i] = protocol;
+    setArtifactFields(fleet.cargo(), i, tag, records.getInt(record + 4),
+        records.getInt(record + 8), records.getInt(record + 12), symbol);
+    int nameOffset = records.getInt(record + 20);
+    fleet.names()[i] = null;
+    if (nameOffset >= 0) {
+        logEntryLength(log, nameOffset);
+        if (log.get(nameOffset) != NAME_ENTRY) {
+            throw new IllegalArgumentException("Damaged checkpoint: record " + i + " does not refer to a name");
+        }
+        fleet.names()[i] = readLogString(log, nameOffset, scratch);
+    }
+}
+
+/**
+ * Returns the length of the string of the string log entry at the given offset,
+ * checking that the whole entry lies within the string log.
+ * Examples:
+ *     - Given: a log holding one entry of kind NAME_ENTRY for "Alice", at = 0
+ *       Expect: 5
+ *     - Given: the same log, at = 3
+ *       Expect: IllegalArgumentException
+ * @param log the mapped string log, whose limit is the end of the log
+ * @param at the offset of the entry
+ * @return the length of the string in bytes
+ * @throws IllegalArgumentException if the entry does not fit in the log
+ */
+int logEntryLength(ByteBuffer log, int at) {
+    if (at < 0 || at > log.limit() - 5) {
+        throw new IllegalArgumentException("Damaged checkpoint: string log entry out of bounds at " + at);
+    }
+    int length = log.getInt(at + 1);
+    if (length < 0 || length > log.limit() - at - 5) {
+        throw new IllegalArgumentException("Damaged checkpoint: bad string log entry at " + at);
+    }
+    return length;
+}
+
+/**
+ * Reads the string of the string log entry at the given offset.
+ * @param log the mapped string log
+ * @param at the offset of the entry
+ * @param scratch a buffer for the bytes of the string, grown if too small
+ * @return the string
+ */
+String readLogString(ByteBuffer log, int at, byte[] scratch) {
+    int length = log.getInt(at + 1);
+    byte[] bytes = scratch;
+    if (length > scratch.length) {
+        bytes = new byte[length];
+    }
+    log.get(at + 5, bytes, 0, length);
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+}
+
+/**
+ * Times a full checkpoint, one round of exploreAsteroidRound, an incremental checkpoint and a restore
+ * over a random fleet of named scavengers, and prints the results.
+ * @param size the number of scavengers
+ * @param path path of the checkpoint file to use (overwritten)
+ * @throws IOException if the checkpoint file cannot be read or written
+ */
+void benchmarkCheckpoint(int size, String path) throws IOException {
+    checkpointRandomFleet(size, path);
+    // the original fleet is garbage by now, so the restored one has the heap to itself
+    long start = System.nanoTime();
+    Fleet restored = restoreCheckpoint(path);
+    println(String.format("restoreCheckpoint: %d scavengers, %.1f ms", fleetSize(restored), (System.nanoTime() - start) / 1e6));
+}
+
+/**
+ * Checkpoints a random fleet of named scavengers, runs one round of exploreAsteroidRound,
+ * updates the checkpoint, and prints the time of both checkpoints.
+ * @param size the number of scavengers
+ * @param path path of the checkpoint file to use (overwritten)
+ * @throws IOException if the checkpoint file cannot be written
+ */
+void checkpointRandomFleet(int size, String path) throws IOException {
+    Fleet fleet = makeFleet(size, makeSymbolTable());
+    ArtifactColumns found = makeArtifactColumns(size);
+    SplittableRandom random = new SplittableRandom(42);
+    randomizeFleet(fleet, found, random);
+    for (int i = 0; i < size; i++) {
+        fleet.names()[i] = "Scavenger-" + i;
+    }
+    long start = System.nanoTime();
+    writeCheckpoint(fleet, path);
+    println(String.format("writeCheckpoint: %d scavengers, %.1f ms, %d bytes",
+        size, (System.nanoTime() - start) / 1e6, Files.size(Path.of(path))));
+
+    long changed = exploreAsteroidRound(fleet, found, random);
+    start = System.nanoTime();
+    long rewritten = updateCheckpoint(fleet, path);
+    println(String.format("updateCheckpoint: %d of %d records rewritten (%d cargo changes), %.1f ms",
+        rewritten, size, changed, (System.nanoTime() - start) / 1e6));
+}
+
+/** A test body that creates its temporary files through a TemporaryFiles. */
+interface TemporaryFilesTest {
+    void run(TemporaryFiles files) throws IOException;
+}
+
+/** The temporary files created by one test, deleted by withTemporaryFiles when the test ends. */
+record TemporaryFiles(ArrayList<Path> paths) {
+    Path create(String prefix, String suffix) throws IOException {
+        Path path = Files.createTempFile(prefix, suffix);
+        paths.add(path);
+        return path;
+    }
+
+    /** Registers the file named after a temporary file plus a suffix, which the test or the code it tests creates. */
+    Path derive(Path path, String suffix) {
+        Path derived = Path.of(path + suffix);
+        paths.add(derived);
+        return derived;
+    }
+}
+
+/**
+ * Run a test that works on temporary files, delete them afterwards, and fail if any file operation does.
+ * Examples:
+ *     - Given: subject = "Checkpoints", test = files -> Files.writeString(files.create("a", ".log"), "x")
+ *          Expect: the file is written, then deleted, and nothing fails
+ * @param subject what the test checks, used in the failure message
+ * @param test the test body
+ */
+void withTemporaryFiles(String subject, TemporaryFilesTest test) {
+    TemporaryFiles files = new TemporaryFiles(new ArrayList<Path>());
+    try {
+        test.run(files);
+    } catch (IOException e) {
+        testEqual(null, e, subject + " should not fail on temporary files.");
+    } finally {
+        for (Path path : files.paths()) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                testEqual(null, e, subject + " should delete its temporary files.");
+            }
+        }
+    }
+}
+
+void testCheckpoint() {
+    withTemporaryFiles("Checkpoints", files -> {
+        Path path = files.create("fleet", ".ckpt");
+        files.derive(path, ".tmp");
+        Fleet fleet = makeFleet(200, makeSymbolTable());
+        ArtifactColumns found = makeArtifactColumns(200);
+        SplittableRandom random = new SplittableRandom(4);
+        randomizeFleet(fleet, found, random);
+        for (int i = 0; i < 200; i += 2) {
+            fleet.names()[i] = "Scavenger " + i;
+        }
+        testEqual(200L, writeCheckpoint(fleet, path.toString()), "A full checkpoint should write every record.");
+        testEqual(0L, updateCheckpoint(fleet, path.toString()), "Nothing changed since the last checkpoint.");
+        assertSameFleet(fleet, restoreCheckpoint(path.toString()));
+        testEqual(false, Files.exists(Path.of(path + ".tmp")), "A full checkpoint should be moved into place.");
+        byte[] before = Files.readAllBytes(path);
+        Fleet beforeFleet = restoreCheckpoint(path.toString());
+
+        long changed = exploreAsteroidRound(fleet, found, random);
+        setScavenger(fleet, 1, "Renamed", RISK_TAKER_PROTOCOL, new InertRock("a new color"));
+        long flagged = 0;
+        for (byte change : fleet.changes()) {
+            if (change != 0) {
+                flagged = flagged + 1;
+            }
+        }
+        testEqual(true, changed > 0 && flagged <= changed + 1, "A round should flag only the scavengers it changed.");
+        testEqual(flagged, updateCheckpoint(fleet, path.toString()), "Only changed records should be rewritten.");
+        Fleet restored = restoreCheckpoint(path.toString());
+        assertSameFleet(fleet, restored);
+        testEqual("Renamed", restored.names()[1], "Renamed scavengers should be saved.");
+        testEqual(new InertRock("a new color"), getArtifact(restored.cargo(), 1, restored.symbols()), "New symbols should be saved.");
+
+        // a crash before the header commits the update: new strings and journal after the old string log
+        byte[] after = Files.readAllBytes(path);
+        int logStart = CHECKPOINT_HEADER_LENGTH + 200 * CHECKPOINT_RECORD_LENGTH;
+        byte[] torn = Arrays.copyOf(before, after.length);
+        System.arraycopy(after, before.length, torn, before.length, after.length - before.length);
+        Path crashed = files.create("crashed", ".ckpt");
+        Files.write(crashed, torn);
+        assertSameFleet(beforeFleet, restoreCheckpoint(crashed.toString()));
+        // a crash while the committed journal is applied: half of the records are still the old ones
+        torn = after.clone();
+        System.arraycopy(before, CHECKPOINT_HEADER_LENGTH, torn, CHECKPOINT_HEADER_LENGTH, (logStart - CHECKPOINT_HEADER_LENGTH) / 2);
+        ByteBuffer.wrap(torn).order(ByteOrder.LITTLE_ENDIAN).putInt(24, (int) flagged);
+        Files.write(crashed, torn);
+        assertSameFleet(fleet, restoreCheckpoint(crashed.toString()));
+        testEqual(0L, updateCheckpoint(fleet, crashed.toString()), "Nothing changed since the interrupted checkpoint.");
+        testEqual(0, ByteBuffer.wrap(Files.readAllBytes(crashed)).order(ByteOrder.LITTLE_ENDIAN).getInt(24),
+            "A journal should be cleared once applied.");
+        assertSameFleet(fleet, restoreCheckpoint(crashed.toString()));
+
+        boolean rejected = false;
+        try {
+            updateCheckpoint(makeFleet(3, makeSymbolTable()), path.toString());
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        testEqual(true, rejected, "A checkpoint should not be updated from a fleet of another size.");
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            // the name offset of record 0 now points past the end of the string log
+            channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, Integer.MAX_VALUE - 2),
+                CHECKPOINT_HEADER_LENGTH + 20);
+        }
+        rejected = false;
+        try {
+            restoreCheckpoint(path.toString());
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        testEqual(true, rejected, "A name offset outside the string log should be rejected.");
+
+        writeCheckpoint(fleet, path.toString());
+        int chart = 0;
+        while (fleet.cargo().tags()[chart] == ENERGY_CRYSTAL_TAG) {
+            chart = chart + 1;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            // a StarChart or InertRock without a symbol
+            channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, -1),
+                CHECKPOINT_HEADER_LENGTH + chart * CHECKPOINT_RECORD_LENGTH + 16);
+        }
+        rejected = false;
+        try {
+            restoreCheckpoint(path.toString());
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        testEqual(true, rejected, "A StarChart or InertRock without a symbol should be rejected.");
+    });
+}
+
+/**
+ * Checks that two fleets hold the same scavengers.
+ * @param expected the original fleet
+ * @param actual the restored fleet
+ */
+void assertSameFleet(Fleet expected, Fleet actual) {
+    testEqual(fleetSize(expected), fleetSize(actual), "A restored fleet should have the same size.");
+    for (int i = 0; i < fleetSize(expected); i++) {
+        testEqual(expected.names()[i], actual.names()[i], "A restored fleet should have the same names.");
+        testEqual(expected.protocols()[i], actual.protocols()[i], "A restored fleet should have the same protocols.");
+        testEqual(getArtifact(expected.cargo(), i, expected.symbols()), getArtifact(actual.cargo(), i, actual.symbols()),
+            "A restored fleet should have the same cargo.");
+    }
+}
+
+// Part 3 
+
+// 1. Syntax for describing an Artifact
+/**
+ * Takes an artifact and returns a string of its details, formatted exactly as required for the log entries.
+ * - Star Chart: "StarChart:destination;RISK=risk;SEC=sector;SYS=system"
+ * - Energy Crystal: "EnergyCrystal:POWER=power"
+ * - Inert Rock: "InertRock:COLOR=color"
+ * Examples:
+ *     - Given: describeArtifact(new StarChart("Alpha", 3, 5, 7)) 
+ *     - Expect: "StarChart:Alpha;RISK=3;SEC=5;SYS=7"
+ *     - Given: describeArtifact(new EnergyCrystal(10)) 
+ *     - Expect: "EnergyCrystal:POWER=10"
+ *     - Given: describeArtifact(new InertRock("blue")) 
+ *     - Expect: "InertRock:COLOR=blue"
+ * Every run command prints a described artifact, so this uses type tests rather than a pattern switch,
+ * whose first execution links a bootstrap method that costs more than the rest of a single-entry run.
+ * @param artifact the artifact need to describe
+ * @return string representation in log-entry format
+ */
+String describeArtifact(Artifact artifact) {
+    if (artifact instanceof StarChart sc) {
+        return "StarChart:" + sc.dest() + ";RISK=" + sc.risk() + ";SEC=" + sc.sector() + ";SYS=" + sc.system();
+    } else if (artifact instanceof EnergyCrystal ec) {
+        return "EnergyCrystal:POWER=" + ec.power();
+    } else if (artifact instanceof InertRock ir) {
+        return "InertRock:COLOR=" + ir.color();
+    } else {
+        throw new IllegalArgumentException("Unknown artifact type: " + artifact);
+    }
+}
+
+// 2. Syntax for a Log Entry
+/**
+ * Parses a log string from a Rational Scavenger that takes one of the following forms:
+ * - ASTEROID | [ownedArtifact] | [foundArtifact]
+ * - TRADING_POST | [ownedArtifact] | [otherScavengersArtifact]
+ * Then it simulates the encounter and returns the artifact the Rational Scavenger possesses after log entry.
+ * The line is read in a single pass by scanRationalScavengerLog.
+ * Examples:
+ *     - Given: "ASTEROID | StarChart(A,5,1,7) | StarChart(B,3,4,6)""
+ *       Expect: StarChart(B,3,4,6) 
+ *     - Given: "ASTEROID | EnergyCrystal(10) | EnergyCrystal(5)"
+ *       Expect: EnergyCrystal(10) 
+ *     - Given: "ASTEROID | InertRock(blue) | StarChart(C,6,3,5)"
+ *       Expect: InertRock(blue) 
+ * @param log a string representing the log entry
+ * @return Artifact the Rational Scavenger ends up with
+ * @throws IllegalArgumentException if the log entry or one of its artifacts is malformed
+ */
+Artifact parseRationalScavengerLog(String log) {
+    return scanRationalScavengerLog(log, 0, Length(log));
+}
+
+/**
+ * Simulates an encounter between the Rational Scavenger and another artifact.
+ * The behavior depends on the type of encounter:
+ * - "ASTEROID": The Rational Scavenger encounters an artifact in space, 
+ *   uses Rational Scavenger's analysis protocol to decide whether to keep the owned artifact or swap.
+ * - "TRADING_POST": The Rational Scavenger is on a trade by another scavenger, 
+ *   uses the RiskTaker's protocol to determine if the trade is accepted.
+ * The result is the artifact the Rational Scavenger ends up with after the encounter.
+ * Examples:
+ *   - Given: encounter("ASTEROID", StarChart("A",5,2,3), StarChart("B",3,4,6))
+ *     Expect: StarChart("B",3,4,6), swap  
+ *   - Given: encounter("ASTEROID", EnergyCrystal(10), EnergyCrystal(5))
+ *     Expect: EnergyCrystal(10)   , no trade
+ *   - Given: encounter("TRADING_POST", EnergyCrystal(5), InertRock("red"))
+ *     Expect: EnergyCrystal(5)    , no trade
+ * @param encounterType the type of encounter ("ASTEROID" or "TRADING_POST")
+ * @param owned the artifact currently owned by the Rational Scavenger
+ * @param other the encountered artifact (either found in asteroid or in trade)
+ * @return the artifact Rational Scavenger has after the encounter
+ */
+Artifact encounter(String encounterType, Artifact owned, Artifact other) {
+    if (metricsEnabled) {
+        return countedEncounter(encounterType, owned, other);
+    }
+    if (Equals(encounterType, "ASTEROID")) {
+        return handleAsteroidEncounter(owned, other);
+    } else {
+        return handleTradingPostEncounter(owned, other);
+    }
+}
+
+// Encounter Asteroid
+/**
+ * Simulates an encounter between a Rational Scavenger and an artifact found on an asteroid.
+ * According to the Rational Scavenger rules:
+ * - If the found artifact is considered VALUABLE, the scavenger replaces their current artifact with it.
+ * - Otherwise, the scavenger keeps their owned artifact.
+ * Examples:
+ *    - Given: owned = StarChart("A", 6, 1, 2), found = StarChart("B", 3, 4, 7)
+ *      Expect: StarChart("B", 3, 4, 7) 
+ *    - Given: owned = EnergyCrystal(10), found = EnergyCrystal(5)
+ *      Expect: EnergyCrystal(10)
+ *    - Given: owned = InertRock("blue"), found = InertRock("red")
+ *      Expect: InertRock("blue")
+ *    - Given: owned = EnergyCrystal(4), found = StarChart("C", 2, 1, 5)
+ *      Expect: EnergyCrystal(4)
+ *    - Given: owned = InertRock("green"), found = StarChart("D", 5, 2, 1)
+ *      Expect: InertRock("green")
+ * @param owned the artifact currently owned by the Rational Scavenger
+ * @param found the artifact found on the asteroid
+ * @return the artifact the scavenger ends up holding after the encounter
+ */
+Artifact handleAsteroidEncounter(Artifact owned, Artifact found) {
+    Result result = rationalScavengerAnalysisByTable(owned, found);
+    if (isValuable(result)) {
+        return found;
+    } else {
+        return owned;
+    }
+}
+
+// Encounter TradingPost
+/**
+ * Simulates a trade encounter at a Trading Post between a Rational Scavenger and a Risk Taker Scavenger.
+ * The Rational Scavenger is the primary actor. They will trade only if:
+ * - The RiskTakerScavenger considers the Rational Scavenger's artifact to be VALUABLE, according to RiskTakerScavengerAnalysis.
+ * - In that case, the Rational Scavenger receives the other scavenger’s artifact. Otherwise, they keep their current artifact.
+ * Examples:
+ *    - Given: owned = InertRock("blue"), other = StarChart("X", 1, 1, 1)
+ *      Expect: StarChart("X", 1, 1, 1)
+ *    - Given: owned = EnergyCrystal(10), other = EnergyCrystal(3)
+ *      Expect: EnergyCrystal(10)
+ *    - Given: owned = EnergyCrystal(3), other = InertRock("red")
+ *      Expect: EnergyCrystal(3)
+ * @param owned the artifact currently owned by the Rational Scavenger
+ * @param other the artifact owned by the Risk Taker Scavenger
+ * @return the artifact the Rational Scavenger ends up owned after the trade
+ */
+Artifact handleTradingPostEncounter(Artifact owned, Artifact other) {
+    Result riskTakerResult = riskTakerScavengerAnalysisByTable(other, owned);
+    if (isValuable(riskTakerResult)) {
+        return other;
+    } else {
+        return owned;
+    }
+}
+
+// Parses String to StarChart / EnergyCrystal / InertRock
+/**
+ * Parses a string representation of an artifact and returns the corresponding Artifact object.
+ * The string must be in one of the following formats:
+ * - StarChart:destination;RISK=risk;SEC=sector;SYS=system
+ * - EnergyCrystal:POWER=power
+ * - InertRock:COLOR=color
+ * The function identifies the type based on the prefix (before the colon ':'),
+ * and extracts the necessary fields to construct the corresponding object (see scanArtifact).
+ * Examples:
+ *    - Given: "StarChart:Proxima Centauri;RISK=3;SEC=7;SYS=42"
+ *      Expect: new StarChart("Proxima Centauri", 3, 7, 42)
+ *    - Given: "EnergyCrystal:POWER=500"
+ *      Expect: new EnergyCrystal(500)
+ *    - Given: "InertRock:COLOR=quartz"
+ *      Expect: new InertRock("quartz")
+ * @param s a string representation of an artifact
+ * @return an Artifact object corresponding to the input string
+ * @throws IllegalArgumentException if the input string has an unknown or malformed format
+ */
+Artifact parseArtifact(String s) {
+    return scanArtifact(s, 0, Length(s));
+}
+
+/**
+ * Entry point.
+ * Without arguments, runs the self-tests and then simulates a single log entry read from the console.
+ * With arguments, runs the given command instead (see runCommand), optionally after "--seed [seed]"
+ * or "--metrics [seconds]".
+ * @param args the command line arguments
+ * @throws IOException if a command fails to read or write its files
+ */
+void main(String[] args) throws IOException {
+    long metricsPeriod = 0;
+    while (args.length >= 2 && args[0].startsWith("--")) {
+        switch (args[0]) {
+            case "--seed" -> seedRandomSource(Long.parseLong(args[1]));
+            case "--metrics" -> metricsPeriod = Long.parseLong(args[1]);
+            default -> throw new IllegalArgumentException("Unknown option: " + args[0]);
+        }
+        args = Arrays.copyOfRange(args, 2, args.length);
+    }
+    if (metricsPeriod > 0) {
+        metricsEnabled = true;
+        registerMetricsMBean();
+        startMetricsDump(metricsPeriod);
+    }
+    if (args.length > 0) {
+        runCommand(args);
+        if (metricsPeriod > 0) {
+            System.err.print(metricsReport(metrics));
+        }
+        return;
+    }
+    test();
+    println("Rational Scavenger Tests: ");
+    testRationalScavenger();
+
+    println("Risk Taker Scavenger Tests: ");
+    testRiskTakerScavenger();
+
+    println("Part2 Scenario 1 Tests: ");
+    testDifferentStrategies();
+
+    println("Part2 Scenario 2 Tests: ");
+    testTradeAtStarport();
+
+    println("Part3: ");
+    String input = readln("Enter Rational Scavenger log: ");
+    Artifact finalArtifact = parseRationalScavengerLog(input);
+    println(finalCargoLine(finalArtifact));
+}
+
+/**
+ * Formats the output line for the artifact a Rational Scavenger holds after a log entry.
+ * Examples:
+ *     - Given: finalCargoLine(new EnergyCrystal(900))
+ *       Expect: "FINAL CARGO: EnergyCrystal:POWER=900"
+ * @param finalArtifact the artifact held after the encounter
+ * @return the "FINAL CARGO: [final_artifact]" line
+ */
+String finalCargoLine(Artifact finalArtifact) {
+    return "FINAL CARGO: " + describeArtifact(finalArtifact);
+}
+
+/**
+ * Runs a command given on the command line.
+ * Commands:
+ * - run [logEntry]: simulates one log entry, or each line of standard input, without the self-tests
+ * - startup-bench [runs] [archiveFile]: times the run command in fresh JVMs, with and without an AppCDS archive
+ * - bulk [inputLog] [outputFile]: writes the FINAL CARGO line of every log entry; ".gz" files are gzipped
+ * - bulk-cached [inputLog] [outputFile] [slots]: same as bulk, answering repeated lines from a line cache
+ * - ingest [inputLog] [outputFile] [rejectFile]: same as bulk, sending malformed lines to rejectFile
+ * - ingest-bench [lines] [corruptPercent]: times bulk mode and ingestion on a partly damaged random log
+ * - itinerary [inputLog] [outputFile]: writes the final cargo of each scavenger's itinerary
+ * - exact [inputLog] [outputFile]: same as itinerary, writing the exact distribution of each final cargo
+ * - parallel [inputLog] [outputFile] [threads]: same as bulk, using the given number of threads
+ * - fleet-bench [scavengers]: times rounds of exploreAsteroidRound over a random fleet
+ * - evaluate-bench [pairs]: times evaluateArtifact against evaluateArtifacts on random pairs
+ * - starport-bench [scavengers]: times matchStarport over a random fleet
+ * - checkpoint-bench [checkpointFile] [scavengers]: times checkpoints and a restore of a random fleet
+ * - monte-carlo [asteroids] [precision] [threads]: estimates the final cargo of a random trading scenario
+ * - generate [target] [lines] [key=value...]: writes a synthetic log to a file or "socket:[port|socketPath]"
+ * - to-binary [textLog] [binaryLog]: converts a text log into the binary log format
+ * - to-text [binaryLog] [textLog]: converts a binary log back into a text log
+ * - bulk-binary [binaryLog] [outputFile]: same as bulk, reading a binary log
+ * - ledger-bench [ledgerFile] [events]: times appends to a random ledger and rebuilds of its state
+ * - serve [port|socketPath]: answers log entries sent over a local TCP port or Unix-domain socket
+ * - load [port|socketPath] [clients] [requests]: load-tests a running server
+ * - bench [name]: runs the benchmarks whose name contains the given text (all of them by default)
+ * @param args the command name followed by its arguments
+ * @throws IOException if the command fails to read or write its files
+ * @throws IllegalArgumentException if the command is unknown or has the wrong number of arguments
+ */
+void runCommand(String[] args) throws IOException {
+    useSymbolTable(makeSymbolTable(SCANNER_SYMBOLS));
+    switch (args[0]) {
+        case "run" -> {
+            if (args.length > 1) {
+                println(answerLogEntry(String.join(" ", Arrays.copyOfRange(args, 1, args.length))));
+            } else {
+                answerStandardInput();
+            }
+        }
+        case "startup-bench" -> {
+            int runs = 10;
+            String archive = "artifacts.jsa";
+            if (args.length > 1) {
+                runs = StringToInt(args[1]);
+            }
+            if (args.length > 2) {
+                archive = args[2];
+            }
+            benchmarkStartup(runs, archive);
+        }
+        case "bulk" -> {
+            requireArguments(args, 3, "bulk [inputLog] [outputFile]");
+            long entries;
+            if (isGzipPath(args[1]) || isGzipPath(args[2])) {
+                entries = processLogStream(args[1], args[2]);
+            } else {
+                entries = processLogFile(args[1], args[2]);
+            }
+            println("Processed " + entries + " log entries.");
+            println("Symbols: " + symbolReport(artifactSymbols.get()));
+        }
+        case "bulk-cached" -> {
+            if (args.length != 4) {
+                requireArguments(args, 3, "bulk-cached [inputLog] [outputFile] [slots]");
+            }
+            int slots = LINE_CACHE_SLOTS;
+            if (args.length == 4) {
+                slots = StringToInt(args[3]);
+            }
+            LineCache cache = makeLineCache(slots);
+            long start = System.nanoTime();
+            long entries = processLogFileCached(args[1], args[2], cache);
+            println(String.format("Processed %d log entries in %.1f ms.", entries, (System.nanoTime() - start) / 1e6));
+            println(formatLineCacheReport(cache));
+        }
+        case "parallel" -> {
+            if (args.length != 4) {
+                requireArguments(args, 3, "parallel [inputLog] [outputFile] [threads]");
+            }
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (args.length == 4) {
+                threads = StringToInt(args[3]);
+            }
+            long entries = processLogFileParallel(args[1], args[2], threads);
+            println("Processed " + entries + " log entries on " + threads + " threads.");
+            println("Symbols: " + symbolReport(artifactSymbols.get()));
+        }
+        case "ingest" -> {
+            requireArguments(args, 4, "ingest [inputLog] [outputFile] [rejectFile]");
+            println(formatIngestReport(ingestLogFile(args[1], args[2], args[3])));
+        }
+        case "ingest-bench" -> {
+            int lines = 1_000_000;
+            int corruptPercent = 5;
+            if (args.length > 1) {
+                lines = StringToInt(args[1]);
+            }
+            if (args.length > 2) {
+                corruptPercent = StringToInt(args[2]);
+            }
+            benchmarkIngest(lines, corruptPercent);
+        }
+        case "itinerary" -> {
+            requireArguments(args, 3, "itinerary [inputLog] [outputFile]");
+            long entries = processItineraryFile(args[1], args[2]);
+            println("Replayed " + entries + " itinerary entries.");
+        }
+        case "exact" -> {
+            requireArguments(args, 3, "exact [inputLog] [outputFile]");
+            long start = System.nanoTime();
+            long entries = exactItineraryFile(args[1], args[2]);
+            println(String.format("Computed the exact distributions of %d itinerary entries in %.1f ms.", entries, (System.nanoTime() - start) / 1e6));
+        }
+        case "monte-carlo" -> {
+            int asteroids = 20;
+            double precision = 0.001;
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (args.length > 1) {
+                asteroids = StringToInt(args[1]);
+            }
+            if (args.length > 2) {
+                precision = Double.parseDouble(args[2]);
+            }
+            if (args.length > 3) {
+                threads = StringToInt(args[3]);
+            }
+            SplittableRandom random = new SplittableRandom(asteroids);
+            Artifact[] found = new Artifact[asteroids];
+            for (int i = 0; i < asteroids; i++) {
+                found[i] = randomArtifact(random);
+            }
+            Supplier<Artifact> scenario = tradingScenario(randomArtifact(random), randomArtifact(random), found);
+            println(formatMonteCarloReport(runMonteCarlo(scenario, 1L << 30, precision, threads)));
+        }
+        case "generate" -> {
+            if (args.length < 3) {
+                requireArguments(args, 3, "generate [target] [lines] [key=value...]");
+            }
+            int threads = Runtime.getRuntime().availableProcessors();
+            ArrayList<String> options = new ArrayList<String>();
+            for (int i = 3; i < args.length; i++) {
+                if (args[i].startsWith("threads=")) {
+                    threads = StringToInt(args[i].substring(8));
+                } else {
+                    options.add(args[i]);
+                }
+            }
+            GeneratorSpec spec = parseGeneratorSpec(options.toArray(new String[0]));
+            long lines = Long.parseLong(args[2]);
+            long start = System.nanoTime();
+            long bytes = generateLogTo(args[1], spec, lines, threads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            println(String.format("Generated %d lines (%d bytes) on %d threads in %.2f s: %.0f lines/s, %.1f MB/s.",
+                lines, bytes, threads, seconds, lines / seconds, bytes / seconds / 1e6));
+        }
+        case "to-binary" -> {
+            requireArguments(args, 3, "to-binary [textLog] [binaryLog]");
+            long entries = convertLogToBinary(args[1], args[2]);
+            println("Converted " + entries + " log entries: " + Files.size(Path.of(args[1])) + " bytes of text, "
+                + Files.size(Path.of(args[2])) + " bytes of binary.");
+        }
+        case "to-text" -> {
+            requireArguments(args, 3, "to-text [binaryLog] [textLog]");
+            long entries = convertBinaryToText(args[1], args[2]);
+            println("Converted " + entries + " log entries.");
+        }
+        case "bulk-binary" -> {
+            requireArguments(args, 3, "bulk-binary [binaryLog] [outputFile]");
+            long entries = processBinaryLog(args[1], args[2]);
+            println("Processed " + entries + " log entries.");
+        }
+        case "fleet-bench" -> {
+            int size = 10_000_000;
+            if (args.length > 1) {
+                size = StringToInt(args[1]);
+            }
+            benchmarkFleet(size, 5);
+        }
+        case "evaluate-bench" -> {
+            int size = 1_000_000;
+            if (args.length > 1) {
+                size = StringToInt(args[1]);
+            }
+            benchmarkEvaluate(size, 10);
+        }
+        case "starport-bench" -> {
+            int size = 1_000_000;
+            if (args.length > 1) {
+                size = StringToInt(args[1]);
+            }
+            benchmarkStarport(size);
+        }
+        case "checkpoint-bench" -> {
+            if (args.length != 3) {
+                requireArguments(args, 2, "checkpoint-bench [checkpointFile] [scavengers]");
+            }
+            int size = 10_000_000;
+            if (args.length > 2) {
+                size = StringToInt(args[2]);
+            }
+            benchmarkCheckpoint(size, args[1]);
+        }
+        case "ledger-bench" -> {
+            if (args.length != 3) {
+                requireArguments(args, 2, "ledger-bench [ledgerFile] [events]");
+            }
+            int events = 10_000_000;
+            if (args.length > 2) {
+                events = StringToInt(args[2]);
+            }
+            benchmarkLedger(args[1], events);
+        }
+        case "serve" -> {
+            requireArguments(args, 2, "serve [port|socketPath]");
+            try (ServerSocketChannel server = openEncounterServer(encounterAddress(args[1]))) {
+                println("Serving encounters on " + server.getLocalAddress());
+                runEncounterServer(server);
+            }
+        }
+        case "load" -> {
+            if (args.length != 4) {
+                requireArguments(args, 2, "load [port|socketPath] [clients] [requests]");
+            }
+            int clients = 100;
+            int requests = 1000;
+            if (args.length == 4) {
+                clients = StringToInt(args[2]);
+                requests = StringToInt(args[3]);
+            }
+            println(formatLoadReport(runLoad(encounterAddress(args[1]), clients, requests)));
+        }
+        case "bench" -> {
+            String filter = "";
+            if (args.length > 1) {
+                filter = args[1];
+            }
+            runBenchmarks(filter, BENCHMARK_ITERATIONS);
+        }
+        default -> throw new IllegalArgumentException("Unknown command: " + args[0]);
+    }
+}
+
+/**
+ * Checks that a command received exactly the expected number of arguments (including the command name).
+ * @param args the command line arguments
+ * @param expected the expected number of arguments
+ * @param usage the usage text reported when the count is wrong
+ * @throws IllegalArgumentException if the number of arguments is not the expected one
+ */
+void requireArguments(String[] args, int expected, String usage) {
+    if (args.length != expected) {
+        throw new IllegalArgumentException("Usage: " + usage);
+    }
+}
+
+void testParseRationalScavengerLog() {
+     // ASTEROID: Higher power crystal should be picked
+    String log1 = "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10";
+    Artifact result1 = parseRationalScavengerLog(log1);
+    testEqual("EnergyCrystal:POWER=10", describeArtifact(result1), "RationalScavenger should pick higher power EnergyCrystal.");
 
     // ASTEROID: Lower risk StarChart should be picked
     String log2 = "ASTEROID | StarChart:A;RISK=5;SEC=3;SYS=9 | StarChart:B;RISK=3;SEC=4;SYS=8";
     Artifact result2 = parseRationalScavengerLog(log2);
     testEqual("StarChart:B;RISK=3;SEC=4;SYS=8", describeArtifact(result2), "RationalScavenger should pick lower risk StarChart.");
 
-    // ASTEROID: StarChart vs EnergyCrystal - keep owned
-    String log3 = "ASTEROID | StarChart:A;RISK=5;SEC=3;SYS=9 | EnergyCrystal:POWER=10";
-    Artifact result3 = parseRationalScavengerLog(log3);
-    testEqual("StarChart:A;RISK=5;SEC=3;SYS=9", describeArtifact(result3),
-              "Should keep StarChart when found artifact is different type and not valuable."); 
-    
-    // ASTEROID: InertRock vs InertRock - keep owned
-    String log4 = "ASTEROID | InertRock:COLOR=blue | InertRock:COLOR=red";
-    Artifact result4 = parseRationalScavengerLog(log4);
-    testEqual("InertRock:COLOR=blue", describeArtifact(result4), 
-              "Should keep owned InertRock when both are rocks.");
+    // ASTEROID: StarChart vs EnergyCrystal - keep owned
+    String log3 = "ASTEROID | StarChart:A;RISK=5;SEC=3;SYS=9 | EnergyCrystal:POWER=10";
+    Artifact result3 = parseRationalScavengerLog(log3);
+    testEqual("StarChart:A;RISK=5;SEC=3;SYS=9", describeArtifact(result3),
+              "Should keep StarChart when found artifact is different type and not valuable."); 
+    
+    // ASTEROID: InertRock vs InertRock - keep owned
+    String log4 = "ASTEROID | InertRock:COLOR=blue | InertRock:COLOR=red";
+    Artifact result4 = parseRationalScavengerLog(log4);
+    testEqual("InertRock:COLOR=blue", describeArtifact(result4), 
+              "Should keep owned InertRock when both are rocks.");
+
+    // ASTEROID: EnergyCrystal lower power - keep owned
+    String log5 = "ASTEROID | EnergyCrystal:POWER=15 | EnergyCrystal:POWER=5";
+    Artifact result5 = parseRationalScavengerLog(log5);
+    testEqual("EnergyCrystal:POWER=15", describeArtifact(result5), 
+              "Should keep higher power crystal.");
+
+    // TRADING_POST: Both StarCharts, Risk Taker Scavenge has lower level - trade
+    String log6 = "TRADING_POST | StarChart:A;RISK=9;SEC=4;SYS=5 | StarChart:C;RISK=5;SEC=4;SYS=6";
+    Artifact result6 = parseRationalScavengerLog(log6);
+    testEqual("StarChart:C;RISK=5;SEC=4;SYS=6", describeArtifact(result6),
+              "Should trade for higher-level StarChart.");
+
+    // TRADING_POST: Both StarCharts, owned has higher level - no trade
+    String log7 = "TRADING_POST | StarChart:A;RISK=8;SEC=4;SYS=6 | StarChart:B;RISK=9;SEC=3;SYS=4";
+    Artifact result7 = parseRationalScavengerLog(log7);
+    testEqual("StarChart:B;RISK=9;SEC=3;SYS=4", describeArtifact(result7),
+              "Should keep higher-level StarChart.");
+
+    // TRADING_POST: One StarChart, one EnergyCrystal - no trade
+    String log8 = "TRADING_POST | EnergyCrystal:POWER=5 | StarChart:B;RISK=3;SEC=4;SYS=6";
+    Artifact result8 = parseRationalScavengerLog(log8);
+    testEqual("EnergyCrystal:POWER=5", describeArtifact(result8),
+              "No trade when artifact types differ.");
+
+    // TRADING_POST: Two non-StarCharts - no trade
+    String log9 = "TRADING_POST | InertRock:COLOR=green | EnergyCrystal:POWER=8";
+    Artifact result9 = parseRationalScavengerLog(log9);
+    testEqual("InertRock:COLOR=green", describeArtifact(result9),
+              "No trade when neither artifact is a StarChart.");
+}
+
+// Part 3 - Bulk log-file mode
+
+/** Default length of each memory-mapped window over an input log (64 MiB). */
+static final long LOG_MAP_WINDOW = 1L << 26;
+
+/** Capacity of the buffer collecting FINAL CARGO lines before they are written to the output channel (1 MiB). */
+static final int CARGO_OUTPUT_BUFFER = 1 << 20;
+
+/**
+ * Simulates every entry of a log file in a single process.
+ * The input is memory-mapped one window at a time, each non-blank line is simulated with
+ * parseRationalScavengerLog, and one "FINAL CARGO: ..." line per entry is written to the output file
+ * through a buffered FileChannel, in the same order as the input.
+ * Examples:
+ *    - Given: an input file with the lines
+ *             "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10"
+ *             "TRADING_POST | InertRock:COLOR=green | EnergyCrystal:POWER=8"
+ *      Expect: 2, and an output file with the lines
+ *             "FINAL CARGO: EnergyCrystal:POWER=10"
+ *             "FINAL CARGO: InertRock:COLOR=green"
+ * @param inputPath path of the log file to read
+ * @param outputPath path of the file receiving the FINAL CARGO lines (created or truncated)
+ * @return the number of log entries processed
+ * @throws IOException if the input cannot be read or the output cannot be written
+ */
+long processLogFile(String inputPath, String outputPath) throws IOException {
+    return processLogFile(inputPath, outputPath, LOG_MAP_WINDOW);
+}
+
+/**
+ * Same as processLogFile(inputPath, outputPath), mapping the input in windows of the given length (see forEachLogLine).
+ * @param inputPath path of the log file to read
+ * @param outputPath path of the file receiving the FINAL CARGO lines (created or truncated)
+ * @param mapWindow the number of bytes to map at a time
+ * @return the number of log entries processed
+ * @throws IOException if the input cannot be read or the output cannot be written
+ */
+long processLogFile(String inputPath, String outputPath, long mapWindow) throws IOException {
+    try (FileChannel in = FileChannel.open(Path.of(inputPath), StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(Path.of(outputPath), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer output = ByteBuffer.allocateDirect(CARGO_OUTPUT_BUFFER);
+        long entries = forEachLogLine(in, mapWindow, (log, start, end) -> processLogLine(log, start, end, out, output));
+        flushCargoOutput(out, output);
+        return entries;
+    }
+}
+
+/**
+ * Handles one line of a log file, given as a region of the mapped file.
+ */
+interface LogLineHandler {
+    /**
+     * @param log the mapped log contents
+     * @param start index of the first byte of the line
+     * @param end index just past the last byte of the line (excluding the newline)
+     * @return the number of log entries the line held
+     * @throws IOException if the handler fails to write its output
+     */
+    int handle(ByteSequence log, int start, int end) throws IOException;
+}
+
+/**
+ * Passes every line of a log file to a handler, in order, memory-mapping the file one window at a time.
+ * A window always ends after the last complete line it contains, so no line is ever split between windows;
+ * a window that holds no complete line is doubled until it does.
+ * @param in the log file
+ * @param mapWindow the number of bytes to map at a time
+ * @param handler the handler of each line
+ * @return the sum of the counts returned by the handler
+ * @throws IOException if the file cannot be read or the handler fails
+ */
+long forEachLogLine(FileChannel in, long mapWindow, LogLineHandler handler) throws IOException {
+    long size = in.size();
+    long position = 0;
+    long window = mapWindow;
+    long entries = 0;
+    while (position < size) {
+        int length = (int) Math.min(Math.min(window, size - position), Integer.MAX_VALUE);
+        boolean lastWindow = position + length == size;
+        MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+        ByteSequence view = new ByteSequence(buffer);
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(i) == '\n') {
+                entries += handler.handle(view, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        if (lastWindow && lineStart < length) {
+            entries += handler.handle(view, lineStart, length);
+            lineStart = length;
+        }
+        if (lineStart == 0) {
+            // a single line is longer than the window
+            window = window * 2;
+        } else {
+            position = position + lineStart;
+        }
+    }
+    return entries;
+}
+
+/**
+ * Simulates the log entry stored in log[start, end) and appends its FINAL CARGO line to the output buffer.
+ * The entry is scanned in place, without decoding the line into a String; blank lines produce no output.
+ * @param log the mapped log contents
+ * @param start index of the first byte of the line
+ * @param end index just past the last byte of the line (excluding the newline)
+ * @param out the output channel, written to when the output buffer is full
+ * @param output the buffer collecting FINAL CARGO lines
+ * @return 1 if the line held a log entry, 0 if it was blank
+ * @throws IOException if the output channel cannot be written
+ */
+int processLogLine(ByteSequence log, int start, int end, WritableByteChannel out, ByteBuffer output) throws IOException {
+    if (skipLeadingSpaces(log, start, end) == end) {
+        return 0;
+    }
+    Artifact finalArtifact = scanRationalScavengerLog(log, start, end);
+    writeCargoLine(out, output, finalCargoLine(finalArtifact));
+    return 1;
+}
+
+/**
+ * Appends a line to the output buffer, first writing the buffer to the channel if the line does not fit.
+ * @param out the output channel
+ * @param output the buffer collecting output lines
+ * @param line the line to append (without newline)
+ * @throws IOException if the output channel cannot be written
+ */
+void writeCargoLine(WritableByteChannel out, ByteBuffer output, String line) throws IOException {
+    writeCargoBytes(out, output, (line + "\n").getBytes(StandardCharsets.UTF_8));
+}
+
+/**
+ * Same as writeCargoLine, for a line already encoded in UTF-8 with its newline.
+ * @param out the output channel
+ * @param output the buffer collecting output lines
+ * @param bytes the encoded line
+ * @throws IOException if the output channel cannot be written
+ */
+void writeCargoBytes(WritableByteChannel out, ByteBuffer output, byte[] bytes) throws IOException {
+    if (output.remaining() < bytes.length) {
+        flushCargoOutput(out, output);
+    }
+    if (output.remaining() < bytes.length) {
+        out.write(ByteBuffer.wrap(bytes));
+    } else {
+        output.put(bytes);
+    }
+}
+
+/**
+ * Writes everything collected in the output buffer to the channel and empties the buffer.
+ * @param out the output channel
+ * @param output the buffer collecting output lines
+ * @throws IOException if the output channel cannot be written
+ */
+void flushCargoOutput(WritableByteChannel out, ByteBuffer output) throws IOException {
+    output.flip();
+    while (output.hasRemaining()) {
+        out.write(output);
+    }
+    output.clear();
+}
+
+void testProcessLogFile() {
+    withTemporaryFiles("Bulk mode", files -> {
+        Path input = files.create("encounters", ".log");
+        Path output = files.create("cargo", ".log");
+        Files.writeString(input,
+            "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10\n"
+            + "\n"
+            + "ASTEROID | StarChart:A;RISK=5;SEC=3;SYS=9 | StarChart:B;RISK=3;SEC=4;SYS=8\r\n"
+            + "TRADING_POST | InertRock:COLOR=green | EnergyCrystal:POWER=8");
+        String expected = "FINAL CARGO: EnergyCrystal:POWER=10\n"
+            + "FINAL CARGO: StarChart:B;RISK=3;SEC=4;SYS=8\n"
+            + "FINAL CARGO: InertRock:COLOR=green\n";
+
+        testEqual(3L, processLogFile(input.toString(), output.toString()), "Bulk mode should skip blank lines.");
+        testEqual(expected, Files.readString(output), "Bulk mode should write one FINAL CARGO line per entry, in order.");
+
+        // windows smaller than a line must still see every line whole
+        testEqual(3L, processLogFile(input.toString(), output.toString(), 16), "Small map windows should grow to fit a line.");
+        testEqual(expected, Files.readString(output), "Small map windows should give the same output.");
+
+    });
+}
+
+// Part 3 - Line cache
+// Caches the FINAL CARGO line of each deterministic log line, keyed by a 64-bit hash of its bytes.
+
+/** Default number of slots of a line cache. */
+static final int LINE_CACHE_SLOTS = 1 << 16;
+
+/** Number of consecutive slots where a line may be stored (a power of two). */
+static final int LINE_CACHE_PROBES = 4;
+
+/** Longest FINAL CARGO line kept by a line cache, in bytes; longer lines are simulated every time. */
+static final int LINE_CACHE_MAX_OUTPUT = 256;
+
+/** Indexes of the counters of a line cache. */
+static final int LINE_CACHE_HITS = 0;
+static final int LINE_CACHE_MISSES = 1;
+static final int LINE_CACHE_UNCACHEABLE = 2;
+static final int LINE_CACHE_EVICTIONS = 3;
+
+/**
+ * A fixed-size cache of FINAL CARGO lines, keyed by the hash and length of the log line that produced them.
+ * It holds at most hashes.length lines of at most LINE_CACHE_MAX_OUTPUT bytes each.
+ * Examples:
+ * - LineCache([0, 0, ...], [0, 0, ...], [null, null, ...], [0, 0, 0, 0]) is an empty cache
+ * @param hashes the hash of the line in each slot, 0 for an empty slot
+ * @param lengths the length of the line in each slot
+ * @param outputs the UTF-8 FINAL CARGO line, with its newline, of each slot
+ * @param counts the hits, misses, uncacheable lines and evictions (indexed by LINE_CACHE_HITS...)
+ */
+record LineCache(long[] hashes, int[] lengths, byte[][] outputs, long[] counts) {}
+
+/**
+ * Creates an empty line cache.
+ * @param slots the number of slots (a power of two, at least LINE_CACHE_PROBES)
+ * @return a new LineCache
+ * @throws IllegalArgumentException if the number of slots is not a power of two or is too small
+ */
+LineCache makeLineCache(int slots) {
+    if (slots < LINE_CACHE_PROBES || Integer.bitCount(slots) != 1) {
+        throw new IllegalArgumentException("Bad line cache size: " + slots + " slots");
+    }
+    return new LineCache(new long[slots], new int[slots], new byte[slots][], new long[4]);
+}
+
+/**
+ * Hashes the raw bytes of a line to 64 bits, reading them 8 at a time, and never returns 0 (the empty slot).
+ * Examples:
+ *     - Given: hashLine(bytes of "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10", 0, 57)
+ *       Expect: the same hash for every copy of that line, wherever it is in the log
+ * @param log the mapped log contents
+ * @param start index of the first byte of the line
+ * @param end index just past the last byte of the line
+ * @return the hash of log[start, end)
+ */
+long hashLine(ByteSequence log, int start, int end) {
+    ByteBuffer bytes = log.bytes();
+    long hash = (end - start) * 0x9E3779B97F4A7C15L;
+    int i = start;
+    while (i + 8 <= end) {
+        long word = Long.rotateLeft(bytes.getLong(i) * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+        hash = Long.rotateLeft(hash ^ word, 27) * 5 + 0x52DCE729;
+        i += 8;
+    }
+    while (i < end) {
+        hash = (hash ^ (bytes.get(i) & 0xFF)) * 0x100000001B3L;
+        i++;
+    }
+    hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+    hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+    hash = hash ^ (hash >>> 33);
+    if (hash == 0) {
+        return 1;
+    }
+    return hash;
+}
+
+/**
+ * Finds the slot holding a line, or the slot where it should be stored.
+ * Examples:
+ *     - Given: findLineSlot(empty cache, hash, 57)
+ *       Expect: the slot the hash selects, which is empty
+ * @param cache the line cache
+ * @param hash the hash of the line (see hashLine)
+ * @param length the length of the line
+ * @return the slot holding the line, else the first empty slot among its probes, else the next slot to evict
+ */
+int findLineSlot(LineCache cache, long hash, int length) {
+    int mask = cache.hashes().length - 1;
+    int home = (int) hash & mask;
+    for (int probe = 0; probe < LINE_CACHE_PROBES; probe++) {
+        int slot = (home + probe) & mask;
+        long slotHash = cache.hashes()[slot];
+        if (slotHash == 0 || (slotHash == hash && cache.lengths()[slot] == length)) {
+            return slot;
+        }
+    }
+    return (home + (int) (cache.counts()[LINE_CACHE_EVICTIONS] & (LINE_CACHE_PROBES - 1))) & mask;
+}
+
+/**
+ * Same as processLogLine, answering repeated deterministic lines from a line cache.
+ * @param log the mapped log contents
+ * @param start index of the first byte of the line
+ * @param end index just past the last byte of the line (excluding the newline)
+ * @param out the output channel, written to when the output buffer is full
+ * @param output the buffer collecting FINAL CARGO lines
+ * @param cache the line cache
+ * @return 1 if the line held a log entry, 0 if it was blank
+ * @throws IOException if the output channel cannot be written
+ * @throws IllegalArgumentException if the entry or one of its artifacts is malformed
+ */
+int processLogLineCached(ByteSequence log, int start, int end, FileChannel out, ByteBuffer output, LineCache cache) throws IOException {
+    if (skipLeadingSpaces(log, start, end) == end) {
+        return 0;
+    }
+    long hash = hashLine(log, start, end);
+    int slot = findLineSlot(cache, hash, end - start);
+    long[] counts = cache.counts();
+    if (cache.hashes()[slot] == hash && cache.lengths()[slot] == end - start) {
+        counts[LINE_CACHE_HITS]++;
+        writeCargoBytes(out, output, cache.outputs()[slot]);
+        return 1;
+    }
+    long sampleStart = latencySampleStart(metrics.parseLatency());
+    LogEntry entry = scanLogEntry(log, start, end);
+    Artifact finalArtifact = encounter(entry.encounterType(), entry.owned(), entry.other());
+    recordLatency(metrics.parseLatency(), sampleStart);
+    byte[] bytes = (finalCargoLine(finalArtifact) + "\n").getBytes(StandardCharsets.UTF_8);
+    boolean deterministic;
+    if (Equals(entry.encounterType(), "ASTEROID")) {
+        deterministic = isDeterministic(RATIONAL_PROTOCOL, entry.owned(), entry.other());
+    } else {
+        deterministic = isDeterministic(RISK_TAKER_PROTOCOL, entry.other(), entry.owned());
+    }
+    if (deterministic && bytes.length <= LINE_CACHE_MAX_OUTPUT) {
+        counts[LINE_CACHE_MISSES]++;
+        if (cache.hashes()[slot] != 0) {
+            counts[LINE_CACHE_EVICTIONS]++;
+        }
+        cache.hashes()[slot] = hash;
+        cache.lengths()[slot] = end - start;
+        cache.outputs()[slot] = bytes;
+    } else {
+        counts[LINE_CACHE_UNCACHEABLE]++;
+    }
+    writeCargoBytes(out, output, bytes);
+    return 1;
+}
+
+/**
+ * Same as processLogFile, answering repeated deterministic lines from a line cache (see "Line cache").
+ * Examples:
+ *    - Given: a log holding the same ASTEROID line 1000 times, and makeLineCache(LINE_CACHE_SLOTS)
+ *      Expect: 1000, the same output as processLogFile, and 999 hits
+ * @param inputPath path of the log file to read
+ * @param outputPath path of the file receiving the FINAL CARGO lines (created or truncated)
+ * @param cache the line cache, which keeps its lines and counts for the next file
+ * @return the number of log entries processed
+ * @throws IOException if the input cannot be read or the output cannot be written
+ */
+long processLogFileCached(String inputPath, String outputPath, LineCache cache) throws IOException {
+    try (FileChannel in = FileChannel.open(Path.of(inputPath), StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(Path.of(outputPath), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer output = ByteBuffer.allocateDirect(CARGO_OUTPUT_BUFFER);
+        long entries = forEachLogLine(in, LOG_MAP_WINDOW, (log, start, end) -> processLogLineCached(log, start, end, out, output, cache));
+        flushCargoOutput(out, output);
+        return entries;
+    }
+}
+
+/**
+ * Formats the counts of a line cache.
+ * Examples:
+ *     - Given: a cache with 900 hits, 90 misses, 10 uncacheable lines and no evictions
+ *       Expect: "Line cache: 900 hits, 90 misses, 10 uncacheable, 0 evictions (hit ratio 90.0%)"
+ * @param cache the line cache
+ * @return the report line
+ */
+String formatLineCacheReport(LineCache cache) {
+    long[] counts = cache.counts();
+    long lookups = counts[LINE_CACHE_HITS] + counts[LINE_CACHE_MISSES] + counts[LINE_CACHE_UNCACHEABLE];
+    double ratio = 0;
+    if (lookups > 0) {
+        ratio = 100.0 * counts[LINE_CACHE_HITS] / lookups;
+    }
+    return String.format("Line cache: %d hits, %d misses, %d uncacheable, %d evictions (hit ratio %.1f%%)",
+        counts[LINE_CACHE_HITS], counts[LINE_CACHE_MISSES], counts[LINE_CACHE_UNCACHEABLE], counts[LINE_CACHE_EVICTIONS], ratio);
+}
+
+void testLineCache() {
+    SplittableRandom callerRandom = randomSource.get();
+    try {
+        withTemporaryFiles("The cached bulk mode", files -> {
+            Path input = files.create("encounters", ".log");
+            Path expectedOutput = files.create("cargo", ".log");
+            Path output = files.create("cargo", ".log");
+            StringBuilder log = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                log.append("ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=").append(i % 10).append('\n');
+                log.append("TRADING_POST | InertRock:COLOR=red | InertRock:COLOR=blue\n");
+                log.append("TRADING_POST | StarChart:A;RISK=9;SEC=4;SYS=5 | StarChart:C;RISK=5;SEC=4;SYS=6\n");
+            }
+            Files.writeString(input, log.toString());
+            seedRandomSource(7);
+            processLogFile(input.toString(), expectedOutput.toString());
+
+            seedRandomSource(7);
+            LineCache cache = makeLineCache(LINE_CACHE_SLOTS);
+            testEqual(300L, processLogFileCached(input.toString(), output.toString(), cache), "Every line should be answered.");
+            testEqual(Files.readString(expectedOutput), Files.readString(output), "Cached lines should give the same output.");
+            testEqual(11L, cache.counts()[LINE_CACHE_MISSES], "Each distinct deterministic line should be simulated once.");
+            testEqual(189L, cache.counts()[LINE_CACHE_HITS], "Repeated deterministic lines should be hits.");
+            testEqual(100L, cache.counts()[LINE_CACHE_UNCACHEABLE], "Lines that flip a coin should never be cached.");
+            testEqual("Line cache: 189 hits, 11 misses, 100 uncacheable, 0 evictions (hit ratio 63.0%)", formatLineCacheReport(cache),
+                "The report should give the hit ratio of all lines.");
+
+            // a table smaller than the number of distinct lines evicts, but never answers wrongly
+            seedRandomSource(7);
+            LineCache small = makeLineCache(LINE_CACHE_PROBES);
+            processLogFileCached(input.toString(), output.toString(), small);
+            testEqual(Files.readString(expectedOutput), Files.readString(output), "Evictions should not change the output.");
+            testEqual(true, small.counts()[LINE_CACHE_EVICTIONS] > 0, "A full table should evict.");
+
+        });
+        boolean rejected = false;
+        try {
+            makeLineCache(1000);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        testEqual(true, rejected, "A line cache size should be a power of two.");
+    } finally {
+        useRandomSource(callerRandom);
+    }
+}
+
+// Part 3 - Compressed logs
+// Bulk mode on ".gz" files, with reading and inflating on their own thread.
+
+/** Initial length of a block of decompressed log lines (1 MiB). */
+static final int COMPRESSED_BLOCK_SIZE = 1 << 20;
+
+/** Number of blocks passed between the decompressor and the simulating thread. */
+static final int COMPRESSED_BLOCKS = 4;
+
+/** Size of the buffers of the gzip streams (64 KiB). */
+static final int GZIP_BUFFER = 1 << 16;
+
+/**
+ * Checks whether a path names a gzip file, by its ".gz" extension.
+ * Examples:
+ *     - Given: isGzipPath("encounters.log.gz")
+ *       Expect: true
+ * @param path the path
+ * @return true if the path ends with ".gz"
+ */
+boolean isGzipPath(String path) {
+    return path.endsWith(".gz");
+}
+
+/**
+ * Opens a log file for reading, decompressing it if it is a gzip file.
+ * @param path the path of the log file
+ * @return a stream of the log contents
+ * @throws IOException if the file cannot be opened, or does not start with a gzip header
+ */
+InputStream openLogInput(String path) throws IOException {
+    InputStream in = Files.newInputStream(Path.of(path));
+    if (isGzipPath(path)) {
+        return new GZIPInputStream(in, GZIP_BUFFER);
+    }
+    return in;
+}
+
+/**
+ * Creates or truncates an output file, compressing what is written to it if it is a gzip file.
+ * @param path the path of the output file
+ * @return a channel writing to the file
+ * @throws IOException if the file cannot be created
+ */
+WritableByteChannel openCargoOutput(String path) throws IOException {
+    if (isGzipPath(path)) {
+        return Channels.newChannel(new GZIPOutputStream(Files.newOutputStream(Path.of(path)), GZIP_BUFFER));
+    }
+    return FileChannel.open(Path.of(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+}
+
+/**
+ * Same as processLogFile, reading the log and writing the FINAL CARGO lines as streams (see "Compressed logs"),
+ * so either file may be gzipped.
+ * Examples:
+ *    - Given: "encounters.log.gz" holding the gzipped lines
+ *             "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10"
+ *             "TRADING_POST | InertRock:COLOR=green | EnergyCrystal:POWER=8"
+ *      Expect: 2, and "cargo.log.gz" holding the gzipped lines
+ *             "FINAL CARGO: EnergyCrystal:POWER=10"
+ *             "FINAL CARGO: InertRock:COLOR=green"
+ * @param inputPath path of the log file to read
+ * @param outputPath path of the file receiving the FINAL CARGO lines (created or truncated)
+ * @return the number of log entries processed
+ * @throws IOException if the input cannot be read or decompressed, or the output cannot be written
+ * @throws IllegalArgumentException if a log entry is malformed
+ */
+long processLogStream(String inputPath, String outputPath) throws IOException {
+    return processLogStream(inputPath, outputPath, COMPRESSED_BLOCK_SIZE);
+}
+
+/**
+ * Same as processLogStream(inputPath, outputPath), with blocks of the given initial length.
+ * @param inputPath path of the log file to read
+ * @param outputPath path of the file receiving the FINAL CARGO lines (created or truncated)
+ * @param blockSize the initial length of a block of lines
+ * @return the number of log entries processed
+ * @throws IOException if the input cannot be read or decompressed, or the output cannot be written
+ * @throws IllegalArgumentException if a log entry is malformed
+ */
+long processLogStream(String inputPath, String outputPath, int blockSize) throws IOException {
+    try (InputStream in = openLogInput(inputPath);
+         WritableByteChannel out = openCargoOutput(outputPath)) {
+        ByteBuffer output = ByteBuffer.allocate(CARGO_OUTPUT_BUFFER);
+        long entries = forEachStreamLine(in, blockSize, (log, start, end) -> processLogLine(log, start, end, out, output));
+        flushCargoOutput(out, output);
+        return entries;
+    }
+}
+
+/**
+ * Passes every line of a stream to a handler, in order, while another thread reads the stream ahead.
+ * The blocks are direct buffers, like the mapped windows of forEachLogLine, so the scanner runs as fast
+ * on a stream as on a mapped file.
+ * @param in the log contents
+ * @param blockSize the initial length of a block of lines
+ * @param handler the handler of each line
+ * @return the sum of the counts returned by the handler
+ * @throws IOException if the stream cannot be read or the handler fails
+ */
+long forEachStreamLine(InputStream in, int blockSize, LogLineHandler handler) throws IOException {
+    ArrayBlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(COMPRESSED_BLOCKS + 1);
+    ArrayBlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(COMPRESSED_BLOCKS + 1);
+    for (int i = 0; i < COMPRESSED_BLOCKS; i++) {
+        free.add(ByteBuffer.allocateDirect(blockSize));
+    }
+    ExecutorService reader = Executors.newSingleThreadExecutor();
+    try {
+        Future<Long> decompressed = reader.submit(() -> readLogBlocks(in, blockSize, free, full));
+        long entries = 0;
+        ByteBuffer block = full.take();
+        while (block.limit() > 0) {
+            ByteSequence view = new ByteSequence(block);
+            int length = block.limit();
+            int lineStart = 0;
+            for (int i = 0; i < length; i++) {
+                if (block.get(i) == '\n') {
+                    entries += handler.handle(view, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            if (lineStart < length) {
+                // only the last block may end without a newline
+                entries += handler.handle(view, lineStart, length);
+            }
+            free.put(block);
+            block = full.take();
+        }
+        decompressed.get();
+        return entries;
+    } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for the decompressor", e);
+    } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException io) {
+            throw io;
+        }
+        if (e.getCause() instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        throw new IOException(e.getCause());
+    } finally {
+        reader.shutdownNow();
+    }
+}
+
+/**
+ * The decompressor stage of forEachStreamLine: reads a stream into a staging array, copies the whole lines
+ * it holds into a free block and queues the block, keeping a partial line for the next block.
+ * Queues an empty block at the end of the stream, or when reading fails.
+ * Examples:
+ *     - Given: a stream of "AB\nCD\nE", blockSize = 4
+ *       Expect: 7, with the blocks "AB\n", "CD\n", "E" and an empty block queued in turn
+ * @param in the log contents
+ * @param blockSize the initial length of the staging array
+ * @param free the blocks the simulating thread has finished with
+ * @param full the blocks of lines waiting to be simulated, with their limit at the end of the lines
+ * @return the number of bytes read
+ * @throws IOException if the stream cannot be read
+ * @throws InterruptedException if the simulating thread gave up
+ */
+long readLogBlocks(InputStream in, int blockSize, ArrayBlockingQueue<ByteBuffer> free, ArrayBlockingQueue<ByteBuffer> full)
+        throws IOException, InterruptedException {
+    try {
+        long total = 0;
+        byte[] staging = new byte[blockSize];
+        int filled = 0;
+        int read = in.readNBytes(staging, 0, staging.length);
+        while (read > 0) {
+            total += read;
+            filled += read;
+            if (filled == staging.length) {
+                int lastNewline = filled - 1;
+                while (lastNewline >= 0 && staging[lastNewline] != '\n') {
+                    lastNewline--;
+                }
+                if (lastNewline < 0) {
+                    // a single line is longer than the staging array
+                    staging = Arrays.copyOf(staging, staging.length * 2);
+                } else {
+                    queueLogBlock(staging, lastNewline + 1, free, full);
+                    filled = filled - lastNewline - 1;
+                    System.arraycopy(staging, lastNewline + 1, staging, 0, filled);
+                }
+            }
+            read = in.readNBytes(staging, filled, staging.length - filled);
+        }
+        if (filled > 0) {
+            queueLogBlock(staging, filled, free, full);
+        }
+        return total;
+    } finally {
+        full.put(ByteBuffer.allocate(0));
+    }
+}
+
+/**
+ * Copies staging[0, length) into a free block, growing the block if needed, and queues it.
+ * @param staging the bytes read
+ * @param length the number of bytes to pass on
+ * @param free the blocks the simulating thread has finished with
+ * @param full the blocks of lines waiting to be simulated
+ * @throws InterruptedException if the simulating thread gave up
+ */
+void queueLogBlock(byte[] staging, int length, ArrayBlockingQueue<ByteBuffer> free, ArrayBlockingQueue<ByteBuffer> full)
+        throws InterruptedException {
+    ByteBuffer block = free.take();
+    if (block.capacity() < length) {
+        block = ByteBuffer.allocateDirect(length);
+    }
+    block.clear();
+    block.put(0, staging, 0, length);
+    block.limit(length);
+    full.put(block);
+}
+
+void testCompressedLogs() {
+    withTemporaryFiles("Compressed logs", files -> {
+        Path plain = files.create("encounters", ".log");
+        Path expected = files.create("cargo", ".log");
+        Path input = files.create("encounters", ".log.gz");
+        Path output = files.create("cargo", ".log.gz");
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            log.append("ASTEROID | EnergyCrystal:POWER=").append(i).append(" | EnergyCrystal:POWER=").append(i % 7).append('\n');
+            log.append("TRADING_POST | StarChart:Star").append(i).append(";RISK=9;SEC=4;SYS=5 | StarChart:C;RISK=5;SEC=4;SYS=6\n");
+            if (i % 100 == 0) {
+                log.append('\n');
+            }
+        }
+        log.append("ASTEROID | InertRock:COLOR=blue | InertRock:COLOR=red");
+        Files.writeString(plain, log.toString());
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(input))) {
+            out.write(log.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        testEqual(2001L, processLogFile(plain.toString(), expected.toString()), "The plain log should be processed.");
+
+        testEqual(2001L, processLogStream(input.toString(), output.toString()), "A gzipped log should be processed.");
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(output))) {
+            testEqual(Files.readString(expected), new String(in.readAllBytes(), StandardCharsets.UTF_8),
+                "A gzipped log should give the same FINAL CARGO lines, gzipped.");
+        }
+
+        // blocks shorter than a line must grow, and lines must never be split between blocks
+        Path copy = files.derive(expected, ".copy");
+        testEqual(2001L, processLogStream(input.toString(), copy.toString(), 16), "Small blocks should grow to fit a line.");
+        testEqual(Files.readString(expected), Files.readString(copy), "Small blocks should give the same output.");
+
+        // a truncated archive is an error, not a shorter log
+        byte[] compressed = Files.readAllBytes(input);
+        Files.write(input, Arrays.copyOf(compressed, compressed.length / 2));
+        boolean rejected = false;
+        try {
+            processLogStream(input.toString(), output.toString());
+        } catch (IOException e) {
+            rejected = true;
+        }
+        testEqual(true, rejected, "A truncated gzip log should fail.");
+    });
+}
+
+// Part 3 - Validating ingestion
+// Bulk mode that writes malformed lines to a reject file as "[line]:[column]:[STATUS]", a tab and the line.
+
+/** Statuses of a checked log entry, stored in the low byte of a status from checkLogEntry. */
+static final int INGEST_OK = 0;
+static final int INGEST_MISSING_SEPARATOR = 1;
+static final int INGEST_UNKNOWN_ENCOUNTER = 2;
+static final int INGEST_UNKNOWN_ARTIFACT = 3;
+static final int INGEST_MISSING_FIELD = 4;
+static final int INGEST_BAD_NUMBER = 5;
+
+/** Status names, indexed by status code. */
+static final List<String> INGEST_STATUS_NAMES = List.of("OK", "MISSING_SEPARATOR", "UNKNOWN_ENCOUNTER", "UNKNOWN_ARTIFACT", "MISSING_FIELD", "BAD_NUMBER");
+
+/**
+ * The result of an ingestion.
+ * @param accepted the number of log entries simulated
+ * @param rejected the number of lines sent to the reject file
+ * @param statuses the number of non-blank lines with each status, indexed by status code
+ */
+record IngestReport(long accepted, long rejected, long[] statuses) {}
+
+/**
+ * Packs a status code and the index of the character where the problem was found into one long.
+ * @param code the status code
+ * @param index the index of the offending character
+ * @return the packed status
+ */
+long ingestStatus(int code, int index) {
+    return (long) index << 8 | code;
+}
+
+/**
+ * @param status a packed status
+ * @return its status code
+ */
+int statusCode(long status) {
+    return (int) (status & 0xFF);
+}
+
+/**
+ * @param status a packed status
+ * @return the index of the offending character
+ */
+int statusIndex(long status) {
+    return (int) (status >> 8);
+}
+
+/**
+ * Checks the log entry in log[start, end) without parsing it: the status is INGEST_OK exactly when
+ * scanLogEntry would parse the entry and its encounter type is ASTEROID or TRADING_POST.
+ * Examples:
+ *     - Given: checkLogEntry("ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10", 0, 57)
+ *       Expect: INGEST_OK
+ *     - Given: checkLogEntry("ASTEROID | EnergyCrystal:POWER=5x | EnergyCrystal:POWER=10", 0, 58)
+ *       Expect: INGEST_BAD_NUMBER at index 32
+ *     - Given: checkLogEntry("ASTEROID | EnergyCrystal:POWER=5", 0, 32)
+ *       Expect: INGEST_MISSING_SEPARATOR at index 32
+ * @param log the characters holding the log entry
+ * @param start index of the first character of the entry
+ * @param end index just past the last character of the entry
+ * @return the packed status (see statusCode and statusIndex)
+ */
+long checkLogEntry(CharSequence log, int start, int end) {
+    int firstBar = scanIndexOf('|', log, start, end);
+    if (firstBar < 0) {
+        return ingestStatus(INGEST_MISSING_SEPARATOR, end);
+    }
+    int secondBar = scanIndexOf('|', log, firstBar + 1, end);
+    if (secondBar < 0) {
+        return ingestStatus(INGEST_MISSING_SEPARATOR, end);
+    }
+    int typeStart = skipLeadingSpaces(log, start, firstBar);
+    int typeLength = skipTrailingSpaces(log, typeStart, firstBar) - typeStart;
+    if (!(typeLength == 8 && scanMatches("ASTEROID", log, typeStart, firstBar))
+            && !(typeLength == 12 && scanMatches("TRADING_POST", log, typeStart, firstBar))) {
+        return ingestStatus(INGEST_UNKNOWN_ENCOUNTER, typeStart);
+    }
+    long status = checkArtifact(log, firstBar + 1, secondBar);
+    if (statusCode(status) != INGEST_OK) {
+        return status;
+    }
+    return checkArtifact(log, secondBar + 1, end);
+}
+
+/**
+ * Checks the artifact in s[start, end) without parsing it: the status is INGEST_OK exactly when scanArtifact would parse it.
+ * Examples:
+ *     - Given: checkArtifact("StarChart:A;RISK=3;SYS=4", 0, 24)
+ *       Expect: INGEST_MISSING_FIELD at index 18
+ * @param s the characters holding the artifact
+ * @param start index of the first character of the artifact
+ * @param end index just past the last character of the artifact
+ * @return the packed status
+ */
+long checkArtifact(CharSequence s, int start, int end) {
+    start = skipLeadingSpaces(s, start, end);
+    end = skipTrailingSpaces(s, start, end);
+    if (scanMatches("StarChart:", s, start, end)) {
+        int destEnd = scanIndexOf(';', s, start + 10, end);
+        if (!scanMatches(";RISK=", s, destEnd, end)) {
+            return ingestStatus(INGEST_MISSING_FIELD, destEnd < 0 ? end : destEnd);
+        }
+        int riskEnd = scanIndexOf(';', s, destEnd + 6, end);
+        if (!scanMatches(";SEC=", s, riskEnd, end)) {
+            return ingestStatus(INGEST_MISSING_FIELD, riskEnd < 0 ? end : riskEnd);
+        }
+        int sectorEnd = scanIndexOf(';', s, riskEnd + 5, end);
+        if (!scanMatches(";SYS=", s, sectorEnd, end)) {
+            return ingestStatus(INGEST_MISSING_FIELD, sectorEnd < 0 ? end : sectorEnd);
+        }
+        long status = checkInt(s, destEnd + 6, riskEnd);
+        if (statusCode(status) == INGEST_OK) {
+            status = checkInt(s, riskEnd + 5, sectorEnd);
+        }
+        if (statusCode(status) == INGEST_OK) {
+            status = checkInt(s, sectorEnd + 5, end);
+        }
+        return status;
+    }
+    if (scanMatches("EnergyCrystal:POWER=", s, start, end)) {
+        return checkInt(s, start + 20, end);
+    }
+    if (scanMatches("InertRock:COLOR=", s, start, end)) {
+        return INGEST_OK;
+    }
+    return ingestStatus(INGEST_UNKNOWN_ARTIFACT, start);
+}
+
+/**
+ * Checks the decimal int in s[start, end): the status is INGEST_OK exactly when scanInt would parse it.
+ * Examples:
+ *     - Given: checkInt("POWER=9x", 6, 8)
+ *       Expect: INGEST_BAD_NUMBER at index 7
+ * @param s the characters holding the number
+ * @param start index of the first character of the number
+ * @param end index just past the last digit
+ * @return the packed status
+ */
+long checkInt(CharSequence s, int start, int end) {
+    int i = start;
+    boolean negative = start < end && s.charAt(start) == '-';
+    if (start < end && (negative || s.charAt(start) == '+')) {
+        i = start + 1;
+    }
+    if (i >= end) {
+        return ingestStatus(INGEST_BAD_NUMBER, i);
+    }
+    long value = 0;
+    for (; i < end; i++) {
+        int digit = s.charAt(i) - '0';
+        if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+            return ingestStatus(INGEST_BAD_NUMBER, i);
+        }
+        value = value * 10 + digit;
+    }
+    if (value > Integer.MAX_VALUE + (negative ? 1L : 0L)) {
+        return ingestStatus(INGEST_BAD_NUMBER, start);
+    }
+    return INGEST_OK;
+}
+
+/**
+ * Simulates every well-formed entry of a log file like processLogFile, and sends every malformed line to a reject file.
+ * Examples:
+ *    - Given: an input file with the lines
+ *             "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10"
+ *             "ASTEROID | EnergyCrystal:POWER=5"
+ *      Expect: IngestReport(1, 1, ...), an output file with the line "FINAL CARGO: EnergyCrystal:POWER=10",
+ *              and a reject file with the line "2:33:MISSING_SEPARATOR\tASTEROID | EnergyCrystal:POWER=5"
+ * @param inputPath path of the log file to read
+ * @param outputPath path of the file receiving the FINAL CARGO lines (created or truncated)
+ * @param rejectPath path of the file receiving the malformed lines (created or truncated)
+ * @return the counts of accepted and rejected lines
+ * @throws IOException if the input cannot be read or an output cannot be written
+ */
+IngestReport ingestLogFile(String inputPath, String outputPath, String rejectPath) throws IOException {
+    try (FileChannel in = FileChannel.open(Path.of(inputPath), StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(Path.of(outputPath), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+         FileChannel rejects = FileChannel.open(Path.of(rejectPath), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer output = ByteBuffer.allocateDirect(CARGO_OUTPUT_BUFFER);
+        ByteBuffer rejectOutput = ByteBuffer.allocate(CARGO_OUTPUT_BUFFER);
+        long[] statuses = new long[INGEST_STATUS_NAMES.size()];
+        long[] lineNumber = {0};
+        long accepted = forEachLogLine(in, LOG_MAP_WINDOW, (log, start, end) -> {
+            lineNumber[0] = lineNumber[0] + 1;
+            if (skipLeadingSpaces(log, start, end) == end) {
+                return 0;
+            }
+            long status = checkLogEntry(log, start, end);
+            statuses[statusCode(status)]++;
+            if (statusCode(status) == INGEST_OK) {
+                writeCargoLine(out, output, finalCargoLine(scanRationalScavengerLog(log, start, end)));
+                return 1;
+            }
+            writeCargoLine(rejects, rejectOutput, lineNumber[0] + ":" + (statusIndex(status) - start + 1) + ":"
+                + INGEST_STATUS_NAMES.get(statusCode(status)) + "\t" + regionText(log, start, end));
+            return 0;
+        });
+        flushCargoOutput(out, output);
+        flushCargoOutput(rejects, rejectOutput);
+        return new IngestReport(accepted, Arrays.stream(statuses).sum() - accepted, statuses);
+    }
+}
+
+/**
+ * Formats the counts of an ingestion, with the number of lines of each status that occurred.
+ * Examples:
+ *     - Given: IngestReport(95, 5, [95, 3, 0, 0, 0, 2])
+ *       Expect: "Accepted 95 log entries, rejected 5 lines (MISSING_SEPARATOR: 3, BAD_NUMBER: 2)."
+ * @param report the report
+ * @return the summary line
+ */
+String formatIngestReport(IngestReport report) {
+    StringBuilder details = new StringBuilder();
+    for (int code = INGEST_OK + 1; code < INGEST_STATUS_NAMES.size(); code++) {
+        if (report.statuses()[code] > 0) {
+            if (details.length() > 0) {
+                details.append(", ");
+            }
+            details.append(INGEST_STATUS_NAMES.get(code)).append(": ").append(report.statuses()[code]);
+        }
+    }
+    String summary = "Accepted " + report.accepted() + " log entries, rejected " + report.rejected() + " lines";
+    if (details.length() > 0) {
+        summary = summary + " (" + details + ")";
+    }
+    return summary + ".";
+}
+
+/**
+ * Damages a log entry the way a faulty feed might: drops a separator, mangles a number,
+ * renames an artifact type, or cuts the line short.
+ * @param line a well-formed log entry
+ * @param random the random source
+ * @return the damaged line
+ */
+String corruptLogEntry(String line, SplittableRandom random) {
+    int kind = random.nextInt(4);
+    if (kind == 0) {
+        int bar = line.lastIndexOf('|');
+        return line.substring(0, bar) + line.substring(bar + 1);
+    } else if (kind == 1) {
+        int equals = line.lastIndexOf('=');
+        return line.substring(0, equals + 1) + "x" + line.substring(equals + 1);
+    } else if (kind == 2) {
+        return line.replaceFirst("\\| (\\w)", "| X$1");
+    } else {
+        return line.substring(0, random.nextInt(1, line.length()));
+    }
+}
+
+/**
+ * Compares bulk mode and ingestion on a clean log, then ingestion on the same log with some lines damaged.
+ * @param lines the number of log entries
+ * @param corruptPercent the percentage of damaged lines
+ * @throws IOException if the temporary files cannot be written
+ */
+void benchmarkIngest(int lines, int corruptPercent) throws IOException {
+    SplittableRandom random = new SplittableRandom(21);
+    Path clean = Files.createTempFile("clean", ".log");
+    Path corrupt = Files.createTempFile("corrupt", ".log");
+    Path output = Files.createTempFile("cargo", ".log");
+    Path rejects = Files.createTempFile("rejects", ".log");
+    try (BufferedWriter cleanOut = Files.newBufferedWriter(clean, StandardCharsets.UTF_8);
+         BufferedWriter corruptOut = Files.newBufferedWriter(corrupt, StandardCharsets.UTF_8)) {
+        for (int i = 0; i < lines; i++) {
+            String line = randomLogEntry(random);
+            cleanOut.write(line);
+            cleanOut.newLine();
+            if (random.nextInt(100) < corruptPercent) {
+                line = corruptLogEntry(line, random);
+            }
+            corruptOut.write(line);
+            corruptOut.newLine();
+        }
+    }
+    for (int round = 0; round < 6; round++) {
+        long start = System.nanoTime();
+        processLogFile(clean.toString(), output.toString());
+        long bulk = System.nanoTime() - start;
+        start = System.nanoTime();
+        ingestLogFile(clean.toString(), output.toString(), rejects.toString());
+        long ingestClean = System.nanoTime() - start;
+        start = System.nanoTime();
+        IngestReport report = ingestLogFile(corrupt.toString(), output.toString(), rejects.toString());
+        long ingestCorrupt = System.nanoTime() - start;
+        println(String.format("bulk (clean): %.0f ns/line, ingest (clean): %.0f ns/line, ingest (%d%% corrupt): %.0f ns/line",
+            (double) bulk / lines, (double) ingestClean / lines, corruptPercent, (double) ingestCorrupt / lines));
+        if (round == 5) {
+            println(formatIngestReport(report));
+        }
+    }
+    Files.delete(clean);
+    Files.delete(corrupt);
+    Files.delete(output);
+    Files.delete(rejects);
+}
+
+void testIngestLogFile() {
+    String good = "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10";
+    testEqual((long) INGEST_OK, checkLogEntry(good, 0, Length(good)), "A well-formed entry should be accepted.");
+    String badNumber = "ASTEROID | EnergyCrystal:POWER=5x | EnergyCrystal:POWER=10";
+    testEqual(ingestStatus(INGEST_BAD_NUMBER, 32), checkLogEntry(badNumber, 0, Length(badNumber)), "A bad digit should be located.");
+    String missingBar = "ASTEROID | EnergyCrystal:POWER=5";
+    testEqual(ingestStatus(INGEST_MISSING_SEPARATOR, 32), checkLogEntry(missingBar, 0, Length(missingBar)), "A missing separator should be reported.");
+    String unknownType = "CRASH | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10";
+    testEqual(ingestStatus(INGEST_UNKNOWN_ENCOUNTER, 0), checkLogEntry(unknownType, 0, Length(unknownType)), "Only the two encounter types are accepted.");
+    String missingField = "TRADING_POST | StarChart:A;RISK=3;SYS=4 | InertRock:COLOR=red";
+    testEqual(ingestStatus(INGEST_MISSING_FIELD, 33), checkLogEntry(missingField, 0, Length(missingField)), "A missing field should be located.");
+    testEqual((long) INGEST_OK, checkInt("-2147483648", 0, 11), "The smallest int should be accepted.");
+    testEqual(ingestStatus(INGEST_BAD_NUMBER, 0), checkInt("2147483648", 0, 10), "Numbers beyond an int should be rejected.");
+
+    // the checker should accept exactly what the scanner parses
+    SplittableRandom random = new SplittableRandom(21);
+    for (int i = 0; i < 5000; i++) {
+        String line = corruptLogEntry(randomLogEntry(random), random);
+        boolean parsed = true;
+        try {
+            scanLogEntry(line, 0, Length(line));
+        } catch (IllegalArgumentException e) {
+            parsed = false;
+        }
+        long status = checkLogEntry(line, 0, Length(line));
+        if (statusCode(status) != INGEST_UNKNOWN_ENCOUNTER) {
+            testEqual(parsed, statusCode(status) == INGEST_OK, "The checker should agree with the scanner on " + line);
+        }
+    }
+
+    withTemporaryFiles("Ingestion", files -> {
+        Path input = files.create("feed", ".log");
+        Path output = files.create("cargo", ".log");
+        Path rejects = files.create("rejects", ".log");
+        Files.writeString(input, good + "\n" + missingBar + "\n\n" + badNumber + "\r\n" + good);
+        IngestReport report = ingestLogFile(input.toString(), output.toString(), rejects.toString());
+        testEqual(2L, report.accepted(), "Good lines should be simulated.");
+        testEqual(2L, report.rejected(), "Bad lines should be rejected.");
+        testEqual("FINAL CARGO: EnergyCrystal:POWER=10\nFINAL CARGO: EnergyCrystal:POWER=10\n", Files.readString(output),
+            "Bad lines should not stop the good ones.");
+        testEqual("2:33:MISSING_SEPARATOR\t" + missingBar + "\n4:33:BAD_NUMBER\t" + badNumber + "\r\n", Files.readString(rejects),
+            "Rejects should give the line number, column and status of each bad line.");
+        testEqual("Accepted 2 log entries, rejected 2 lines (MISSING_SEPARATOR: 1, BAD_NUMBER: 1).", formatIngestReport(report),
+            "The report should count each status.");
+    });
+}
+
+// Part 3 - Itinerary mode
+// Lines prefixed with a scavenger's name; a short-form line continues from that scavenger's current cargo.
+
+/**
+ * The state of an itinerary replay: the scavengers seen so far and their current cargo.
+ * Examples:
+ *     - Itineraries({"Alice"=0}, ["Alice"], [EnergyCrystal(10)])
+ * @param ids the index of each scavenger name
+ * @param names the scavenger names, in the order they first appear
+ * @param cargo the current cargo of each scavenger, by index
+ */
+record Itineraries(HashMap<String, Integer> ids, ArrayList<String> names, ArrayList<Artifact> cargo) {}
+
+/**
+ * Creates the state of a replay with no scavengers.
+ * @return new empty Itineraries
+ */
+Itineraries makeItineraries() {
+    return new Itineraries(new HashMap<String, Integer>(), new ArrayList<String>(), new ArrayList<Artifact>());
+}
+
+/**
+ * One line of an itinerary: the index of its scavenger, the encounter type and the other artifact.
+ * Examples:
+ * - ItineraryEntry(0, "ASTEROID", EnergyCrystal(10))
+ * @param scavenger the index of the scavenger in the Itineraries
+ * @param encounterType "ASTEROID" or "TRADING_POST"
+ * @param other the artifact found, or offered by the other scavenger
+ */
+record ItineraryEntry(int scavenger, String encounterType, Artifact other) {}
+
+/**
+ * Replays the itinerary line in log[start, end), updating the cargo of its scavenger.
+ * Examples:
+ *     - Given: replayItineraryLine(itineraries, "Alice | ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10", 0, 65)
+ *       Expect: 1, and Alice holds EnergyCrystal(10)
+ *     - Given: then replayItineraryLine(itineraries, "Alice | TRADING_POST | InertRock:COLOR=red", 0, 41)
+ *       Expect: 1, and Alice still holds EnergyCrystal(10)
+ * @param itineraries the state of the replay
+ * @param log the characters holding the line
+ * @param start index of the first character of the line
+ * @param end index just past the last character of the line
+ * @return 1 if the line held an encounter, 0 if it was blank
+ * @throws IllegalArgumentException if the line is malformed, or a short-form line names a scavenger with no cargo yet
+ */
+int replayItineraryLine(Itineraries itineraries, CharSequence log, int start, int end) {
+    if (skipLeadingSpaces(log, start, end) == end) {
+        return 0;
+    }
+    ItineraryEntry entry = scanItineraryEntry(itineraries, log, start, end);
+    Artifact result = encounter(entry.encounterType(), itineraries.cargo().get(entry.scavenger()), entry.other());
+    itineraries.cargo().set(entry.scavenger(), result);
+    return 1;
+}
+
+/**
+ * Parses the non-blank itinerary line in log[start, end). A scavenger seen for the first time is added
+ * to the itineraries, holding the owned artifact of the line; otherwise the owned artifact is not parsed.
+ * Examples:
+ *     - Given: scanItineraryEntry(empty itineraries, "Alice | ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10", 0, 65)
+ *       Expect: ItineraryEntry(0, "ASTEROID", EnergyCrystal(10)), and Alice holds EnergyCrystal(5)
+ * @param itineraries the scavengers seen so far
+ * @param log the characters holding the line
+ * @param start index of the first character of the line
+ * @param end index just past the last character of the line
+ * @return the entry of the line
+ * @throws IllegalArgumentException if the line is malformed, or a short-form line names a scavenger with no cargo yet
+ */
+ItineraryEntry scanItineraryEntry(Itineraries itineraries, CharSequence log, int start, int end) {
+    int nameBar = scanIndexOf('|', log, start, end);
+    int typeBar = -1;
+    if (nameBar >= 0) {
+        typeBar = scanIndexOf('|', log, nameBar + 1, end);
+    }
+    if (typeBar < 0) {
+        throw new IllegalArgumentException("Malformed itinerary entry: " + regionText(log, start, end));
+    }
+    int nameStart = skipLeadingSpaces(log, start, nameBar);
+    String name = regionText(log, nameStart, skipTrailingSpaces(log, nameStart, nameBar));
+    int ownedBar = scanIndexOf('|', log, typeBar + 1, end);
+    Integer id = itineraries.ids().get(name);
+    if (id == null) {
+        if (ownedBar < 0) {
+            throw new IllegalArgumentException("Itinerary of " + name + " starts without cargo: " + regionText(log, start, end));
+        }
+        id = itineraries.names().size();
+        itineraries.ids().put(name, id);
+        itineraries.names().add(name);
+        itineraries.cargo().add(scanArtifact(log, typeBar + 1, ownedBar));
+    }
+    int otherStart = typeBar + 1;
+    if (ownedBar >= 0) {
+        otherStart = ownedBar + 1;
+    }
+    return new ItineraryEntry(id, scanEncounterType(log, nameBar + 1, typeBar), scanArtifact(log, otherStart, end));
+}
+
+/**
+ * Replays every itinerary of a log file, and writes one "[name] | FINAL CARGO: ..." line per scavenger.
+ * Examples:
+ *    - Given: an input file with the lines
+ *             "Alice | ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10"
+ *             "Bob | ASTEROID | InertRock:COLOR=red | StarChart:A;RISK=3;SEC=1;SYS=2"
+ *             "Alice | ASTEROID | EnergyCrystal:POWER=20"
+ *      Expect: 3, and an output file with the lines
+ *             "Alice | FINAL CARGO: EnergyCrystal:POWER=20"
+ *             "Bob | FINAL CARGO: InertRock:COLOR=red"
+ * @param inputPath path of the itinerary log to read
+ * @param outputPath path of the file receiving the final cargo lines (created or truncated)
+ * @return the number of encounters replayed
+ * @throws IOException if the input cannot be read or the output cannot be written
+ * @throws IllegalArgumentException if a line is malformed
+ */
+long processItineraryFile(String inputPath, String outputPath) throws IOException {
+    Itineraries itineraries = makeItineraries();
+    long entries;
+    try (FileChannel in = FileChannel.open(Path.of(inputPath), StandardOpenOption.READ)) {
+        entries = forEachLogLine(in, LOG_MAP_WINDOW, (log, start, end) -> replayItineraryLine(itineraries, log, start, end));
+    }
+    try (FileChannel out = FileChannel.open(Path.of(outputPath), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer output = ByteBuffer.allocateDirect(CARGO_OUTPUT_BUFFER);
+        for (int i = 0; i < itineraries.names().size(); i++) {
+            writeCargoLine(out, output, itineraries.names().get(i) + " | " + finalCargoLine(itineraries.cargo().get(i)));
+        }
+        flushCargoOutput(out, output);
+    }
+    return entries;
+}
+
+void testItineraries() {
+    Itineraries itineraries = makeItineraries();
+    String start = "Alice | ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10";
+    String trade = "Alice | TRADING_POST | InertRock:COLOR=red";
+    testEqual(1, replayItineraryLine(itineraries, start, 0, Length(start)), "A full-form line should start an itinerary.");
+    testEqual(1, replayItineraryLine(itineraries, trade, 0, Length(trade)), "A short-form line should continue it.");
+    testEqual(new EnergyCrystal(10), itineraries.cargo().get(0), "Cargo should carry over from line to line.");
+
+    // the owned artifact of a full-form line is ignored once the itinerary has started
+    String again = "Alice | ASTEROID | InertRock:COLOR=blue | EnergyCrystal:POWER=7";
+    replayItineraryLine(itineraries, again, 0, Length(again));
+    testEqual(new EnergyCrystal(10), itineraries.cargo().get(0), "A started itinerary should keep its own cargo.");
+
+    // a chain of single entries, each owning the previous result, gives the same final cargo
+    SplittableRandom random = new SplittableRandom(16);
+    Itineraries chain = makeItineraries();
+    Artifact expected = randomArtifact(random);
+    String line = "Bob | ASTEROID | " + describeArtifact(expected) + " | " + describeArtifact(randomArtifact(random));
+    replayItineraryLine(chain, line, 0, Length(line));
+    expected = parseRationalScavengerLog(SubString(line, 6, Length(line)));
+    for (int i = 0; i < 100; i++) {
+        String type = "ASTEROID";
+        if (random.nextBoolean()) {
+            type = "TRADING_POST";
+        }
+        String other = describeArtifact(randomArtifact(random));
+        if (isDeterministic(RISK_TAKER_PROTOCOL, expected, parseArtifact(other))) {
+            line = "Bob | " + type + " | " + other;
+            replayItineraryLine(chain, line, 0, Length(line));
+            expected = parseRationalScavengerLog(type + " | " + describeArtifact(expected) + " | " + other);
+        }
+    }
+    testEqual(expected, chain.cargo().get(0), "An itinerary should match chained single entries.");
+
+    boolean rejected = false;
+    try {
+        String orphan = "Carol | TRADING_POST | InertRock:COLOR=red";
+        replayItineraryLine(chain, orphan, 0, Length(orphan));
+    } catch (IllegalArgumentException e) {
+        rejected = true;
+    }
+    testEqual(true, rejected, "A short-form line should not start an itinerary.");
+
+    withTemporaryFiles("Itinerary mode", files -> {
+        Path input = files.create("itineraries", ".log");
+        Path output = files.create("itinerary-cargo", ".log");
+        Files.writeString(input,
+            "Alice | ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10\n"
+            + "Bob | ASTEROID | InertRock:COLOR=red | StarChart:A;RISK=3;SEC=1;SYS=2\n"
+            + "\n"
+            + "Alice | ASTEROID | EnergyCrystal:POWER=20\r\n"
+            + "Bob | TRADING_POST | EnergyCrystal:POWER=8");
+        testEqual(4L, processItineraryFile(input.toString(), output.toString()), "Itinerary mode should skip blank lines.");
+        testEqual("Alice | FINAL CARGO: EnergyCrystal:POWER=20\nBob | FINAL CARGO: InertRock:COLOR=red\n",
+            Files.readString(output), "Itinerary mode should write one final cargo line per scavenger, in order of appearance.");
+    });
+}
+
+// Part 3 - Exact outcome distributions
+// Follows both branches of every coin flip with half the probability each.
+
+/**
+ * Returns the distribution of an artifact held for certain.
+ * Examples:
+ *     - Given: pointDistribution(new EnergyCrystal(5))
+ *       Expect: {EnergyCrystal(5)=1.0}
+ * @param artifact the artifact
+ * @return the distribution with one entry of probability 1
+ */
+LinkedHashMap<Artifact, Double> pointDistribution(Artifact artifact) {
+    LinkedHashMap<Artifact, Double> distribution = new LinkedHashMap<Artifact, Double>();
+    distribution.put(artifact, 1.0);
+    return distribution;
+}
+
+/**
+ * Adds a branch to a distribution, merging it with a branch that holds the same artifact.
+ * @param distribution the distribution
+ * @param artifact the artifact held on the branch
+ * @param probability the probability of the branch
+ */
+void addBranch(LinkedHashMap<Artifact, Double> distribution, Artifact artifact, double probability) {
+    distribution.merge(artifact, probability, Double::sum);
+}
+
+/**
+ * Returns the distribution of the Rational Scavenger's cargo after an encounter of a log entry, like encounter does
+ * for one artifact. Only a trade of two InertRocks of different colors branches, on the Risk Taker's coin flip.
+ * Examples:
+ *     - Given: encounterDistribution(pointDistribution(InertRock("red")), "TRADING_POST", InertRock("blue"))
+ *       Expect: {InertRock("red")=0.5, InertRock("blue")=0.5}
+ *     - Given: encounterDistribution(pointDistribution(EnergyCrystal(5)), "ASTEROID", EnergyCrystal(10))
+ *       Expect: {EnergyCrystal(10)=1.0}
+ * @param before the distribution of the owned artifact
+ * @param encounterType "ASTEROID" or "TRADING_POST"
+ * @param other the artifact found, or offered by the Risk Taker Scavenger
+ * @return the distribution after the encounter
+ */
+LinkedHashMap<Artifact, Double> encounterDistribution(LinkedHashMap<Artifact, Double> before, String encounterType, Artifact other) {
+    LinkedHashMap<Artifact, Double> after = new LinkedHashMap<Artifact, Double>();
+    for (var branch : before.entrySet()) {
+        Artifact owned = branch.getKey();
+        double probability = branch.getValue();
+        if (Equals(encounterType, "ASTEROID")) {
+            if (isValuable(analyseByTable(RATIONAL_TABLE, owned, other))) {
+                addBranch(after, other, probability);
+            } else {
+                addBranch(after, owned, probability);
+            }
+        } else if (!isDeterministic(RISK_TAKER_PROTOCOL, other, owned)) {
+            addBranch(after, owned, probability / 2);
+            addBranch(after, other, probability / 2);
+        } else if (isValuable(analyseByTable(RISK_TAKER_TABLE, other, owned))) {
+            addBranch(after, other, probability);
+        } else {
+            addBranch(after, owned, probability);
+        }
+    }
+    return after;
+}
+
+/**
+ * Returns the distribution of a scavenger's cargo after exploring an asteroid, like exploreAsteroid does for one
+ * artifact: a coin flip swaps or ignores, and a HAZARDOUS artifact swaps or leaves a dull grey InertRock.
+ * Examples:
+ *     - Given: exploreDistribution(pointDistribution(EnergyCrystal(5)), RATIONAL_PROTOCOL, StarChart("Mars", 2, 3, 4))
+ *       Expect: {StarChart("Mars", 2, 3, 4)=0.5, InertRock("dull grey")=0.5}
+ *     - Given: exploreDistribution(pointDistribution(InertRock("red")), RISK_TAKER_PROTOCOL, InertRock("blue"))
+ *       Expect: {InertRock("blue")=0.5, InertRock("red")=0.5}
+ * @param before the distribution of the scavenger's cargo
+ * @param protocol RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @param found the artifact found on the asteroid
+ * @return the distribution after the exploration
+ */
+LinkedHashMap<Artifact, Double> exploreDistribution(LinkedHashMap<Artifact, Double> before, int protocol, Artifact found) {
+    LinkedHashMap<Artifact, Double> after = new LinkedHashMap<Artifact, Double>();
+    for (var branch : before.entrySet()) {
+        Artifact owned = branch.getKey();
+        double probability = branch.getValue();
+        if (!isDeterministic(protocol, owned, found)) {
+            addBranch(after, found, probability / 2);
+            addBranch(after, owned, probability / 2);
+            continue;
+        }
+        Result result = analyseByTable(protocolTable(protocol), owned, found);
+        if (isValuable(result)) {
+            addBranch(after, found, probability);
+        } else if (isHazardous(result)) {
+            addBranch(after, found, probability / 2);
+            addBranch(after, new InertRock(DULL_GREY), probability / 2);
+        } else {
+            addBranch(after, owned, probability);
+        }
+    }
+    return after;
+}
+
+/**
+ * Returns the exact distribution of a scavenger's cargo after exploring a sequence of asteroids.
+ * Examples:
+ *     - Given: explorationDistribution(RATIONAL_PROTOCOL, EnergyCrystal(5), [EnergyCrystal(10), StarChart("Mars", 2, 3, 4)])
+ *       Expect: {StarChart("Mars", 2, 3, 4)=0.5, InertRock("dull grey")=0.5}
+ * @param protocol RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @param cargo the scavenger's cargo before the first asteroid
+ * @param found the artifacts found on the asteroids, in order
+ * @return the distribution of the final cargo
+ */
+LinkedHashMap<Artifact, Double> explorationDistribution(int protocol, Artifact cargo, Artifact[] found) {
+    LinkedHashMap<Artifact, Double> distribution = pointDistribution(cargo);
+    for (Artifact artifact : found) {
+        distribution = exploreDistribution(distribution, protocol, artifact);
+    }
+    return distribution;
+}
+
+/**
+ * Formats a distribution, most probable artifact first.
+ * Examples:
+ *     - Given: formatDistribution({InertRock("red")=0.25, EnergyCrystal(10)=0.75})
+ *       Expect: "EnergyCrystal:POWER=10 (0.75), InertRock:COLOR=red (0.25)"
+ * @param distribution the distribution
+ * @return the artifacts with their probabilities in brackets, separated by commas
+ */
+String formatDistribution(LinkedHashMap<Artifact, Double> distribution) {
+    ArrayList<Artifact> artifacts = new ArrayList<Artifact>(distribution.keySet());
+    artifacts.sort((a, b) -> Double.compare(distribution.get(b), distribution.get(a)));
+    StringBuilder text = new StringBuilder();
+    for (Artifact artifact : artifacts) {
+        if (text.length() > 0) {
+            text.append(", ");
+        }
+        text.append(describeArtifact(artifact)).append(" (").append(distribution.get(artifact)).append(")");
+    }
+    return text.toString();
+}
+
+/**
+ * Computes the exact distribution of the final cargo of every itinerary of a log file (see processItineraryFile),
+ * and writes one "[name] | FINAL CARGO: [distribution]" line per scavenger, formatted by formatDistribution.
+ * Examples:
+ *    - Given: an input file with the lines
+ *             "Alice | TRADING_POST | InertRock:COLOR=red | InertRock:COLOR=blue"
+ *             "Alice | ASTEROID | EnergyCrystal:POWER=20"
+ *      Expect: 2, and an output file with the line
+ *             "Alice | FINAL CARGO: InertRock:COLOR=red (0.5), InertRock:COLOR=blue (0.5)"
+ * @param inputPath path of the itinerary log to read
+ * @param outputPath path of the file receiving the distributions (created or truncated)
+ * @return the number of encounters replayed
+ * @throws IOException if the input cannot be read or the output cannot be written
+ * @throws IllegalArgumentException if a line is malformed
+ */
+long exactItineraryFile(String inputPath, String outputPath) throws IOException {
+    Itineraries itineraries = makeItineraries();
+    ArrayList<LinkedHashMap<Artifact, Double>> distributions = new ArrayList<LinkedHashMap<Artifact, Double>>();
+    long entries;
+    try (FileChannel in = FileChannel.open(Path.of(inputPath), StandardOpenOption.READ)) {
+        entries = forEachLogLine(in, LOG_MAP_WINDOW, (log, start, end) -> {
+            if (skipLeadingSpaces(log, start, end) == end) {
+                return 0;
+            }
+            ItineraryEntry entry = scanItineraryEntry(itineraries, log, start, end);
+            if (entry.scavenger() == distributions.size()) {
+                distributions.add(pointDistribution(itineraries.cargo().get(entry.scavenger())));
+            }
+            distributions.set(entry.scavenger(),
+                encounterDistribution(distributions.get(entry.scavenger()), entry.encounterType(), entry.other()));
+            return 1;
+        });
+    }
+    try (FileChannel out = FileChannel.open(Path.of(outputPath), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer output = ByteBuffer.allocateDirect(CARGO_OUTPUT_BUFFER);
+        for (int i = 0; i < itineraries.names().size(); i++) {
+            writeCargoLine(out, output, itineraries.names().get(i) + " | FINAL CARGO: " + formatDistribution(distributions.get(i)));
+        }
+        flushCargoOutput(out, output);
+    }
+    return entries;
+}
+
+void testExactDistributions() {
+    SplittableRandom callerRandom = randomSource.get();
+    try {
+        testEqual(pointDistribution(new EnergyCrystal(10)),
+            encounterDistribution(pointDistribution(new EnergyCrystal(5)), "ASTEROID", new EnergyCrystal(10)),
+            "An encounter without a coin flip should not branch.");
+        LinkedHashMap<Artifact, Double> flip = encounterDistribution(pointDistribution(new InertRock("red")), "TRADING_POST", new InertRock("blue"));
+        testEqual(0.5, flip.get(new InertRock("blue")), "A trade of rocks of different colors should happen half of the time.");
+        testEqual(0.75, encounterDistribution(flip, "TRADING_POST", new InertRock("blue")).get(new InertRock("blue")),
+            "Branches holding the same artifact should be merged.");
+        testEqual(2, encounterDistribution(encounterDistribution(flip, "TRADING_POST", new InertRock("red")), "TRADING_POST", new InertRock("blue")).size(),
+            "Merged branches should keep the distribution small.");
+
+        LinkedHashMap<Artifact, Double> hazard = explorationDistribution(RATIONAL_PROTOCOL, new EnergyCrystal(5),
+            new Artifact[] {new EnergyCrystal(10), new StarChart("Mars", 2, 3, 4)});
+        testEqual(0.5, hazard.get(new InertRock(DULL_GREY)), "Shields should fail half of the time.");
+        testEqual(0.5, hazard.get(new StarChart("Mars", 2, 3, 4)), "Shields should hold half of the time.");
+        testEqual("StarChart:Mars;RISK=2;SEC=3;SYS=4 (0.5), InertRock:COLOR=dull grey (0.5)", formatDistribution(hazard),
+            "Distributions should list the most probable artifact first.");
+
+        // the exact distribution should agree with sampled explorations
+        SplittableRandom random = new SplittableRandom(18);
+        for (int protocol = 0; protocol < 2; protocol++) {
+            Artifact cargo = new InertRock("red");
+            Artifact[] found = new Artifact[12];
+            for (int i = 0; i < found.length; i++) {
+                found[i] = randomArtifact(random);
+            }
+            LinkedHashMap<Artifact, Double> exact = explorationDistribution(protocol, cargo, found);
+            double total = 0;
+            for (double probability : exact.values()) {
+                total = total + probability;
+            }
+            testEqual(true, Math.abs(total - 1) < 1e-12, "Probabilities should sum to 1.");
+            seedRandomSource(18);
+            int samples = 20_000;
+            HashMap<Artifact, Integer> counts = new HashMap<Artifact, Integer>();
+            for (int n = 0; n < samples; n++) {
+                Scavenger scavenger = makeScavenger("Sampled", protocolFunction(protocol), cargo);
+                for (Artifact artifact : found) {
+                    scavenger = exploreAsteroid(scavenger, artifact).first();
+                }
+                counts.merge(scavenger.cargo(), 1, Integer::sum);
+            }
+            for (var branch : exact.entrySet()) {
+                double sampled = counts.getOrDefault(branch.getKey(), 0) / (double) samples;
+                testEqual(true, Math.abs(sampled - branch.getValue()) < 0.02,
+                    "Sampling should agree with the exact probability of " + describeArtifact(branch.getKey()));
+            }
+            testEqual(exact.keySet(), counts.keySet(), "Sampling should find exactly the possible artifacts.");
+        }
+
+        withTemporaryFiles("Exact mode", files -> {
+            Path input = files.create("itineraries", ".log");
+            Path output = files.create("distributions", ".log");
+            Files.writeString(input,
+                "Alice | TRADING_POST | InertRock:COLOR=red | InertRock:COLOR=blue\n"
+                + "Bob | ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10\n"
+                + "Alice | ASTEROID | EnergyCrystal:POWER=20\n");
+            testEqual(3L, exactItineraryFile(input.toString(), output.toString()), "Exact mode should replay every entry.");
+            testEqual("Alice | FINAL CARGO: InertRock:COLOR=red (0.5), InertRock:COLOR=blue (0.5)\n"
+                + "Bob | FINAL CARGO: EnergyCrystal:POWER=10 (1.0)\n",
+                Files.readString(output), "Exact mode should write one distribution per scavenger.");
+        });
+    } finally {
+        useRandomSource(callerRandom);
+    }
+}
+
+// Part 3 - Monte Carlo runner
+// Runs independent trials on a ForkJoinPool until every outcome's 95% confidence interval is narrow enough.
+
+/** Number of tasks per round of a Monte Carlo run (enough to keep 64 cores busy). */
+static final int MONTE_CARLO_TASKS = 64;
+
+/** Number of trials per task. */
+static final int MONTE_CARLO_BATCH = 1024;
+
+/** The z-score of a 95% confidence interval. */
+static final double CONFIDENCE_Z = 1.96;
+
+/**
+ * The result of a Monte Carlo run.
+ * Examples:
+ * - MonteCarloReport(65536, true, 0.2, {EnergyCrystal(10)=49152, InertRock("dull grey")=16384})
+ * @param trials the number of trials run
+ * @param converged true if the run stopped because every confidence interval reached the target precision
+ * @param seconds the wall-clock time of the run
+ * @param counts the number of trials ending with each outcome, most frequent first
+ */
+record MonteCarloReport(long trials, boolean converged, double seconds, LinkedHashMap<Artifact, Long> counts) {}
+
+/**
+ * A confidence interval of a probability.
+ * @param low the lower bound
+ * @param high the upper bound
+ */
+record ConfidenceInterval(double low, double high) {}
+
+/**
+ * Runs trials of a scenario until every outcome's probability is known to within the given precision
+ * (the half-width of its 95% confidence interval), or until maxTrials trials have run.
+ * Examples:
+ *     - Given: runMonteCarlo(explorationScenario(RATIONAL_PROTOCOL, EnergyCrystal(5), [StarChart("Mars", 2, 3, 4)]),
+ *              10_000_000, 0.005, 4)
+ *       Expect: a converged report with about half of the trials ending with each of StarChart("Mars", 2, 3, 4)
+ *               and InertRock("dull grey")
+ * @param scenario runs one trial, drawing from the random source of the current thread, and returns its outcome
+ * @param maxTrials the number of trials after which the run stops (rounded up to whole rounds)
+ * @param precision the target half-width of the confidence intervals
+ * @param threads the number of worker threads
+ * @return the report of the run
+ */
+MonteCarloReport runMonteCarlo(Supplier<Artifact> scenario, long maxTrials, double precision, int threads) {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    ConcurrentHashMap<Artifact, LongAdder> counts = new ConcurrentHashMap<Artifact, LongAdder>();
+    SplittableRandom root = randomSource.get();
+    long start = System.nanoTime();
+    long trials = 0;
+    boolean converged = false;
+    try {
+        while (!converged && trials < maxTrials) {
+            ArrayList<ForkJoinTask<Long>> round = new ArrayList<ForkJoinTask<Long>>();
+            for (int task = 0; task < MONTE_CARLO_TASKS; task++) {
+                SplittableRandom random = root.split();
+                round.add(pool.submit(() -> runTrials(scenario, random, MONTE_CARLO_BATCH, counts)));
+            }
+            for (ForkJoinTask<Long> task : round) {
+                trials = trials + task.join();
+            }
+            converged = true;
+            for (LongAdder count : counts.values()) {
+                ConfidenceInterval interval = wilsonInterval(count.sum(), trials);
+                converged = converged && (interval.high() - interval.low()) / 2 <= precision;
+            }
+        }
+    } finally {
+        pool.shutdownNow();
+    }
+    ArrayList<Artifact> outcomes = new ArrayList<Artifact>(counts.keySet());
+    outcomes.sort((a, b) -> Long.compare(counts.get(b).sum(), counts.get(a).sum()));
+    LinkedHashMap<Artifact, Long> sorted = new LinkedHashMap<Artifact, Long>();
+    for (Artifact outcome : outcomes) {
+        sorted.put(outcome, counts.get(outcome).sum());
+    }
+    return new MonteCarloReport(trials, converged, (System.nanoTime() - start) / 1e9, sorted);
+}
+
+/**
+ * Runs a batch of trials with the given generator, and adds their outcome counts to the shared counters.
+ * @param scenario runs one trial and returns its outcome
+ * @param random the generator of this batch
+ * @param trials the number of trials
+ * @param counts the shared counters, by outcome
+ * @return the number of trials run
+ */
+long runTrials(Supplier<Artifact> scenario, SplittableRandom random, int trials, ConcurrentHashMap<Artifact, LongAdder> counts) {
+    useRandomSource(random);
+    HashMap<Artifact, Long> local = new HashMap<Artifact, Long>();
+    for (int i = 0; i < trials; i++) {
+        local.merge(scenario.get(), 1L, Long::sum);
+    }
+    for (var outcome : local.entrySet()) {
+        counts.computeIfAbsent(outcome.getKey(), artifact -> new LongAdder()).add(outcome.getValue());
+    }
+    return trials;
+}
+
+/**
+ * Returns the Wilson score interval of a probability observed in some of the trials, at 95% confidence.
+ * Unlike the normal approximation, it stays inside [0, 1] and does not shrink to a point for rare outcomes.
+ * Examples:
+ *     - Given: wilsonInterval(50, 100)
+ *       Expect: about [0.404, 0.596]
+ * @param successes the number of trials with the outcome
+ * @param trials the number of trials
+ * @return the confidence interval
+ */
+ConfidenceInterval wilsonInterval(long successes, long trials) {
+    double p = (double) successes / trials;
+    double z2 = CONFIDENCE_Z * CONFIDENCE_Z;
+    double scale = 1 + z2 / trials;
+    double center = (p + z2 / (2.0 * trials)) / scale;
+    double halfWidth = CONFIDENCE_Z * Math.sqrt(p * (1 - p) / trials + z2 / (4.0 * trials * trials)) / scale;
+    return new ConfidenceInterval(center - halfWidth, center + halfWidth);
+}
+
+/**
+ * Returns a scenario in which a scavenger explores a sequence of asteroids; the outcome is the final cargo.
+ * @param protocol RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @param cargo the scavenger's cargo before the first asteroid
+ * @param found the artifacts found on the asteroids, in order
+ * @return the scenario
+ */
+Supplier<Artifact> explorationScenario(int protocol, Artifact cargo, Artifact[] found) {
+    BiFunction<Artifact, Artifact, Result> analysis = protocolFunction(protocol);
+    return () -> {
+        Scavenger scavenger = makeScavenger("Explorer", analysis, cargo);
+        for (Artifact artifact : found) {
+            scavenger = exploreAsteroid(scavenger, artifact).first();
+        }
+        return scavenger.cargo();
+    };
+}
+
+/**
+ * Returns a scenario in which a Rational and a Risk Taker Scavenger explore the same asteroids,
+ * and try to trade at a starport after each one; the outcome is the Rational Scavenger's final cargo.
+ * @param rationalCargo the Rational Scavenger's cargo before the first asteroid
+ * @param riskTakerCargo the Risk Taker Scavenger's cargo before the first asteroid
+ * @param found the artifacts found on the asteroids, in order
+ * @return the scenario
+ */
+Supplier<Artifact> tradingScenario(Artifact rationalCargo, Artifact riskTakerCargo, Artifact[] found) {
+    return () -> {
+        Scavenger rational = makeScavenger("Rational", this::rationalScavengerAnalysis, rationalCargo);
+        Scavenger riskTaker = makeScavenger("RiskTaker", this::riskTakerScavengerAnalysis, riskTakerCargo);
+        for (Artifact artifact : found) {
+            rational = exploreAsteroid(rational, artifact).first();
+            riskTaker = exploreAsteroid(riskTaker, artifact).first();
+            Pair<Scavenger, Scavenger> traded = tradeAtStarport(rational, riskTaker);
+            rational = traded.first();
+            riskTaker = traded.second();
+        }
+        return rational.cargo();
+    };
+}
+
+/**
+ * Formats a Monte Carlo report: the run, then one line per outcome with its estimated probability and confidence interval.
+ * @param report the report
+ * @return the lines of the report
+ */
+String formatMonteCarloReport(MonteCarloReport report) {
+    StringBuilder text = new StringBuilder(String.format("%d trials in %.2f s (%.0f trials/s), %s", report.trials(), report.seconds(),
+        report.trials() / report.seconds(), report.converged() ? "converged" : "stopped at the trial limit"));
+    for (var outcome : report.counts().entrySet()) {
+        ConfidenceInterval interval = wilsonInterval(outcome.getValue(), report.trials());
+        text.append(String.format("%n%s: %.4f [%.4f, %.4f]", describeArtifact(outcome.getKey()),
+            (double) outcome.getValue() / report.trials(), interval.low(), interval.high()));
+    }
+    return text.toString();
+}
+
+void testMonteCarlo() {
+    SplittableRandom callerRandom = randomSource.get();
+    try {
+        ConfidenceInterval interval = wilsonInterval(50, 100);
+        testEqual(true, Math.abs(interval.low() - 0.4038) < 1e-3 && Math.abs(interval.high() - 0.5962) < 1e-3,
+            "The Wilson interval of 50 in 100 should be about [0.404, 0.596].");
+        testEqual(true, wilsonInterval(0, 100).high() > 0, "A rare outcome should keep a non-empty interval.");
+
+        SplittableRandom random = new SplittableRandom(19);
+        Artifact[] found = new Artifact[10];
+        for (int i = 0; i < found.length; i++) {
+            found[i] = randomArtifact(random);
+        }
+        Artifact cargo = new InertRock("red");
+        seedRandomSource(19);
+        MonteCarloReport report = runMonteCarlo(explorationScenario(RISK_TAKER_PROTOCOL, cargo, found), 1 << 20, 0.01, 2);
+        testEqual(true, report.converged(), "A small scenario should reach the target precision.");
+        testEqual(true, report.trials() < 1 << 20, "A converged run should stop early.");
+        testEqual(0L, report.trials() % (MONTE_CARLO_TASKS * MONTE_CARLO_BATCH), "Trials should run in whole rounds.");
+        LinkedHashMap<Artifact, Double> exact = explorationDistribution(RISK_TAKER_PROTOCOL, cargo, found);
+        testEqual(exact.keySet(), report.counts().keySet(), "Sampling should find exactly the possible outcomes.");
+        for (var outcome : report.counts().entrySet()) {
+            ConfidenceInterval estimate = wilsonInterval(outcome.getValue(), report.trials());
+            double probability = exact.get(outcome.getKey());
+            testEqual(true, estimate.low() - 0.01 <= probability && probability <= estimate.high() + 0.01,
+                "The exact probability of " + describeArtifact(outcome.getKey()) + " should be in its confidence interval.");
+        }
+
+        Supplier<Artifact> trading = tradingScenario(new StarChart("A", 5, 1, 2), new InertRock("red"), found);
+        seedRandomSource(19);
+        MonteCarloReport oneThread = runMonteCarlo(trading, 1, 0.01, 1);
+        seedRandomSource(19);
+        MonteCarloReport threeThreads = runMonteCarlo(trading, 1, 0.01, 3);
+        testEqual(oneThread.counts(), threeThreads.counts(), "A seeded run should not depend on the thread count.");
+        testEqual(false, oneThread.converged() && oneThread.counts().size() > 1, "One round cannot reach the target precision.");
+    } finally {
+        useRandomSource(callerRandom);
+    }
+}
+
+// Part 3 - Synthetic log generator
+// Writes valid log entries in batches; a seed always gives the same bytes, whatever the number of threads.
+
+/** Number of lines generated by one task. */
+static final int GENERATOR_BATCH = 8192;
+
+/** Number of recent lines of a batch that a repeated line may copy. */
+static final int GENERATOR_RECENT = 64;
+
+/** Initial capacity of the buffer of a batch (about 100 bytes per line; a buffer grows if needed). */
+static final int GENERATOR_BUFFER = GENERATOR_BATCH * 100;
+
+/**
+ * The distributions of a synthetic log.
+ * Examples:
+ * - GeneratorSpec(70, 40, 40, 10, 1000, 1.0, 8, 0, 42): 70% asteroids, artifacts 40% StarCharts, 40% EnergyCrystals
+ *   and 20% InertRocks, uniform risks in [0, 10) and powers in [0, 1000), 8 destinations and 8 colors, no repeats
+ * @param asteroidPercent the percentage of ASTEROID lines; the others are TRADING_POST lines
+ * @param starChartPercent the percentage of StarCharts among the artifacts
+ * @param energyCrystalPercent the percentage of EnergyCrystals among the artifacts; the others are InertRocks
+ * @param maxRisk the bound of the StarChart risks, which are in [0, maxRisk)
+ * @param maxPower the bound of the EnergyCrystal powers, which are in [0, maxPower)
+ * @param skew the shape of the risks and powers: bound * u^skew for a uniform u in [0, 1), so 1 is uniform
+ *             and a larger skew favours small values
+ * @param vocabulary the number of distinct destinations, and of distinct colors
+ * @param repeatPercent the percentage of lines that repeat a recent line
+ * @param seed the seed of the whole log
+ */
+record GeneratorSpec(int asteroidPercent, int starChartPercent, int energyCrystalPercent, int maxRisk, int maxPower,
+                     double skew, int vocabulary, int repeatPercent, long seed) {}
+
+/**
+ * Reads a GeneratorSpec from "key=value" options, starting from the defaults
+ * GeneratorSpec(70, 40, 40, 10, 1000, 1.0, 8, 0, 42).
+ * Keys: asteroids, starcharts, crystals, risk, power, skew, vocabulary, repeat, seed (in GeneratorSpec order).
+ * Examples:
+ *     - Given: parseGeneratorSpec(["asteroids=100", "repeat=50"])
+ *       Expect: GeneratorSpec(100, 40, 40, 10, 1000, 1.0, 8, 50, 42)
+ * @param options the options
+ * @return the spec
+ * @throws IllegalArgumentException if an option is unknown or malformed, or a value is out of range
+ */
+GeneratorSpec parseGeneratorSpec(String[] options) {
+    int asteroids = 70;
+    int starCharts = 40;
+    int crystals = 40;
+    int risk = 10;
+    int power = 1000;
+    double skew = 1.0;
+    int vocabulary = 8;
+    int repeat = 0;
+    long seed = 42;
+    for (String option : options) {
+        int equals = option.indexOf('=');
+        if (equals < 0) {
+            throw new IllegalArgumentException("Expected key=value: " + option);
+        }
+        String value = option.substring(equals + 1);
+        switch (option.substring(0, equals)) {
+            case "asteroids" -> asteroids = Integer.parseInt(value);
+            case "starcharts" -> starCharts = Integer.parseInt(value);
+            case "crystals" -> crystals = Integer.parseInt(value);
+            case "risk" -> risk = Integer.parseInt(value);
+            case "power" -> power = Integer.parseInt(value);
+            case "skew" -> skew = Double.parseDouble(value);
+            case "vocabulary" -> vocabulary = Integer.parseInt(value);
+            case "repeat" -> repeat = Integer.parseInt(value);
+            case "seed" -> seed = Long.parseLong(value);
+            default -> throw new IllegalArgumentException("Unknown generator option: " + option);
+        }
+    }
+    if (asteroids < 0 || asteroids > 100 || starCharts < 0 || crystals < 0 || starCharts + crystals > 100
+            || repeat < 0 || repeat > 100) {
+        throw new IllegalArgumentException("Generator percentages should be in [0, 100]");
+    }
+    if (risk < 1 || power < 1 || vocabulary < 1 || !(skew > 0)) {
+        throw new IllegalArgumentException("Generator bounds, vocabulary and skew should be positive");
+    }
+    return new GeneratorSpec(asteroids, starCharts, crystals, risk, power, skew, vocabulary, repeat, seed);
+}
+
+/**
+ * Makes the names of a generator vocabulary.
+ * Examples:
+ *     - Given: generatorNames("Star", 3)
+ *       Expect: ["Star0", "Star1", "Star2"]
+ * @param prefix the prefix of every name
+ * @param count the number of names
+ * @return the names
+ */
+String[] generatorNames(String prefix, int count) {
+    String[] names = new String[count];
+    for (int i = 0; i < count; i++) {
+        names[i] = prefix + i;
+    }
+    return names;
+}
+
+/**
+ * Draws a value in [0, bound) of the shape given by skew (see GeneratorSpec).
+ * Examples:
+ *     - Given: skewedValue(random, 1000, 1.0)
+ *       Expect: a uniform value in [0, 1000)
+ * @param random the random source
+ * @param bound the bound of the value
+ * @param skew the shape of the distribution
+ * @return the value
+ */
+int skewedValue(SplittableRandom random, int bound, double skew) {
+    if (skew == 1.0) {
+        return random.nextInt(bound);
+    }
+    return Math.min((int) (bound * Math.pow(random.nextDouble(), skew)), bound - 1);
+}
+
+/**
+ * Generates an artifact from the distributions of a spec.
+ * @param spec the distributions
+ * @param destinations the destination vocabulary
+ * @param colors the color vocabulary
+ * @param random the random source
+ * @return the artifact
+ */
+Artifact generateArtifact(GeneratorSpec spec, String[] destinations, String[] colors, SplittableRandom random) {
+    int kind = random.nextInt(100);
+    if (kind < spec.starChartPercent()) {
+        return new StarChart(destinations[random.nextInt(destinations.length)], skewedValue(random, spec.maxRisk(), spec.skew()),
+            random.nextInt(100), random.nextInt(100));
+    } else if (kind < spec.starChartPercent() + spec.energyCrystalPercent()) {
+        return new EnergyCrystal(skewedValue(random, spec.maxPower(), spec.skew()));
+    } else {
+        return new InertRock(colors[random.nextInt(colors.length)]);
+    }
+}
+
+/**
+ * Generates one batch of a synthetic log into a block, as UTF-8 lines.
+ * Examples:
+ *     - Given: generateBatch(parseGeneratorSpec([]), destinations, colors, 2, new SplittableRandom(1), block)
+ *       Expect: block holding two lines such as "ASTEROID | EnergyCrystal:POWER=120 | InertRock:COLOR=color3\n"
+ * @param spec the distributions
+ * @param destinations the destination vocabulary
+ * @param colors the color vocabulary
+ * @param lines the number of lines of the batch
+ * @param random the random source of the batch
+ * @param block the buffer receiving the lines, or a smaller one to replace
+ * @return the buffer holding the lines, ready to be written
+ */
+ByteBuffer generateBatch(GeneratorSpec spec, String[] destinations, String[] colors, int lines, SplittableRandom random,
+                         ByteBuffer block) {
+    block.clear();
+    byte[][] recent = new byte[GENERATOR_RECENT][];
+    int fresh = 0;
+    for (int i = 0; i < lines; i++) {
+        byte[] line;
+        if (fresh > 0 && random.nextInt(100) < spec.repeatPercent()) {
+            line = recent[random.nextInt(Math.min(fresh, GENERATOR_RECENT))];
+        } else {
+            String encounterType = "ASTEROID";
+            if (random.nextInt(100) >= spec.asteroidPercent()) {
+                encounterType = "TRADING_POST";
+            }
+            Artifact owned = generateArtifact(spec, destinations, colors, random);
+            Artifact other = generateArtifact(spec, destinations, colors, random);
+            line = (encounterType + " | " + describeArtifact(owned) + " | " + describeArtifact(other) + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+            recent[fresh % GENERATOR_RECENT] = line;
+            fresh++;
+        }
+        if (block.remaining() < line.length) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(block.capacity() * 2 + line.length);
+            larger.put(block.flip());
+            block = larger;
+        }
+        block.put(line);
+    }
+    return block.flip();
+}
+
+/**
+ * Writes a synthetic log of the given number of lines to a channel.
+ * Examples:
+ *     - Given: generateLog(parseGeneratorSpec(["seed=7"]), 1000000, 4, out)
+ *       Expect: about 60 million bytes written, the same bytes as with 1 thread
+ * @param spec the distributions and seed
+ * @param lines the number of lines
+ * @param threads the number of generating threads
+ * @param out the channel receiving the log
+ * @return the number of bytes written
+ * @throws IOException if the channel cannot be written
+ */
+long generateLog(GeneratorSpec spec, long lines, int threads, WritableByteChannel out) throws IOException {
+    String[] destinations = generatorNames("Star", spec.vocabulary());
+    String[] colors = generatorNames("color", spec.vocabulary());
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    ArrayBlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(2 * threads + 1);
+    for (int i = 0; i <= 2 * threads; i++) {
+        free.add(ByteBuffer.allocateDirect(GENERATOR_BUFFER));
+    }
+    try {
+        ArrayDeque<ForkJoinTask<ByteBuffer>> pending = new ArrayDeque<ForkJoinTask<ByteBuffer>>();
+        SplittableRandom root = new SplittableRandom(spec.seed());
+        long written = 0;
+        for (long start = 0; start < lines; start += GENERATOR_BATCH) {
+            int count = (int) Math.min(GENERATOR_BATCH, lines - start);
+            SplittableRandom random = root.split();
+            ByteBuffer block = free.remove();
+            pending.addLast(pool.submit(() -> generateBatch(spec, destinations, colors, count, random, block)));
+            if (pending.size() >= 2 * threads) {
+                written += writeGeneratedBlock(out, pending.removeFirst(), free);
+            }
+        }
+        while (!pending.isEmpty()) {
+            written += writeGeneratedBlock(out, pending.removeFirst(), free);
+        }
+        return written;
+    } finally {
+        pool.shutdownNow();
+    }
+}
+
+/**
+ * Waits for a batch task, writes its block to the channel and returns the block to the free blocks.
+ * @param out the channel receiving the log
+ * @param task the task generating the batch
+ * @param free the blocks available to new tasks
+ * @return the number of bytes written
+ * @throws IOException if the channel cannot be written
+ */
+long writeGeneratedBlock(WritableByteChannel out, ForkJoinTask<ByteBuffer> task, ArrayBlockingQueue<ByteBuffer> free) throws IOException {
+    ByteBuffer block;
+    try {
+        block = task.get();
+    } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for a generated batch", e);
+    } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        throw new IOException(e.getCause());
+    }
+    long length = block.remaining();
+    while (block.hasRemaining()) {
+        out.write(block);
+    }
+    free.add(block);
+    return length;
+}
+
+/**
+ * Writes a synthetic log to a file, or to a socket given as "socket:[port|socketPath]" (see encounterAddress).
+ * A file is gzipped if its name ends in ".gz". Whatever a socket sends back, such as the answers of an
+ * encounter server, is read and discarded, so the other side never blocks on a full socket.
+ * @param target the file or socket
+ * @param spec the distributions and seed
+ * @param lines the number of lines
+ * @param threads the number of generating threads
+ * @return the number of bytes written
+ * @throws IOException if the target cannot be opened or written
+ */
+long generateLogTo(String target, GeneratorSpec spec, long lines, int threads) throws IOException {
+    if (!target.startsWith("socket:")) {
+        try (WritableByteChannel out = openCargoOutput(target)) {
+            return generateLog(spec, lines, threads, out);
+        }
+    }
+    try (SocketChannel channel = SocketChannel.open(encounterAddress(target.substring(7)))) {
+        Thread drain = Thread.ofVirtual().start(() -> {
+            ByteBuffer sink = ByteBuffer.allocate(1 << 16);
+            try {
+                while (channel.read(sink) >= 0) {
+                    sink.clear();
+                }
+            } catch (IOException e) {
+                // the other side closed the connection
+            }
+        });
+        long written = generateLog(spec, lines, threads, channel);
+        channel.shutdownOutput();
+        try {
+            drain.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return written;
+    }
+}
+
+void testGenerateLog() {
+    withTemporaryFiles("The generator", files -> {
+        Path single = files.create("generated", ".log");
+        Path parallel = files.create("generated", ".log");
+        Path output = files.create("cargo", ".log");
+        GeneratorSpec spec = parseGeneratorSpec(new String[] {"seed=7", "repeat=30"});
+        long lines = 3 * GENERATOR_BATCH + 5;
+        long bytes = generateLogTo(single.toString(), spec, lines, 1);
+        testEqual(bytes, Files.size(single), "Every generated byte should be written.");
+        testEqual(bytes, generateLogTo(parallel.toString(), spec, lines, 3), "A seed should give the same length on any thread count.");
+        testEqual(-1L, Files.mismatch(single, parallel), "A seed should give the same bytes on any thread count.");
+        testEqual(lines, processLogFile(single.toString(), output.toString()), "Every generated line should be a valid log entry.");
+
+        GeneratorSpec rocks = parseGeneratorSpec(new String[] {"asteroids=100", "starcharts=0", "crystals=0", "vocabulary=1"});
+        generateLogTo(single.toString(), rocks, 100, 2);
+        String rock = "ASTEROID | InertRock:COLOR=color0 | InertRock:COLOR=color0\n";
+        testEqual(rock.repeat(100), Files.readString(single), "The type mix and vocabulary should be followed.");
+
+    });
+    testEqual(new GeneratorSpec(100, 40, 40, 10, 1000, 1.0, 8, 50, 42), parseGeneratorSpec(new String[] {"asteroids=100", "repeat=50"}),
+        "Unset options should keep their defaults.");
+    boolean rejected = false;
+    try {
+        parseGeneratorSpec(new String[] {"starcharts=60", "crystals=60"});
+    } catch (IllegalArgumentException e) {
+        rejected = true;
+    }
+    testEqual(true, rejected, "The artifact mix should not exceed 100%.");
+}
+
+// Part 3 - Single-pass artifact scanner
+// Reads artifacts and log entries directly from a region of any CharSequence.
+
+/**
+ * Finds the first occurrence of a character in s[from, end).
+ * Examples:
+ *     - Given: scanIndexOf('|', "ASTEROID | A | B", 0, 16)
+ *       Expect: 9
+ *     - Given: scanIndexOf(';', "ASTEROID | A | B", 0, 16)
+ *       Expect: -1
+ * @param c the character to find
+ * @param s the characters to search
+ * @param from index of the first character to check
+ * @param end index just past the last character to check
+ * @return the index of the first c in s[from, end), or -1 if there is none
+ */
+int scanIndexOf(char c, CharSequence s, int from, int end) {
+    for (int i = from; i < end; i++) {
+        if (s.charAt(i) == c) {
+            return i;
+        }
+    }
+    return -1;
+}
+
+/**
+ * Skips the whitespace at the start of s[start, end), the same characters String.trim() removes.
+ * Examples:
+ *     - Given: skipLeadingSpaces("  ab ", 0, 5)
+ *       Expect: 2
+ * @param s the characters to scan
+ * @param start index of the first character
+ * @param end index just past the last character
+ * @return the index of the first non-whitespace character, or end if there is none
+ */
+int skipLeadingSpaces(CharSequence s, int start, int end) {
+    while (start < end && s.charAt(start) <= ' ') {
+        start = start + 1;
+    }
+    return start;
+}
+
+/**
+ * Skips the whitespace at the end of s[start, end), the same characters String.trim() removes.
+ * Examples:
+ *     - Given: skipTrailingSpaces("  ab ", 2, 5)
+ *       Expect: 4
+ * @param s the characters to scan
+ * @param start index of the first character
+ * @param end index just past the last character
+ * @return the index just past the last non-whitespace character, or start if there is none
+ */
+int skipTrailingSpaces(CharSequence s, int start, int end) {
+    while (end > start && s.charAt(end - 1) <= ' ') {
+        end = end - 1;
+    }
+    return end;
+}
+
+/**
+ * Checks whether s[at, end) starts with the expected text.
+ * Examples:
+ *     - Given: scanMatches("RISK=", "A;RISK=3", 2, 8)
+ *       Expect: true
+ *     - Given: scanMatches("SEC=", "A;RISK=3", 2, 8)
+ *       Expect: false
+ * @param expected the text to look for
+ * @param s the characters to check
+ * @param at index where the expected text should start
+ * @param end index just past the last character that may be read
+ * @return true if s[at, end) starts with expected
+ */
+boolean scanMatches(String expected, CharSequence s, int at, int end) {
+    if (at < 0 || end - at < expected.length()) {
+        return false;
+    }
+    for (int i = 0; i < expected.length(); i++) {
+        if (s.charAt(at + i) != expected.charAt(i)) {
+            return false;
+        }
+    }
+    return true;
+}
+
+/**
+ * Parses the decimal int in s[start, end), with an optional leading sign, without creating a String.
+ * Examples:
+ *     - Given: scanInt("RISK=-42", 5, 8)
+ *       Expect: -42
+ *     - Given: scanInt("POWER=900", 6, 9)
+ *       Expect: 900
+ * @param s the characters to parse
+ * @param start index of the first character of the number
+ * @param end index just past the last digit
+ * @return the parsed int
+ * @throws IllegalArgumentException if the region is not a number or does not fit in an int
+ */
+int scanInt(CharSequence s, int start, int end) {
+    boolean negative = start < end && s.charAt(start) == '-';
+    int i = start;
+    if (start < end && (negative || s.charAt(start) == '+')) {
+        i = start + 1;
+    }
+    if (i >= end) {
+        throw new IllegalArgumentException("Missing number in: " + regionText(s, start, Math.max(start, end)));
+    }
+    long value = 0;
+    for (; i < end; i++) {
+        int digit = s.charAt(i) - '0';
+        if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Malformed number: " + regionText(s, start, end));
+        }
+        value = value * 10 + digit;
+    }
+    if (negative) {
+        value = -value;
+    }
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Malformed number: " + regionText(s, start, end));
+    }
+    return (int) value;
+}
+
+/**
+ * Checks that the key is found at the given index and returns the index just past it.
+ * Examples:
+ *     - Given: expectKey(";RISK=", "A;RISK=3", 1, 8)
+ *       Expect: 7
+ * @param key the text that must be found
+ * @param s the characters to check
+ * @param at index where the key should start (-1 if the previous field was not terminated)
+ * @param end index just past the last character of the artifact
+ * @return the index just past the key
+ * @throws IllegalArgumentException if the key is not found at that index
+ */
+int expectKey(String key, CharSequence s, int at, int end) {
+    if (!scanMatches(key, s, at, end)) {
+        throw new IllegalArgumentException("Expected '" + key + "' in artifact: " + s);
+    }
+    return at + key.length();
+}
+
+/**
+ * Parses the artifact described in s[start, end) in a single pass; surrounding whitespace is ignored.
+ * The accepted formats are the ones produced by describeArtifact:
+ * - StarChart:destination;RISK=risk;SEC=sector;SYS=system
+ * - EnergyCrystal:POWER=power
+ * - InertRock:COLOR=color
+ * Examples:
+ *    - Given: scanArtifact("ASTEROID | EnergyCrystal:POWER=500 | InertRock:COLOR=quartz", 10, 35)
+ *      Expect: new EnergyCrystal(500)
+ *    - Given: scanArtifact("StarChart:Proxima Centauri;RISK=3;SEC=7;SYS=42", 0, 46)
+ *      Expect: new StarChart("Proxima Centauri", 3, 7, 42)
+ * @param s the characters holding the artifact
+ * @param start index of the first character of the artifact
+ * @param end index just past the last character of the artifact
+ * @return the parsed Artifact
+ * @throws IllegalArgumentException if the region holds an unknown or malformed artifact
+ */
+Artifact scanArtifact(CharSequence s, int start, int end) {
+    start = skipLeadingSpaces(s, start, end);
+    end = skipTrailingSpaces(s, start, end);
+    if (scanMatches("StarChart:", s, start, end)) {
+        return scanStarChart(s, start + 10, end);
+    }
+    if (scanMatches("EnergyCrystal:POWER=", s, start, end)) {
+        return new EnergyCrystal(scanInt(s, start + 20, end));
+    }
+    if (scanMatches("InertRock:COLOR=", s, start, end)) {
+        return new InertRock(internRegion(artifactSymbols.get(), s, start + 16, end));
+    }
+    throw new IllegalArgumentException("Unknown artifact format: " + regionText(s, start, end));
+}
+
+/**
+ * Parses the fields of a StarChart from s[start, end), which follows the "StarChart:" prefix.
+ * Examples:
+ *    - Given: scanStarChart("StarChart:A;RISK=3;SEC=7;SYS=42", 10, 31)
+ *      Expect: new StarChart("A", 3, 7, 42)
+ * @param s the characters holding the artifact
+ * @param start index of the first character of the destination
+ * @param end index just past the last character of the artifact
+ * @return the parsed StarChart
+ * @throws IllegalArgumentException if a field is missing or malformed
+ */
+StarChart scanStarChart(CharSequence s, int start, int end) {
+    int destEnd = scanIndexOf(';', s, start, end);
+    int riskStart = expectKey(";RISK=", s, destEnd, end);
+    int riskEnd = scanIndexOf(';', s, riskStart, end);
+    int sectorStart = expectKey(";SEC=", s, riskEnd, end);
+    int sectorEnd = scanIndexOf(';', s, sectorStart, end);
+    int systemStart = expectKey(";SYS=", s, sectorEnd, end);
+    return new StarChart(regionText(s, start, destEnd),
+        scanInt(s, riskStart, riskEnd),
+        scanInt(s, sectorStart, sectorEnd),
+        scanInt(s, systemStart, end));
+}
+
+/**
+ * Parses and simulates the log entry in log[start, end) in a single pass.
+ * The entry has the form "ASTEROID | [ownedArtifact] | [foundArtifact]"
+ * or "TRADING_POST | [ownedArtifact] | [otherScavengersArtifact]".
+ * Examples:
+ *     - Given: scanRationalScavengerLog("ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10", 0, 57)
+ *       Expect: EnergyCrystal(10)
+ * @param log the characters holding the log entry
+ * @param start index of the first character of the entry
+ * @param end index just past the last character of the entry
+ * @return Artifact the Rational Scavenger ends up with
+ * @throws IllegalArgumentException if the entry or one of its artifacts is malformed
+ */
+Artifact scanRationalScavengerLog(CharSequence log, int start, int end) {
+    long sampleStart = latencySampleStart(metrics.parseLatency());
+    LogEntry entry = scanLogEntry(log, start, end);
+    Artifact result = encounter(entry.encounterType(), entry.owned(), entry.other());
+    recordLatency(metrics.parseLatency(), sampleStart);
+    return result;
+}
+
+/**
+ * Parses the log entry in log[start, end) in a single pass, without simulating it.
+ * Examples:
+ *     - Given: scanLogEntry("TRADING_POST | InertRock:COLOR=green | EnergyCrystal:POWER=8", 0, 60)
+ *       Expect: LogEntry("TRADING_POST", InertRock(green), EnergyCrystal(8))
+ * @param log the characters holding the log entry
+ * @param start index of the first character of the entry
+ * @param end index just past the last character of the entry
+ * @return the encounter type and the two artifacts of the entry
+ * @throws IllegalArgumentException if the entry or one of its artifacts is malformed
+ */
+LogEntry scanLogEntry(CharSequence log, int start, int end) {
+    int firstBar = scanIndexOf('|', log, start, end);
+    int secondBar = -1;
+    if (firstBar >= 0) {
+        secondBar = scanIndexOf('|', log, firstBar + 1, end);
+    }
+    if (secondBar < 0) {
+        throw new IllegalArgumentException("Malformed log entry: " + regionText(log, start, end));
+    }
+    Artifact owned = scanArtifact(log, firstBar + 1, secondBar);
+    Artifact other = scanArtifact(log, secondBar + 1, end);
+
+    return new LogEntry(scanEncounterType(log, start, firstBar), owned, other);
+}
+
+/**
+ * Reads the encounter type in log[start, end): any type other than "ASTEROID" is a trade, as in encounter.
+ * Examples:
+ *     - Given: scanEncounterType("ASTEROID | ...", 0, 9)
+ *       Expect: "ASTEROID"
+ * @param log the characters holding the encounter type
+ * @param start index of the first character of the type
+ * @param end index just past the last character of the type
+ * @return "ASTEROID" or "TRADING_POST"
+ */
+String scanEncounterType(CharSequence log, int start, int end) {
+    int typeStart = skipLeadingSpaces(log, start, end);
+    int typeEnd = skipTrailingSpaces(log, typeStart, end);
+    if (typeEnd - typeStart == 8 && scanMatches("ASTEROID", log, typeStart, typeEnd)) {
+        return "ASTEROID";
+    }
+    return "TRADING_POST";
+}
+
+/**
+ * A read-only CharSequence view over the bytes of a (usually memory-mapped) buffer, one char per byte.
+ * The scanner finds the ASCII delimiters with charAt and decodes the UTF-8 strings with regionText.
+ * Examples:
+ *     - ByteSequence(ByteBuffer.wrap("InertRock:COLOR=red".getBytes()))
+ * @param bytes the buffer to view, from index 0 to its limit
+ */
+record ByteSequence(ByteBuffer bytes) implements CharSequence {
+    public int length() {
+        return bytes.limit();
+    }
+
+    public char charAt(int index) {
+        return (char) (bytes.get(index) & 0xFF);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return new ByteSequence(bytes.slice(start, end - start));
+    }
+
+    public String toString() {
+        return decode(0, length(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decodes the bytes in [start, end).
+     * @param start index of the first byte
+     * @param end index just past the last byte
+     * @param charset the encoding of the bytes
+     * @return the decoded string
+     */
+    String decode(int start, int end, Charset charset) {
+        byte[] selected = new byte[end - start];
+        bytes.get(start, selected);
+        return new String(selected, charset);
+    }
+}
+
+/**
+ * Returns the text of s[start, end): the characters of a String, or the UTF-8 decoding of the bytes of a ByteSequence.
+ * Examples:
+ *     - Given: regionText(ByteSequence of "InertRock:COLOR=rosé" in UTF-8, 16, 21)
+ *       Expect: "rosé"
+ * @param s the characters holding the text
+ * @param start index of the first character
+ * @param end index just past the last character
+ * @return the text
+ */
+String regionText(CharSequence s, int start, int end) {
+    if (s instanceof ByteSequence bytes) {
+        return bytes.decode(start, end, StandardCharsets.UTF_8);
+    }
+    return s.subSequence(start, end).toString();
+}
+
+void testScanArtifact() {
+    String[] samples = {
+        "StarChart:Proxima Centauri;RISK=3;SEC=7;SYS=42",
+        "StarChart:A;RISK=-5;SEC=0;SYS=-9",
+        "EnergyCrystal:POWER=900",
+        "EnergyCrystal:POWER=-1",
+        "InertRock:COLOR=obsidian",
+        "InertRock:COLOR=dull grey"
+    };
+    Artifact[] expected = {
+        new StarChart("Proxima Centauri", 3, 7, 42),
+        new StarChart("A", -5, 0, -9),
+        new EnergyCrystal(900),
+        new EnergyCrystal(-1),
+        new InertRock("obsidian"),
+        new InertRock("dull grey")
+    };
+    for (int i = 0; i < samples.length; i++) {
+        testEqual(expected[i], parseArtifact(samples[i]), "Scanner should read " + samples[i]);
+    }
+    String log = "ASTEROID | EnergyCrystal:POWER=500 | InertRock:COLOR=quartz";
+    testEqual(new EnergyCrystal(500), scanArtifact(log, 10, 35), "Scanner should read an artifact inside a larger line.");
+    testEqual(new InertRock("quartz"), scanArtifact(log, 36, Length(log)), "Scanner should read the last artifact of a line.");
+
+    ByteSequence bytes = new ByteSequence(ByteBuffer.wrap("  StarChart:Sol;RISK=1;SEC=2;SYS=3 ".getBytes(StandardCharsets.UTF_8)));
+    testEqual(new StarChart("Sol", 1, 2, 3), scanArtifact(bytes, 0, bytes.length()), "Scanner should read artifacts from bytes.");
+    ByteSequence utf8 = new ByteSequence(ByteBuffer.wrap("InertRock:COLOR=rosé".getBytes(StandardCharsets.UTF_8)));
+    testEqual(utf8.length(), utf8.toString().length(), "A ByteSequence should give one char per byte.");
+    testEqual(utf8.length() - 16, utf8.subSequence(16, utf8.length()).length(), "A subsequence should count bytes too.");
+    testEqual(new InertRock("rosé"), scanArtifact(utf8, 0, utf8.length()), "Scanner should decode the UTF-8 strings of bytes.");
+
+    String[] malformed = {"StarChart:A;RISK=x;SEC=1;SYS=2", "StarChart:A;SEC=1;SYS=2", "EnergyCrystal:POWER=", "Crystal:POWER=3"};
+    for (String bad : malformed) {
+        boolean rejected = false;
+        try {
+            parseArtifact(bad);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        testEqual(true, rejected, "Scanner should reject " + bad);
+    }
+}
+
+void testScanRationalScavengerLog() {
+    String[] logs = {
+        "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10",
+        "ASTEROID | StarChart:A;RISK=5;SEC=3;SYS=9 | EnergyCrystal:POWER=10",
+        "TRADING_POST | StarChart:A;RISK=9;SEC=4;SYS=5 | StarChart:C;RISK=5;SEC=4;SYS=6",
+        "TRADING_POST | InertRock:COLOR=green | EnergyCrystal:POWER=8"
+    };
+    Artifact[] expected = {
+        new EnergyCrystal(10),
+        new StarChart("A", 5, 3, 9),
+        new StarChart("C", 5, 4, 6),
+        new InertRock("green")
+    };
+    for (int i = 0; i < logs.length; i++) {
+        testEqual(expected[i], parseRationalScavengerLog(logs[i]), "Scanner should simulate " + logs[i]);
+    }
+    boolean rejected = false;
+    try {
+        parseRationalScavengerLog("ASTEROID | EnergyCrystal:POWER=5");
+    } catch (IllegalArgumentException e) {
+        rejected = true;
+    }
+    testEqual(true, rejected, "A log entry missing a '|' should be rejected.");
+}
+
+// Benchmarks
+
+/** Keeps the results of benchmarked operations reachable, so the JIT cannot skip the work. */
+Object benchmarkSink;
+
+/**
+ * The measurements of one benchmark.
+ * Examples:
+ * - BenchmarkResult("parseArtifact", 85.2, 96.0)
+ * @param name the name of the benchmarked operation
+ * @param nsPerOp the average time of one operation, in nanoseconds
+ * @param bytesPerOp the average number of bytes allocated by one operation
+ */
+record BenchmarkResult(String name, double nsPerOp, double bytesPerOp) {}
+
+/** Number of unmeasured passes over a benchmark, letting the JIT compile the operation before it is timed. */
+static final int BENCHMARK_WARMUP_ROUNDS = 3;
+
+/**
+ * Times an operation on the current thread, after BENCHMARK_WARMUP_ROUNDS unmeasured passes.
+ * The allocation is measured with the HotSpot per-thread allocation counter (-1 when it is unavailable).
+ * Examples:
+ *     - Given: runBenchmark("describeArtifact", 1000, i -> describeArtifact(new EnergyCrystal(i)))
+ *       Expect: BenchmarkResult("describeArtifact", [ns per call], [bytes per call])
+ * @param name the name reported for the operation
+ * @param iterations the number of measured operations
+ * @param operation the operation to run; it receives the iteration number
+ * @return the measured time and allocation per operation
+ */
+BenchmarkResult runBenchmark(String name, int iterations, IntFunction<Object> operation) {
+    for (int round = 0; round < BENCHMARK_WARMUP_ROUNDS; round++) {
+        for (int i = 0; i < iterations; i++) {
+            benchmarkSink = operation.apply(i);
+        }
+    }
+    long threadId = Thread.currentThread().threadId();
+    long bytesBefore = allocatedBytes(threadId);
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+        benchmarkSink = operation.apply(i);
+    }
+    long elapsed = System.nanoTime() - start;
+    long bytesAfter = allocatedBytes(threadId);
+    double bytesPerOp = -1;
+    if (bytesBefore >= 0 && bytesAfter >= 0) {
+        bytesPerOp = (double) (bytesAfter - bytesBefore) / iterations;
+    }
+    return new BenchmarkResult(name, (double) elapsed / iterations, bytesPerOp);
+}
+
+/**
+ * Returns the number of bytes allocated so far by a thread, or -1 if the JVM cannot tell.
+ * @param threadId the id of the thread
+ * @return the allocated bytes, or -1
+ */
+long allocatedBytes(long threadId) {
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean hotspot) {
+        return hotspot.getThreadAllocatedBytes(threadId);
+    }
+    return -1;
+}
+
+/**
+ * Formats a benchmark result as one report line.
+ * Examples:
+ *     - Given: formatBenchmark(new BenchmarkResult("parseArtifact", 50.0, 100.0))
+ *       Expect: "parseArtifact: 50.0 ns/op, 100.0 B/op, 2000.0 MB/s"
+ * @param result the benchmark result
+ * @return the report line
+ */
+String formatBenchmark(BenchmarkResult result) {
+    return String.format("%s: %.1f ns/op, %.1f B/op, %.1f MB/s", result.name(), result.nsPerOp(),
+        result.bytesPerOp(), allocationRate(result));
+}
+
+/**
+ * Returns the allocation rate of a benchmark, in MB per second of benchmarked work.
+ * Examples:
+ *     - Given: allocationRate(new BenchmarkResult("parseArtifact", 50.0, 100.0))
+ *       Expect: 2000.0   (100 bytes every 50 ns)
+ * @param result the benchmark result
+ * @return the allocation rate in MB/s, or -1 if the allocation could not be measured
+ */
+double allocationRate(BenchmarkResult result) {
+    if (result.bytesPerOp() < 0 || result.nsPerOp() <= 0) {
+        return -1;
+    }
+    return result.bytesPerOp() / result.nsPerOp() * 1e9 / 1e6;
+}
+
+// Part 3 - Parallel log-file mode
+
+/** Target length of the chunks a log file is split into for parallel processing (8 MiB). */
+static final long LOG_CHUNK_SIZE = 1L << 23;
+
+/**
+ * The output of one chunk of a log file.
+ * Examples:
+ * - LogChunkResult(["FINAL CARGO: EnergyCrystal:POWER=10\n"], 1)
+ * @param output the FINAL CARGO lines of the chunk, in input order
+ * @param entries the number of log entries in the chunk
+ */
+record LogChunkResult(ByteArrayOutputStream output, long entries) {}
+
+/**
+ * Same as processLogFile, but simulates the log on a ForkJoinPool with the given number of threads.
+ * Chunk outputs are written in input order, so the output file is identical to the one of processLogFile.
+ * Examples:
+ *    - Given: the input file of processLogFile, threads = 4
+ *      Expect: the same output file and entry count as processLogFile
+ * @param inputPath path of the log file to read
+ * @param outputPath path of the file receiving the FINAL CARGO lines (created or truncated)
+ * @param threads the number of worker threads (at least 1)
+ * @return the number of log entries processed
+ * @throws IOException if the input cannot be read or the output cannot be written
+ * @throws IllegalArgumentException if a log entry is malformed
+ */
+long processLogFileParallel(String inputPath, String outputPath, int threads) throws IOException {
+    return processLogFileParallel(inputPath, outputPath, threads, LOG_CHUNK_SIZE);
+}
+
+/**
+ * Same as processLogFileParallel(inputPath, outputPath, threads), with chunks of about chunkSize bytes.
+ * @param inputPath path of the log file to read
+ * @param outputPath path of the file receiving the FINAL CARGO lines (created or truncated)
+ * @param threads the number of worker threads (at least 1)
+ * @param chunkSize the target length of a chunk, in bytes
+ * @return the number of log entries processed
+ * @throws IOException if the input cannot be read or the output cannot be written
+ * @throws IllegalArgumentException if a log entry is malformed
+ */
+long processLogFileParallel(String inputPath, String outputPath, int threads, long chunkSize) throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try (FileChannel in = FileChannel.open(Path.of(inputPath), StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(Path.of(outputPath), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ArrayList<Long> boundaries = findChunkBoundaries(in, chunkSize);
+        ArrayDeque<ForkJoinTask<LogChunkResult>> pending = new ArrayDeque<ForkJoinTask<LogChunkResult>>();
+        SplittableRandom root = randomSource.get();
+        SymbolTable symbols = artifactSymbols.get();
+        long entries = 0;
+        for (int chunk = 0; chunk + 1 < boundaries.size(); chunk++) {
+            long start = boundaries.get(chunk);
+            long end = boundaries.get(chunk + 1);
+            SplittableRandom random = root.split();
+            pending.addLast(pool.submit(() -> processLogChunk(in, start, end, random, symbols)));
+            if (pending.size() >= 2 * threads) {
+                entries += writeLogChunk(out, pending.removeFirst());
+            }
+        }
+        while (!pending.isEmpty()) {
+            entries += writeLogChunk(out, pending.removeFirst());
+        }
+        return entries;
+    } finally {
+        pool.shutdownNow();
+    }
+}
+
+/**
+ * Splits a file into chunks of about chunkSize bytes, each ending just after a newline (or at the end of the file).
+ * Examples:
+ *    - Given: a 10-byte file "AB\nCD\nEF\nG", chunkSize = 4
+ *      Expect: [0, 6, 10]   (chunks "AB\nCD\n" and "EF\nG")
+ * @param in the file to split
+ * @param chunkSize the target length of a chunk, in bytes
+ * @return the chunk boundaries: 0, the start of every later chunk, and the file size
+ * @throws IOException if the file cannot be read
+ */
+ArrayList<Long> findChunkBoundaries(FileChannel in, long chunkSize) throws IOException {
+    long size = in.size();
+    ArrayList<Long> boundaries = new ArrayList<Long>();
+    boundaries.add(0L);
+    ByteBuffer probe = ByteBuffer.allocate(4096);
+    long boundary = 0;
+    while (boundary < size) {
+        long position = Math.min(boundary + Math.max(chunkSize, 1) - 1, size);
+        boundary = size;
+        while (position < size && boundary == size) {
+            probe.clear();
+            int read = in.read(probe, position);
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    boundary = position + i + 1;
+                    break;
+                }
+            }
+            position = position + Math.max(read, 0);
+        }
+        boundaries.add(boundary);
+    }
+    return boundaries;
+}
+
+/**
+ * Simulates the log entries in file[start, end), a region made of whole lines, drawing from the given generator.
+ * Examples:
+ *    - Given: a region holding "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10\n\n"
+ *      Expect: LogChunkResult(["FINAL CARGO: EnergyCrystal:POWER=10\n"], 1)
+ * @param in the log file
+ * @param start offset of the first byte of the chunk
+ * @param end offset just past the last byte of the chunk
+ * @param random the random source for the encounters of the chunk
+ * @param symbols the symbol table of the run, shared by every chunk
+ * @return the FINAL CARGO lines and entry count of the chunk
+ * @throws IOException if the chunk cannot be mapped
+ * @throws IllegalArgumentException if a log entry is malformed
+ */
+LogChunkResult processLogChunk(FileChannel in, long start, long end, SplittableRandom random, SymbolTable symbols) throws IOException {
+    useRandomSource(random);
+    useSymbolTable(symbols);
+    int length = (int) (end - start);
+    ByteSequence log = new ByteSequence(in.map(FileChannel.MapMode.READ_ONLY, start, length));
+    ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + 64);
+    long entries = 0;
+    int lineStart = 0;
+    for (int i = 0; i <= length; i++) {
+        if (i == length || log.charAt(i) == '\n') {
+            if (skipLeadingSpaces(log, lineStart, i) < i) {
+                Artifact finalArtifact = scanRationalScavengerLog(log, lineStart, i);
+                output.writeBytes((finalCargoLine(finalArtifact) + "\n").getBytes(StandardCharsets.UTF_8));
+                entries = entries + 1;
+            }
+            lineStart = i + 1;
+        }
+    }
+    return new LogChunkResult(output, entries);
+}
+
+/**
+ * Waits for a chunk task and writes its output to the channel.
+ * @param out the output channel
+ * @param task the task simulating the chunk
+ * @return the number of log entries in the chunk
+ * @throws IOException if the chunk could not be read or the output cannot be written
+ * @throws IllegalArgumentException if a log entry of the chunk is malformed
+ */
+long writeLogChunk(FileChannel out, ForkJoinTask<LogChunkResult> task) throws IOException {
+    LogChunkResult result;
+    try {
+        result = task.get();
+    } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for a log chunk", e);
+    } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException io) {
+            throw io;
+        }
+        if (e.getCause() instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        throw new IOException(e.getCause());
+    }
+    result.output().writeTo(Channels.newOutputStream(out));
+    return result.entries();
+}
+
+void testProcessLogFileParallel() {
+    SplittableRandom callerRandom = randomSource.get();
+    try {
+        withTemporaryFiles("Parallel mode", files -> {
+            Path input = files.create("encounters", ".log");
+            Path serial = files.create("cargo-serial", ".log");
+            Path parallel = files.create("cargo-parallel", ".log");
+            String[] logs = {
+                "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10",
+                "ASTEROID | StarChart:A;RISK=5;SEC=3;SYS=9 | StarChart:B;RISK=3;SEC=4;SYS=8",
+                "TRADING_POST | InertRock:COLOR=green | EnergyCrystal:POWER=8",
+                "",
+                "TRADING_POST | StarChart:A;RISK=9;SEC=4;SYS=5 | StarChart:C;RISK=5;SEC=4;SYS=6"
+            };
+            StringBuilder contents = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                contents.append(logs[i % logs.length]).append("\n");
+            }
+            Files.writeString(input, contents.toString());
+
+            long serialEntries = processLogFile(input.toString(), serial.toString());
+            // tiny chunks, so that many chunks are in flight and must be written back in order
+            long parallelEntries = processLogFileParallel(input.toString(), parallel.toString(), 3, 100);
+            testEqual(serialEntries, parallelEntries, "Parallel mode should process every entry.");
+            testEqual(Files.readString(serial), Files.readString(parallel), "Parallel mode should keep the input order.");
+
+            // rocks of different colors at a trading post: the outcome is a coin flip
+            Files.writeString(input, "TRADING_POST | InertRock:COLOR=red | InertRock:COLOR=blue\n".repeat(200));
+            seedRandomSource(7);
+            processLogFileParallel(input.toString(), serial.toString(), 1, 100);
+            seedRandomSource(7);
+            processLogFileParallel(input.toString(), parallel.toString(), 3, 100);
+            testEqual(Files.readString(serial), Files.readString(parallel), "A seeded parallel run should not depend on the thread count.");
+
+        });
+    } finally {
+        useRandomSource(callerRandom);
+    }
+}
+
+// Part 3 - Binary log format
+// "ARTB", a version byte, then one record per entry; ints are zigzag varints and strings use a per-stream dictionary.
+
+/** The first four bytes of a binary log ("ARTB"). */
+static final int BINARY_MAGIC = 0x41525442;
+
+/** The version of the binary log format. */
+static final int BINARY_VERSION = 2;
+
+/** Length of the header of a binary log: the magic and the version byte. */
+static final int BINARY_HEADER_LENGTH = 5;
+
+/** Maximum length of a string in a binary log, in UTF-8 bytes. */
+static final int BINARY_MAX_SYMBOL_BYTES = 1 << 12;
+
+/** Maximum number of strings in the dictionary of a binary stream; later new strings are always written out. */
+static final int BINARY_DICTIONARY_SYMBOLS = 1 << 16;
+
+/** Space that always fits one encoded log entry: two artifacts, each with at most one new string. */
+static final int BINARY_ENTRY_RESERVE = 2 * (BINARY_MAX_SYMBOL_BYTES + 32);
+
+/** Capacity of the buffers used to stream binary logs from and to files (1 MiB). */
+static final int BINARY_STREAM_BUFFER = 1 << 20;
+
+/** Encounter types, indexed by their code in the binary format. */
+static final List<String> ENCOUNTER_TYPES = List.of("ASTEROID", "TRADING_POST");
+
+/**
+ * A log entry: an encounter between the artifact a Rational Scavenger owns and another artifact.
+ * Examples:
+ * - LogEntry("ASTEROID", EnergyCrystal(5), EnergyCrystal(10))
+ * @param encounterType "ASTEROID" or "TRADING_POST"
+ * @param owned the artifact the Rational Scavenger owns
+ * @param other the artifact found, or offered by the other scavenger
+ */
+record LogEntry(String encounterType, Artifact owned, Artifact other) {}
+
+/**
+ * The state of a binary log writer: the buffer receiving encoded bytes and the strings already written.
+ * Encoding never does I/O; streamed output drains the buffer with drainEncoder whenever
+ * less than BINARY_ENTRY_RESERVE bytes are left.
+ * @param buffer the buffer receiving encoded bytes
+ * @param dictionary the strings already written, by id
+ */
+record ArtifactEncoder(ByteBuffer buffer, SymbolTable dictionary) {}
+
+/**
+ * The state of a binary log reader: the buffer holding encoded bytes and the strings already read.
+ * Decoding never does I/O; streamed input refills the buffer with fillDecoder before each entry.
+ * @param buffer the buffer holding encoded bytes, from its position to its limit
+ * @param dictionary the strings already read, by id
+ */
+record ArtifactDecoder(ByteBuffer buffer, SymbolTable dictionary) {}
+
+/**
+ * Creates an empty dictionary for a binary stream. Writer and reader add the same strings in the same order
+ * until BINARY_DICTIONARY_SYMBOLS, so their ids agree, and neither grows without limit on open-ended destinations.
+ * @return a new SymbolTable holding at most BINARY_DICTIONARY_SYMBOLS strings
+ */
+SymbolTable makeBinaryDictionary() {
+    return makeSymbolTable(BINARY_DICTIONARY_SYMBOLS);
+}
+
+/**
+ * Creates an encoder writing into the given buffer, starting with the header of a binary log.
+ * Each stream has its own dictionary, so it only holds the strings of that stream.
+ * @param buffer the buffer receiving encoded bytes
+ * @return a new encoder with an empty dictionary
+ */
+ArtifactEncoder makeArtifactEncoder(ByteBuffer buffer) {
+    buffer.putInt(BINARY_MAGIC);
+    buffer.put((byte) BINARY_VERSION);
+    return new ArtifactEncoder(buffer, makeBinaryDictionary());
+}
+
+/**
+ * Creates a decoder reading the given buffer, which must start with the header of a binary log.
+ * @param buffer the buffer holding the start of a binary log
+ * @return a new decoder with an empty dictionary, positioned after the header
+ * @throws IllegalArgumentException if the buffer does not start with a binary log header of a known version
+ */
+ArtifactDecoder makeArtifactDecoder(ByteBuffer buffer) {
+    if (buffer.remaining() < BINARY_HEADER_LENGTH || buffer.getInt() != BINARY_MAGIC) {
+        throw new IllegalArgumentException("Not a binary log");
+    }
+    int version = buffer.get();
+    if (version != BINARY_VERSION) {
+        throw new IllegalArgumentException("Unsupported binary log version: " + version);
+    }
+    return new ArtifactDecoder(buffer, makeBinaryDictionary());
+}
+
+/**
+ * Writes an int as a zigzag varint.
+ * Examples:
+ *     - Given: writeVarint(encoder, 3), writeVarint(encoder, -1), writeVarint(encoder, 300)
+ *       Expect: the bytes 0x06, 0x01, 0xD8 0x04
+ * @param encoder the encoder
+ * @param value the int to write
+ */
+void writeVarint(ArtifactEncoder encoder, int value) {
+    int bits = (value << 1) ^ (value >> 31);
+    while ((bits & ~0x7F) != 0) {
+        encoder.buffer().put((byte) ((bits & 0x7F) | 0x80));
+        bits = bits >>> 7;
+    }
+    encoder.buffer().put((byte) bits);
+}
+
+/**
+ * Reads a zigzag varint.
+ * Examples:
+ *     - Given: a decoder over the bytes 0xD8 0x04
+ *       Expect: 300
+ * @param decoder the decoder
+ * @return the int read
+ * @throws IllegalArgumentException if the varint is truncated or longer than 5 bytes
+ */
+int readVarint(ArtifactDecoder decoder) {
+    int bits = 0;
+    for (int shift = 0; shift < 35; shift = shift + 7) {
+        int b = readByte(decoder);
+        bits = bits | (b & 0x7F) << shift;
+        if (b >= 0) {
+            return (bits >>> 1) ^ -(bits & 1);
+        }
+    }
+    throw new IllegalArgumentException("Malformed varint in binary log");
+}
+
+/**
+ * Reads one byte.
+ * @param decoder the decoder
+ * @return the byte read
+ * @throws IllegalArgumentException if the log ends here
+ */
+byte readByte(ArtifactDecoder decoder) {
+    if (!decoder.buffer().hasRemaining()) {
+        throw new IllegalArgumentException("Truncated binary log");
+    }
+    return decoder.buffer().get();
+}
+
+/**
+ * Writes a string as a dictionary reference, writing its bytes only the first time it is seen,
+ * or every time once the dictionary is full.
+ * @param encoder the encoder
+ * @param s the string to write
+ * @throws IllegalArgumentException if the string is longer than BINARY_MAX_SYMBOL_BYTES in UTF-8
+ */
+void writeSymbol(ArtifactEncoder encoder, String s) {
+    Integer id = encoder.dictionary().ids().get(s);
+    if (id != null) {
+        writeVarint(encoder, id + 1);
+        return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > BINARY_MAX_SYMBOL_BYTES) {
+        throw new IllegalArgumentException("String too long for a binary log: " + bytes.length + " bytes");
+    }
+    addSymbol(encoder.dictionary(), s);
+    writeVarint(encoder, 0);
+    writeVarint(encoder, bytes.length);
+    encoder.buffer().put(bytes);
+}
+
+/**
+ * Reads a string written by writeSymbol. Every occurrence of a string in the dictionary gives the same instance.
+ * @param decoder the decoder
+ * @return the string read
+ * @throws IllegalArgumentException if the reference or the string is malformed
+ */
+String readSymbol(ArtifactDecoder decoder) {
+    int reference = readVarint(decoder);
+    if (reference > 0 && reference <= symbolCount(decoder.dictionary())) {
+        return symbolName(decoder.dictionary(), reference - 1);
+    }
+    if (reference != 0) {
+        throw new IllegalArgumentException("Unknown string reference in binary log: " + reference);
+    }
+    int length = readVarint(decoder);
+    if (length < 0 || length > BINARY_MAX_SYMBOL_BYTES || length > decoder.buffer().remaining()) {
+        throw new IllegalArgumentException("Truncated binary log");
+    }
+    byte[] bytes = new byte[length];
+    decoder.buffer().get(bytes);
+    String s = new String(bytes, StandardCharsets.UTF_8);
+    int id = addSymbol(decoder.dictionary(), s);
+    return id < 0 ? s : symbolName(decoder.dictionary(), id);
+}
+
+/**
+ * Writes an artifact: its tag, then its fields.
+ * Examples:
+ *     - Given: encodeArtifact(encoder, new EnergyCrystal(10))
+ *       Expect: the bytes 0x01 (ENERGY_CRYSTAL_TAG), 0x14 (varint 10)
+ * @param encoder the encoder
+ * @param artifact the artifact to write
+ */
+void encodeArtifact(ArtifactEncoder encoder, Artifact artifact) {
+    encoder.buffer().put((byte) artifactTag(artifact));
+    switch (artifact) {
+        case StarChart sc -> {
+            writeSymbol(encoder, sc.dest());
+            writeVarint(encoder, sc.risk());
+            writeVarint(encoder, sc.sector());
+            writeVarint(encoder, sc.system());
+        }
+        case EnergyCrystal ec -> writeVarint(encoder, ec.power());
+        case InertRock ir -> writeSymbol(encoder, ir.color());
+    }
+}
+
+/**
+ * Reads an artifact written by encodeArtifact.
+ * Examples:
+ *     - Given: a decoder over the bytes 0x01 0x14
+ *       Expect: new EnergyCrystal(10)
+ * @param decoder the decoder
+ * @return the artifact read
+ * @throws IllegalArgumentException if the artifact is truncated or has an unknown tag
+ */
+Artifact decodeArtifact(ArtifactDecoder decoder) {
+    int tag = readByte(decoder);
+    if (tag == STAR_CHART_TAG) {
+        String dest = readSymbol(decoder);
+        int risk = readVarint(decoder);
+        int sector = readVarint(decoder);
+        return new StarChart(dest, risk, sector, readVarint(decoder));
+    } else if (tag == ENERGY_CRYSTAL_TAG) {
+        return new EnergyCrystal(readVarint(decoder));
+    } else if (tag == INERT_ROCK_TAG) {
+        return new InertRock(readSymbol(decoder));
+    }
+    throw new IllegalArgumentException("Unknown artifact tag in binary log: " + tag);
+}
+
+/**
+ * Writes a log entry: its encounter byte, then its two artifacts.
+ * @param encoder the encoder
+ * @param entry the log entry to write
+ */
+void encodeLogEntry(ArtifactEncoder encoder, LogEntry entry) {
+    if (Equals(entry.encounterType(), "ASTEROID")) {
+        encoder.buffer().put((byte) 0);
+    } else {
+        encoder.buffer().put((byte) 1);
+    }
+    encodeArtifact(encoder, entry.owned());
+    encodeArtifact(encoder, entry.other());
+}
+
+/**
+ * Reads a log entry written by encodeLogEntry.
+ * @param decoder the decoder
+ * @return the log entry read
+ * @throws IllegalArgumentException if the entry is truncated or malformed
+ */
+LogEntry decodeLogEntry(ArtifactDecoder decoder) {
+    int encounter = readByte(decoder);
+    if (encounter < 0 || encounter >= ENCOUNTER_TYPES.size()) {
+        throw new IllegalArgumentException("Unknown encounter in binary log: " + encounter);
+    }
+    Artifact owned = decodeArtifact(decoder);
+    return new LogEntry(ENCOUNTER_TYPES.get(encounter), owned, decodeArtifact(decoder));
+}
+
+/**
+ * Writes the encoded bytes to the channel and empties the encoder's buffer.
+ * @param out the output channel
+ * @param encoder the encoder
+ * @throws IOException if the output channel cannot be written
+ */
+void drainEncoder(WritableByteChannel out, ArtifactEncoder encoder) throws IOException {
+    encoder.buffer().flip();
+    while (encoder.buffer().hasRemaining()) {
+        out.write(encoder.buffer());
+    }
+    encoder.buffer().clear();
+}
+
+/**
+ * Makes sure the decoder's buffer holds a whole log entry, reading more of the channel if needed.
+ * @param in the input channel
+ * @param decoder the decoder
+ * @return true if there is a log entry left to read, false at the end of the log
+ * @throws IOException if the input channel cannot be read
+ */
+boolean fillDecoder(ReadableByteChannel in, ArtifactDecoder decoder) throws IOException {
+    if (decoder.buffer().remaining() < BINARY_ENTRY_RESERVE) {
+        refillBuffer(in, decoder.buffer());
+    }
+    return decoder.buffer().hasRemaining();
+}
+
+/**
+ * Moves the unread bytes of a buffer to its start and reads the channel until the buffer is full or the channel ends.
+ * @param in the input channel
+ * @param buffer the buffer, holding unread bytes from its position to its limit
+ * @throws IOException if the input channel cannot be read
+ */
+void refillBuffer(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+    buffer.compact();
+    while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+        // keep reading until the buffer is full or the channel ends
+    }
+    buffer.flip();
+}
+
+/**
+ * Converts a text log into a binary log.
+ * Blank lines are skipped, so converting back gives one line per log entry.
+ * Examples:
+ *    - Given: a text log with the line "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10"
+ *      Expect: 1, and a 12-byte binary log (5-byte header, 1 encounter byte, 2 x 3 bytes of artifacts)
+ * @param textPath path of the text log to read
+ * @param binaryPath path of the binary log to write (created or truncated)
+ * @return the number of log entries converted
+ * @throws IOException if a file cannot be read or written
+ * @throws IllegalArgumentException if a log entry is malformed
+ */
+long convertLogToBinary(String textPath, String binaryPath) throws IOException {
+    try (BufferedReader in = Files.newBufferedReader(Path.of(textPath), StandardCharsets.UTF_8);
+         FileChannel out = FileChannel.open(Path.of(binaryPath), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ArtifactEncoder encoder = makeArtifactEncoder(ByteBuffer.allocateDirect(BINARY_STREAM_BUFFER));
+        long entries = 0;
+        String line = in.readLine();
+        while (line != null) {
+            if (skipLeadingSpaces(line, 0, Length(line)) < Length(line)) {
+                encodeLogEntry(encoder, scanLogEntry(line, 0, Length(line)));
+                entries = entries + 1;
+                if (encoder.buffer().remaining() < BINARY_ENTRY_RESERVE) {
+                    drainEncoder(out, encoder);
+                }
+            }
+            line = in.readLine();
+        }
+        drainEncoder(out, encoder);
+        return entries;
+    }
+}
+
+/**
+ * Converts a binary log back into a text log, one line per log entry.
+ * Examples:
+ *    - Given: the binary log of "ASTEROID |EnergyCrystal:POWER=5|  EnergyCrystal:POWER=10"
+ *      Expect: 1, and the text line "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10"
+ * @param binaryPath path of the binary log to read
+ * @param textPath path of the text log to write (created or truncated)
+ * @return the number of log entries converted
+ * @throws IOException if a file cannot be read or written
+ * @throws IllegalArgumentException if the binary log is malformed
+ */
+long convertBinaryToText(String binaryPath, String textPath) throws IOException {
+    try (FileChannel in = FileChannel.open(Path.of(binaryPath), StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(Path.of(textPath), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ArtifactDecoder decoder = openBinaryLog(in);
+        ByteBuffer output = ByteBuffer.allocateDirect(CARGO_OUTPUT_BUFFER);
+        long entries = 0;
+        while (fillDecoder(in, decoder)) {
+            LogEntry entry = decodeLogEntry(decoder);
+            writeCargoLine(out, output, entry.encounterType() + " | " + describeArtifact(entry.owned())
+                + " | " + describeArtifact(entry.other()));
+            entries = entries + 1;
+        }
+        flushCargoOutput(out, output);
+        return entries;
+    }
+}
+
+/**
+ * Simulates every entry of a binary log, like processLogFile does for a text log.
+ * @param binaryPath path of the binary log to read
+ * @param outputPath path of the file receiving the FINAL CARGO lines (created or truncated)
+ * @return the number of log entries processed
+ * @throws IOException if the input cannot be read or the output cannot be written
+ * @throws IllegalArgumentException if the binary log is malformed
+ */
+long processBinaryLog(String binaryPath, String outputPath) throws IOException {
+    try (FileChannel in = FileChannel.open(Path.of(binaryPath), StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(Path.of(outputPath), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ArtifactDecoder decoder = openBinaryLog(in);
+        ByteBuffer output = ByteBuffer.allocateDirect(CARGO_OUTPUT_BUFFER);
+        long entries = 0;
+        while (fillDecoder(in, decoder)) {
+            LogEntry entry = decodeLogEntry(decoder);
+            writeCargoLine(out, output, finalCargoLine(encounter(entry.encounterType(), entry.owned(), entry.other())));
+            entries = entries + 1;
+        }
+        flushCargoOutput(out, output);
+        return entries;
+    }
+}
+
+/**
+ * Reads the header of a binary log and returns a decoder for the rest of it.
+ * @param in the input channel, at the start of the log
+ * @return a decoder positioned after the header
+ * @throws IOException if the input channel cannot be read
+ * @throws IllegalArgumentException if the channel does not hold a binary log
+ */
+ArtifactDecoder openBinaryLog(ReadableByteChannel in) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BINARY_STREAM_BUFFER);
+    buffer.flip();
+    refillBuffer(in, buffer);
+    return makeArtifactDecoder(buffer);
+}
+
+void testBinaryArtifacts() {
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    ArtifactEncoder encoder = makeArtifactEncoder(buffer);
+    SplittableRandom random = new SplittableRandom(3);
+    Artifact[] artifacts = new Artifact[500];
+    for (int i = 0; i < artifacts.length; i++) {
+        artifacts[i] = randomArtifact(random);
+        encodeArtifact(encoder, artifacts[i]);
+    }
+    encodeArtifact(encoder, new StarChart("Tau Ceti", -1, Integer.MAX_VALUE, Integer.MIN_VALUE));
+    encodeArtifact(encoder, new InertRock("rose quartz é"));
+    buffer.flip();
+    ArtifactDecoder decoder = makeArtifactDecoder(buffer);
+    for (int i = 0; i < artifacts.length; i++) {
+        testEqual(artifacts[i], decodeArtifact(decoder), "Artifacts should survive encoding.");
+    }
+    testEqual(new StarChart("Tau Ceti", -1, Integer.MAX_VALUE, Integer.MIN_VALUE), decodeArtifact(decoder),
+        "Negative and extreme values should survive encoding.");
+    testEqual(new InertRock("rose quartz é"), decodeArtifact(decoder), "Non-ASCII strings should survive encoding.");
+    testEqual(false, buffer.hasRemaining(), "Decoding should read every encoded byte.");
+
+    ByteBuffer small = ByteBuffer.allocate(64);
+    encodeArtifact(makeArtifactEncoder(small), new EnergyCrystal(10));
+    testEqual(BINARY_HEADER_LENGTH + 2, small.position(), "A small EnergyCrystal should take 2 bytes.");
+    small.flip().limit(small.limit() - 1);
+    boolean rejected = false;
+    try {
+        decodeArtifact(makeArtifactDecoder(small));
+    } catch (IllegalArgumentException e) {
+        rejected = true;
+    }
+    testEqual(true, rejected, "A truncated artifact should be rejected.");
+    rejected = false;
+    try {
+        makeArtifactDecoder(ByteBuffer.wrap("ASTEROID | EnergyCrystal:POWER=5".getBytes(StandardCharsets.UTF_8)));
+    } catch (IllegalArgumentException e) {
+        rejected = true;
+    }
+    testEqual(true, rejected, "A text log should not be read as a binary log.");
+
+    ByteBuffer first = ByteBuffer.allocate(64);
+    ByteBuffer second = ByteBuffer.allocate(64);
+    encodeLogEntry(makeArtifactEncoder(first), new LogEntry("ASTEROID", new InertRock("red"), new InertRock("red")));
+    encodeLogEntry(makeArtifactEncoder(second), new LogEntry(new String("ASTEROID"), new InertRock("red"), new InertRock("blue")));
+    testEqual(first.get(BINARY_HEADER_LENGTH), second.get(BINARY_HEADER_LENGTH), "Encounter types should be compared by value.");
+    testEqual((byte) 0, second.get(BINARY_HEADER_LENGTH + 2), "A new stream should write its strings again, not refer to another stream's.");
+
+    // past BINARY_DICTIONARY_SYMBOLS distinct strings, new strings are written out every time on both sides
+    ByteBuffer many = ByteBuffer.allocate(24 * (BINARY_DICTIONARY_SYMBOLS + 100));
+    ArtifactEncoder writer = makeArtifactEncoder(many);
+    for (int i = 0; i < BINARY_DICTIONARY_SYMBOLS + 10; i++) {
+        writeSymbol(writer, "Destination " + i);
+    }
+    writeSymbol(writer, "Destination 7");
+    writeSymbol(writer, "Destination " + (BINARY_DICTIONARY_SYMBOLS + 5));
+    ArtifactDecoder reader = makeArtifactDecoder(many.flip());
+    boolean same = true;
+    for (int i = 0; i < BINARY_DICTIONARY_SYMBOLS + 10; i++) {
+        same = same && Equals(readSymbol(reader), "Destination " + i);
+    }
+    testEqual(true, same, "Strings past a full dictionary should be read back.");
+    testEqual("Destination 7", readSymbol(reader), "Strings in a full dictionary should still be referenced.");
+    testEqual("Destination " + (BINARY_DICTIONARY_SYMBOLS + 5), readSymbol(reader), "Strings past a full dictionary should be written again.");
+    testEqual(BINARY_DICTIONARY_SYMBOLS, symbolCount(writer.dictionary()), "The writer's dictionary should stop growing.");
+    testEqual(BINARY_DICTIONARY_SYMBOLS, symbolCount(reader.dictionary()), "The reader's dictionary should stop growing.");
+}
+
+void testBinaryLogFiles() {
+    SplittableRandom callerRandom = randomSource.get();
+    try {
+        withTemporaryFiles("Binary logs", files -> {
+            Path text = files.create("encounters", ".log");
+            Path binary = files.create("encounters", ".bin");
+            Path back = files.create("encounters-back", ".log");
+            Path textCargo = files.create("cargo-text", ".log");
+            Path binaryCargo = files.create("cargo-binary", ".log");
+            SplittableRandom random = new SplittableRandom(11);
+            StringBuilder contents = new StringBuilder();
+            for (int i = 0; i < 5000; i++) {
+                contents.append(randomLogEntry(random)).append("\n");
+            }
+            Files.writeString(text, contents.toString());
+
+            testEqual(5000L, convertLogToBinary(text.toString(), binary.toString()), "Every entry should be converted.");
+            testEqual(5000L, convertBinaryToText(binary.toString(), back.toString()), "Every entry should be converted back.");
+            testEqual(Files.readString(text), Files.readString(back), "Converting to binary and back should give the same log.");
+            testEqual(true, Files.size(binary) * 4 < Files.size(text), "A binary log should be much smaller than the text log.");
+
+            seedRandomSource(5);
+            processLogFile(text.toString(), textCargo.toString());
+            seedRandomSource(5);
+            testEqual(5000L, processBinaryLog(binary.toString(), binaryCargo.toString()), "Every binary entry should be simulated.");
+            testEqual(Files.readString(textCargo), Files.readString(binaryCargo), "Binary and text logs should give the same cargo.");
+
+        });
+    } finally {
+        useRandomSource(callerRandom);
+    }
+}
+
+// Cargo ledger
+// An append-only file of every cargo change, with periodic snapshots in [ledger].snapshots.
+
+/** The first four bytes of a ledger ("LDGR"). */
+static final int LEDGER_MAGIC = 0x4C444752;
+
+/** The version of the ledger format. */
+static final int LEDGER_VERSION = 2;
+
+/** Length of the header of a snapshot: event index, ledger offset and payload length. */
+static final int LEDGER_SNAPSHOT_HEADER = 20;
+
+/** Default number of events between two snapshots. */
+static final int LEDGER_SNAPSHOT_INTERVAL = 1 << 16;
+
+/** Event kinds: a swap (including a hazard survived), a cargo destroyed by a hazard, and one side of a trade. */
+static final int LEDGER_SWAP = 0;
+static final int LEDGER_HAZARD_LOSS = 1;
+static final int LEDGER_TRADE = 2;
+
+/** Event kind names, indexed by kind. */
+static final List<String> LEDGER_EVENT_NAMES = List.of("SWAP", "HAZARD_LOSS", "TRADE");
+
+/**
+ * An open ledger.
+ * @param channel the ledger file
+ * @param snapshots the snapshot file
+ * @param encoder the buffer of events not written yet, and the dictionary of the ledger
+ * @param state the current cargo of every scavenger in the ledger, by name
+ * @param events the number of events appended
+ * @param written the number of bytes written to the ledger file
+ * @param snapshotInterval the number of events between two snapshots
+ */
+record Ledger(FileChannel channel, FileChannel snapshots, ArtifactEncoder encoder, HashMap<String, Artifact> state,
+              AtomicLong events, AtomicLong written, int snapshotInterval) {}
+
+/**
+ * One cargo change read back from a ledger.
+ * Examples:
+ * - LedgerEvent(LEDGER_SWAP, "Alice", EnergyCrystal(10))
+ * @param kind LEDGER_SWAP, LEDGER_HAZARD_LOSS or LEDGER_TRADE
+ * @param scavenger the name of the scavenger
+ * @param cargo the cargo of the scavenger after the event
+ */
+record LedgerEvent(int kind, String scavenger, Artifact cargo) {}
+
+/**
+ * Creates an empty ledger and its snapshot file.
+ * @param path path of the ledger (created or truncated); snapshots go to [path].snapshots
+ * @param snapshotInterval the number of events between two snapshots
+ * @return the open ledger
+ * @throws IOException if the files cannot be created
+ * @throws IllegalArgumentException if the snapshot interval is not positive
+ */
+Ledger createLedger(String path, int snapshotInterval) throws IOException {
+    if (snapshotInterval <= 0) {
+        throw new IllegalArgumentException("Bad snapshot interval: " + snapshotInterval);
+    }
+    FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    FileChannel snapshots = FileChannel.open(Path.of(path + ".snapshots"), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BINARY_STREAM_BUFFER);
+    buffer.putInt(LEDGER_MAGIC);
+    buffer.put((byte) LEDGER_VERSION);
+    return new Ledger(channel, snapshots, new ArtifactEncoder(buffer, makeBinaryDictionary()), new HashMap<String, Artifact>(),
+        new AtomicLong(), new AtomicLong(), snapshotInterval);
+}
+
+/**
+ * Appends the cargo change of an asteroid exploration to a ledger: a SWAP if the scavenger took the found artifact,
+ * a HAZARD_LOSS if the cargo was destroyed, and nothing if the artifact was ignored.
+ * Examples:
+ *     - Given: before = Alice holding EnergyCrystal(5), found = EnergyCrystal(10), explored = exploreAsteroid(before, found)
+ *       Expect: SWAP(Alice, EnergyCrystal(10)) is appended
+ * @param ledger the ledger
+ * @param before the scavenger before the exploration
+ * @param found the artifact found on the asteroid
+ * @param explored the result of exploreAsteroid for that scavenger and artifact
+ * @throws IOException if the ledger cannot be written
+ */
+void recordExploration(Ledger ledger, Scavenger before, Artifact found, Pair<Scavenger, Artifact> explored) throws IOException {
+    int kind = explorationEvent(before, found, explored);
+    if (kind >= 0) {
+        appendLedgerEvent(ledger, kind, explored.first().name(), explored.first().cargo());
+    }
+}
+
+/**
+ * Classifies the outcome of an asteroid exploration from the cargo the scavenger ends up with.
+ * The scavenger took the found artifact if it now holds an equal one; when the shields fail it holds
+ * a dull grey rock instead, which never equals the StarChart that triggered the hazard.
+ * Examples:
+ *     - Given: before = Alice holding EnergyCrystal(5), found = StarChart("Mars", 2, 3, 4),
+ *              explored = (Alice holding InertRock("dull grey"), found)
+ *       Expect: LEDGER_HAZARD_LOSS
+ *     - Given: before = Alice holding EnergyCrystal(5), found = EnergyCrystal(1), explored = (before, found)
+ *       Expect: -1
+ * @param before the scavenger before the exploration
+ * @param found the artifact found on the asteroid
+ * @param explored the result of exploreAsteroid for that scavenger and artifact
+ * @return LEDGER_SWAP, LEDGER_HAZARD_LOSS, or -1 if the cargo did not change
+ */
+int explorationEvent(Scavenger before, Artifact found, Pair<Scavenger, Artifact> explored) {
+    Artifact after = explored.first().cargo();
+    if (after == before.cargo()) {
+        return -1;
+    } else if (after.equals(found)) {
+        return LEDGER_SWAP;
+    } else {
+        return LEDGER_HAZARD_LOSS;
+    }
+}
+
+/**
+ * Appends the cargo changes of a meeting at a starport to a ledger: one TRADE per side if they traded.
+ * @param ledger the ledger
+ * @param before the first scavenger before the meeting
+ * @param traded the result of tradeAtStarport for that scavenger and the other one
+ * @throws IOException if the ledger cannot be written
+ */
+void recordTrade(Ledger ledger, Scavenger before, Pair<Scavenger, Scavenger> traded) throws IOException {
+    if (traded.first().cargo() != before.cargo()) {
+        appendLedgerEvent(ledger, LEDGER_TRADE, traded.first().name(), traded.first().cargo());
+        appendLedgerEvent(ledger, LEDGER_TRADE, traded.second().name(), traded.second().cargo());
+    }
+}
+
+/**
+ * Appends one event to a ledger. Safe to call from several threads.
+ * The event is durable after the next commit: when the buffer fills, at a snapshot, or on commitLedger.
+ * @param ledger the ledger
+ * @param kind LEDGER_SWAP, LEDGER_HAZARD_LOSS or LEDGER_TRADE
+ * @param scavenger the name of the scavenger
+ * @param cargo the cargo of the scavenger after the event
+ * @throws IOException if the ledger cannot be written
+ */
+void appendLedgerEvent(Ledger ledger, int kind, String scavenger, Artifact cargo) throws IOException {
+    synchronized (ledger) {
+        ArtifactEncoder encoder = ledger.encoder();
+        encoder.buffer().put((byte) kind);
+        writeSymbol(encoder, scavenger);
+        encodeArtifact(encoder, cargo);
+        ledger.state().put(scavenger, cargo);
+        long events = ledger.events().incrementAndGet();
+        if (events % ledger.snapshotInterval() == 0) {
+            writeLedgerSnapshot(ledger);
+        } else if (encoder.buffer().remaining() < BINARY_ENTRY_RESERVE) {
+            commitLedger(ledger);
+        }
+    }
+}
+
+/**
+ * Writes the buffered events of a ledger to its file and forces them to the storage device.
+ * @param ledger the ledger
+ * @throws IOException if the ledger cannot be written
+ */
+void commitLedger(Ledger ledger) throws IOException {
+    synchronized (ledger) {
+        ledger.written().addAndGet(ledger.encoder().buffer().position());
+        drainEncoder(ledger.channel(), ledger.encoder());
+        ledger.channel().force(false);
+    }
+}
+
+/**
+ * Commits a ledger and closes its files.
+ * @param ledger the ledger
+ * @throws IOException if the ledger cannot be written
+ */
+void closeLedger(Ledger ledger) throws IOException {
+    synchronized (ledger) {
+        commitLedger(ledger);
+        ledger.channel().close();
+        ledger.snapshots().close();
+    }
+}
+
+/**
+ * Commits a ledger, then appends a snapshot of its dictionary and cargo to the snapshot file,
+ * so a snapshot never refers to events that are not in the ledger file.
+ * @param ledger the ledger
+ * @throws IOException if a file cannot be written
+ */
+void writeLedgerSnapshot(Ledger ledger) throws IOException {
+    commitLedger(ledger);
+    SymbolTable dictionary = ledger.encoder().dictionary();
+    int count = symbolCount(dictionary);
+    int capacity = 16 + ledger.state().size() * 32;
+    for (int id = 0; id < count; id++) {
+        capacity = capacity + 10 + symbolName(dictionary, id).getBytes(StandardCharsets.UTF_8).length;
+    }
+    // the snapshot has its own encoder: writing every string once rebuilds the ledger dictionary in id order
+    ArtifactEncoder snapshot = new ArtifactEncoder(ByteBuffer.allocate(capacity), makeBinaryDictionary());
+    writeVarint(snapshot, count);
+    for (int id = 0; id < count; id++) {
+        writeSymbol(snapshot, symbolName(dictionary, id));
+    }
+    writeVarint(snapshot, ledger.state().size());
+    for (var entry : ledger.state().entrySet()) {
+        writeSymbol(snapshot, entry.getKey());
+        encodeArtifact(snapshot, entry.getValue());
+    }
+    ByteBuffer payload = snapshot.buffer().flip();
+    ByteBuffer header = ByteBuffer.allocate(LEDGER_SNAPSHOT_HEADER);
+    header.putLong(ledger.events().get());
+    header.putLong(ledger.written().get());
+    header.putInt(payload.remaining());
+    header.flip();
+    ByteBuffer[] frame = {header, payload};
+    while (payload.hasRemaining()) {
+        ledger.snapshots().write(frame);
+    }
+    ledger.snapshots().force(false);
+}
+
+/**
+ * Reads the next event of a ledger.
+ * @param decoder the decoder over the ledger, with the dictionary of the events before this one
+ * @return the event read
+ * @throws IllegalArgumentException if the event is truncated or malformed
+ */
+LedgerEvent decodeLedgerEvent(ArtifactDecoder decoder) {
+    int kind = readByte(decoder);
+    if (kind < 0 || kind >= LEDGER_EVENT_NAMES.size()) {
+        throw new IllegalArgumentException("Unknown event in ledger: " + kind);
+    }
+    String scavenger = readSymbol(decoder);
+    return new LedgerEvent(kind, scavenger, decodeArtifact(decoder));
+}
+
+/**
+ * Rebuilds the cargo of every scavenger after the given number of events,
+ * from the last snapshot at or before that event and a replay of the events after it.
+ * Examples:
+ *     - Given: a ledger of the events SWAP(Alice, EnergyCrystal(10)), TRADE(Alice, InertRock(red)), TRADE(Bob, EnergyCrystal(10))
+ *       Expect: ledgerStateAt(path, 1) = {Alice=EnergyCrystal(10)}
+ *               ledgerStateAt(path, 3) = {Alice=InertRock(red), Bob=EnergyCrystal(10)}
+ * @param path path of the ledger
+ * @param eventIndex the number of events to apply
+ * @return the cargo of every scavenger of the first eventIndex events, by name
+ * @throws IOException if a file cannot be read
+ * @throws IllegalArgumentException if the ledger is malformed or holds fewer events
+ */
+HashMap<String, Artifact> ledgerStateAt(String path, long eventIndex) throws IOException {
+    HashMap<String, Artifact> state = new HashMap<String, Artifact>();
+    ArtifactDecoder snapshot = new ArtifactDecoder(ByteBuffer.allocate(0), makeBinaryDictionary());
+    long replayed = 0;
+    long offset = BINARY_HEADER_LENGTH;
+    Path snapshotPath = Path.of(path + ".snapshots");
+    if (Files.exists(snapshotPath)) {
+        try (FileChannel snapshots = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(LEDGER_SNAPSHOT_HEADER);
+            long position = 0;
+            long best = -1;
+            while (snapshots.read(header.clear(), position) == LEDGER_SNAPSHOT_HEADER) {
+                header.flip();
+                long index = header.getLong();
+                long ledgerOffset = header.getLong();
+                int length = header.getInt();
+                if (index <= eventIndex && position + LEDGER_SNAPSHOT_HEADER + length <= snapshots.size()) {
+                    best = position;
+                    replayed = index;
+                    offset = ledgerOffset;
+                }
+                position = position + LEDGER_SNAPSHOT_HEADER + length;
+            }
+            if (best >= 0) {
+                snapshots.read(header.clear(), best);
+                ByteBuffer payload = ByteBuffer.allocate(header.getInt(16));
+                snapshots.read(payload, best + LEDGER_SNAPSHOT_HEADER);
+                snapshot = new ArtifactDecoder(payload.flip(), makeBinaryDictionary());
+                int symbols = readVarint(snapshot);
+                for (int i = 0; i < symbols; i++) {
+                    readSymbol(snapshot);
+                }
+                int scavengers = readVarint(snapshot);
+                for (int i = 0; i < scavengers; i++) {
+                    String name = readSymbol(snapshot);
+                    state.put(name, decodeArtifact(snapshot));
+                }
+            }
+        }
+    }
+    try (FileChannel in = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+        ByteBuffer header = ByteBuffer.allocate(BINARY_HEADER_LENGTH);
+        in.read(header, 0);
+        if (header.position() < BINARY_HEADER_LENGTH || header.getInt(0) != LEDGER_MAGIC) {
+            throw new IllegalArgumentException("Not a ledger: " + path);
+        }
+        if (header.get(4) != LEDGER_VERSION) {
+            throw new IllegalArgumentException("Unsupported ledger version: " + header.get(4));
+        }
+        in.position(offset);
+        ArtifactDecoder decoder = new ArtifactDecoder(ByteBuffer.allocateDirect(BINARY_STREAM_BUFFER).flip(), snapshot.dictionary());
+        for (long i = replayed; i < eventIndex; i++) {
+            if (!fillDecoder(in, decoder)) {
+                throw new IllegalArgumentException("The ledger holds only " + i + " events, not " + eventIndex);
+            }
+            LedgerEvent event = decodeLedgerEvent(decoder);
+            state.put(event.scavenger(), event.cargo());
+        }
+    }
+    return state;
+}
+
+/**
+ * Measures appends to a ledger of random events, then the time to rebuild the state at random event indices.
+ * @param path path of the ledger to write
+ * @param events the number of events to append
+ * @throws IOException if the ledger cannot be written or read
+ */
+void benchmarkLedger(String path, int events) throws IOException {
+    SplittableRandom random = new SplittableRandom(17);
+    int scavengers = 10_000;
+    String[] names = new String[scavengers];
+    for (int i = 0; i < scavengers; i++) {
+        names[i] = "Scavenger" + i;
+    }
+    Artifact[] cargo = new Artifact[BENCHMARK_INPUTS];
+    for (int i = 0; i < cargo.length; i++) {
+        cargo[i] = randomArtifact(random);
+    }
+    Ledger ledger = createLedger(path, LEDGER_SNAPSHOT_INTERVAL);
+    long start = System.nanoTime();
+    for (int i = 0; i < events; i++) {
+        appendLedgerEvent(ledger, i % LEDGER_EVENT_NAMES.size(), names[random.nextInt(scavengers)], cargo[i & (cargo.length - 1)]);
+    }
+    closeLedger(ledger);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    println(String.format("Appended %d events in %.2f s: %.0f events/s, %.1f bytes/event",
+        events, seconds, events / seconds, (double) Files.size(Path.of(path)) / events));
+    int rebuilds = 20;
+    start = System.nanoTime();
+    for (int i = 0; i < rebuilds; i++) {
+        ledgerStateAt(path, random.nextLong(events + 1L));
+    }
+    println(String.format("Rebuilt the state at a random event in %.2f ms on average",
+        (System.nanoTime() - start) / 1e6 / rebuilds));
+}
+
+void testLedger() {
+    SplittableRandom callerRandom = randomSource.get();
+    try {
+        withTemporaryFiles("The ledger", files -> {
+            Path path = files.create("cargo", ".ledger");
+            Path snapshots = files.derive(path, ".snapshots");
+            Ledger ledger = createLedger(path.toString(), 7);
+            seedRandomSource(17);
+            SplittableRandom random = new SplittableRandom(17);
+            Scavenger[] fleet = new Scavenger[5];
+            for (int i = 0; i < fleet.length; i++) {
+                fleet[i] = makeScavenger("Scavenger" + i, protocolFunction(i % 2), randomArtifact(random));
+            }
+            // expected.get(n) is the cargo after n events
+            ArrayList<HashMap<String, Artifact>> expected = new ArrayList<HashMap<String, Artifact>>();
+            expected.add(new HashMap<String, Artifact>());
+            for (int step = 0; step < 300; step++) {
+                int i = random.nextInt(fleet.length);
+                long before = ledger.events().get();
+                if (step % 3 == 0) {
+                    int j = (i + 1) % fleet.length;
+                    Pair<Scavenger, Scavenger> traded = tradeAtStarport(fleet[i], fleet[j]);
+                    recordTrade(ledger, fleet[i], traded);
+                    fleet[i] = traded.first();
+                    fleet[j] = traded.second();
+                    if (ledger.events().get() > before) {
+                        HashMap<String, Artifact> next = new HashMap<String, Artifact>(expected.getLast());
+                        next.put(fleet[i].name(), fleet[i].cargo());
+                        expected.add(next);
+                        next = new HashMap<String, Artifact>(next);
+                        next.put(fleet[j].name(), fleet[j].cargo());
+                        expected.add(next);
+                    }
+                } else {
+                    Artifact found = randomArtifact(random);
+                    Pair<Scavenger, Artifact> explored = exploreAsteroid(fleet[i], found);
+                    recordExploration(ledger, fleet[i], found, explored);
+                    fleet[i] = explored.first();
+                    if (ledger.events().get() > before) {
+                        HashMap<String, Artifact> next = new HashMap<String, Artifact>(expected.getLast());
+                        next.put(fleet[i].name(), fleet[i].cargo());
+                        expected.add(next);
+                    }
+                }
+                testEqual((long) expected.size() - 1, ledger.events().get(), "Every cargo change, and only those, should be recorded.");
+            }
+            closeLedger(ledger);
+            for (int n = 0; n < expected.size(); n++) {
+                testEqual(expected.get(n), ledgerStateAt(path.toString(), n), "The state after " + n + " events should be rebuilt exactly.");
+            }
+            testEqual(true, Files.size(snapshots) > 0, "Snapshots should have been written.");
+
+            boolean rejected = false;
+            try {
+                ledgerStateAt(path.toString(), expected.size());
+            } catch (IllegalArgumentException e) {
+                rejected = true;
+            }
+            testEqual(true, rejected, "Rebuilding past the last event should fail.");
+        });
+
+        // the found artifact may be the very instance the scavenger holds, as with shared or interned artifacts
+        Artifact chart = new StarChart("Mars", 2, 3, 4);
+        Scavenger holder = makeScavenger("Alice", this::rationalScavengerAnalysis, chart);
+        Scavenger lost = makeScavenger("Alice", this::rationalScavengerAnalysis, new InertRock(DULL_GREY));
+        testEqual(LEDGER_HAZARD_LOSS, explorationEvent(holder, chart, new Pair<Scavenger, Artifact>(lost, chart)),
+            "Failed shields should be a HAZARD_LOSS even when the found artifact is the cargo itself.");
+        Scavenger crystal = makeScavenger("Bob", this::rationalScavengerAnalysis, new EnergyCrystal(5));
+        Artifact better = new EnergyCrystal(10);
+        testEqual(LEDGER_SWAP, explorationEvent(crystal, better, exploreAsteroid(crystal, better)), "Taking the found artifact is a SWAP.");
+        testEqual(-1, explorationEvent(crystal, new EnergyCrystal(1), exploreAsteroid(crystal, new EnergyCrystal(1))),
+            "An ignored artifact changes nothing.");
+    } finally {
+        useRandomSource(callerRandom);
+    }
+}
+
+// Part 3 - Encounter server
+// Serves log entries over a local socket, one line per entry, with one virtual thread per connection.
+
+/** The longest log entry the server accepts, in characters; a longer line is answered with an error. */
+static final int MAX_LOG_LINE = 1 << 16;
+
+/** The number of distinct colors one connection may intern; later colors are kept as plain strings. */
+static final int CONNECTION_SYMBOLS = 256;
+
+/**
+ * Returns the local socket address described by a command line argument.
+ * Examples:
+ *     - Given: encounterAddress("7700")
+ *       Expect: the TCP address 127.0.0.1:7700
+ *     - Given: encounterAddress("/tmp/encounters.sock")
+ *       Expect: the Unix-domain socket /tmp/encounters.sock
+ * @param where a TCP port on the loopback interface, or the path of a Unix-domain socket
+ * @return the socket address
+ */
+SocketAddress encounterAddress(String where) {
+    if (!where.isEmpty() && where.chars().allMatch(Character::isDigit)) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), StringToInt(where));
+    }
+    return UnixDomainSocketAddress.of(where);
+}
+
+/**
+ * Opens a server socket for the encounter service. A stale Unix-domain socket file is replaced.
+ * @param address the address to listen on (a TCP port 0 picks a free port)
+ * @return the bound server channel
+ * @throws IOException if the address cannot be bound
+ */
+ServerSocketChannel openEncounterServer(SocketAddress address) throws IOException {
+    ServerSocketChannel server;
+    if (address instanceof UnixDomainSocketAddress unix) {
+        Files.deleteIfExists(unix.getPath());
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    } else {
+        server = ServerSocketChannel.open();
+    }
+    server.bind(address, 1024);
+    return server;
+}
+
+/**
+ * Accepts connections until the server channel is closed, serving each one on a new virtual thread.
+ * @param server the bound server channel
+ * @throws IOException if accepting a connection fails for another reason than the channel being closed
+ */
+void runEncounterServer(ServerSocketChannel server) throws IOException {
+    Thread.Builder connections = Thread.ofVirtual().name("encounter-", 0);
+    try {
+        while (true) {
+            SocketChannel client = server.accept();
+            connections.start(() -> serveConnection(client));
+        }
+    } catch (ClosedChannelException e) {
+        // the server was closed: stop accepting
+    }
+}
+
+/**
+ * Answers the log entries of one client until it disconnects.
+ * Answers are flushed whenever no more input is buffered, so pipelined entries are answered in batches.
+ * The connection interns colors into its own small symbol table, so clients cannot fill a shared one,
+ * and a line longer than MAX_LOG_LINE is answered with an error without being kept in memory.
+ * @param client the connection to the client
+ */
+void serveConnection(SocketChannel client) {
+    useSymbolTable(makeSymbolTable(CONNECTION_SYMBOLS));
+    try (client;
+         BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+         BufferedWriter out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(client), StandardCharsets.UTF_8))) {
+        StringBuilder line = new StringBuilder();
+        int read = readBoundedLine(in, line, MAX_LOG_LINE);
+        while (read >= 0) {
+            if (read > MAX_LOG_LINE) {
+                out.write("ERROR: Log entry longer than " + MAX_LOG_LINE + " characters");
+            } else {
+                out.write(answerLogEntry(line.toString()));
+            }
+            out.newLine();
+            if (!in.ready()) {
+                out.flush();
+            }
+            read = readBoundedLine(in, line, MAX_LOG_LINE);
+        }
+    } catch (IOException e) {
+        // the client went away: nothing left to answer
+    }
+}
+
+/**
+ * Reads one line into a builder, keeping at most limit characters. The line ends at "\n", "\r" or "\r\n",
+ * as for BufferedReader.readLine; the characters of a longer line past the limit are read and dropped.
+ * Examples:
+ *     - Given: readBoundedLine(reader of "abc\r\ndef", line, 10)
+ *       Expect: 3, with line "abc", and the reader left at "def"
+ *     - Given: readBoundedLine(reader of "abcdef\n", line, 4)
+ *       Expect: 6, with line "abcd"
+ *     - Given: readBoundedLine(reader of "", line, 4)
+ *       Expect: -1
+ * @param in the reader
+ * @param line the builder that receives the line, cleared first
+ * @param limit the most characters kept
+ * @return the full length of the line, which is more than limit if it was cut, or -1 at the end of the input
+ * @throws IOException if reading fails
+ */
+int readBoundedLine(BufferedReader in, StringBuilder line, int limit) throws IOException {
+    line.setLength(0);
+    int length = 0;
+    int c = in.read();
+    if (c < 0) {
+        return -1;
+    }
+    while (c >= 0 && c != '\n' && c != '\r') {
+        if (length < limit) {
+            line.append((char) c);
+        }
+        length = length + 1;
+        c = in.read();
+    }
+    if (c == '\r') {
+        in.mark(1);
+        if (in.read() != '\n') {
+            in.reset();
+        }
+    }
+    return length;
+}
+
+/**
+ * Simulates one log entry received by the server and returns the answer line.
+ * Examples:
+ *     - Given: answerLogEntry("ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10")
+ *       Expect: "FINAL CARGO: EnergyCrystal:POWER=10"
+ *     - Given: answerLogEntry("ASTEROID | EnergyCrystal:POWER=5")
+ *       Expect: "ERROR: Malformed log entry: ASTEROID | EnergyCrystal:POWER=5"
+ * @param line the log entry
+ * @return the FINAL CARGO line, or an ERROR line if the entry is malformed
+ */
+String answerLogEntry(String line) {
+    try {
+        return finalCargoLine(parseRationalScavengerLog(line));
+    } catch (IllegalArgumentException e) {
+        return "ERROR: " + e.getMessage();
+    }
+}
+
+/**
+ * The outcome of a load test against the encounter server.
+ * Examples:
+ * - LoadReport(100000, 2.5, 18000, 95000, 0)
+ * @param requests the number of requests answered
+ * @param seconds the wall-clock duration of the test
+ * @param p50Nanos the median latency of a request
+ * @param p99Nanos the 99th percentile latency of a request
+ * @param errors the number of answers that were not FINAL CARGO lines
+ */
+record LoadReport(long requests, double seconds, long p50Nanos, long p99Nanos, long errors) {}
+
+/**
+ * Runs a load test: each client connects on its own virtual thread and sends random log entries
+ * one at a time, waiting for each answer, so the latencies are round trips.
+ * Examples:
+ *     - Given: runLoad(address, 100, 1000) against a running server
+ *       Expect: LoadReport(100000, ...) with no errors
+ * @param address the address of the server
+ * @param clients the number of concurrent clients
+ * @param requestsPerClient the number of requests each client sends
+ * @return the load report
+ * @throws IOException if a client cannot connect or the server closes a connection early
+ */
+LoadReport runLoad(SocketAddress address, int clients, int requestsPerClient) throws IOException {
+    long[] latencies = new long[clients * requestsPerClient];
+    long[] errors = new long[clients];
+    SplittableRandom root = new SplittableRandom(42);
+    ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+    long start = System.nanoTime();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            SplittableRandom random = root.split();
+            pending.add(executor.submit(() -> {
+                errors[client] = runLoadClient(address, random, latencies, client * requestsPerClient, requestsPerClient);
+                return null;
+            }));
+        }
+        for (Future<?> future : pending) {
+            future.get();
+        }
+    } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted during the load test", e);
+    } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException io) {
+            throw io;
+        }
+        throw new IOException("Load test client failed", e.getCause());
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    Arrays.sort(latencies);
+    return new LoadReport(latencies.length, seconds, percentile(latencies, 0.50), percentile(latencies, 0.99),
+        Arrays.stream(errors).sum());
+}
+
+/**
+ * Sends random log entries over one connection, recording the latency of each round trip.
+ * @param address the address of the server
+ * @param random the random source for the log entries
+ * @param latencies the array receiving the latencies
+ * @param from the index of the first latency of this client
+ * @param requests the number of requests to send
+ * @return the number of answers that were not FINAL CARGO lines
+ * @throws IOException if the connection fails or the server closes it early
+ */
+long runLoadClient(SocketAddress address, SplittableRandom random, long[] latencies, int from, int requests) throws IOException {
+    try (SocketChannel channel = SocketChannel.open(address);
+         BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+         BufferedWriter out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8))) {
+        long errors = 0;
+        for (int i = 0; i < requests; i++) {
+            String request = randomLogEntry(random);
+            long sent = System.nanoTime();
+            out.write(request);
+            out.newLine();
+            out.flush();
+            String answer = in.readLine();
+            latencies[from + i] = System.nanoTime() - sent;
+            if (answer == null) {
+                throw new IOException("Server closed the connection");
+            }
+            if (!answer.startsWith("FINAL CARGO: ")) {
+                errors = errors + 1;
+            }
+        }
+        return errors;
+    }
+}
+
+/**
+ * Returns a percentile of sorted values, by the nearest-rank method.
+ * Examples:
+ *     - Given: percentile([1, 2, 3, 4], 0.5)
+ *       Expect: 2
+ *     - Given: percentile([1, 2, 3, 4], 0.99)
+ *       Expect: 4
+ * @param sorted the values, in increasing order
+ * @param fraction the percentile, in (0, 1]
+ * @return the smallest value with at least that fraction of the values at or below it (0 if there are none)
+ */
+long percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+        return 0;
+    }
+    int rank = (int) Math.ceil(fraction * sorted.length);
+    return sorted[Math.max(rank, 1) - 1];
+}
+
+/**
+ * Formats a load report as one line.
+ * Examples:
+ *     - Given: formatLoadReport(new LoadReport(100000, 2.5, 18000, 95000, 0))
+ *       Expect: "100000 requests in 2.50 s: 40000 req/s, p50 18.0 us, p99 95.0 us, 0 errors"
+ * @param report the load report
+ * @return the report line
+ */
+String formatLoadReport(LoadReport report) {
+    return String.format("%d requests in %.2f s: %.0f req/s, p50 %.1f us, p99 %.1f us, %d errors",
+        report.requests(), report.seconds(), report.requests() / report.seconds(),
+        report.p50Nanos() / 1e3, report.p99Nanos() / 1e3, report.errors());
+}
+
+void testEncounterServer() {
+    Thread acceptor = null;
+    try (ServerSocketChannel server = openEncounterServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+        acceptor = Thread.ofVirtual().start(() -> {
+            try {
+                runEncounterServer(server);
+            } catch (IOException e) {
+                testEqual(null, e, "The server should keep accepting until closed.");
+            }
+        });
+        try (SocketChannel channel = SocketChannel.open(server.getLocalAddress());
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8))) {
+            out.write("ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10\nASTEROID | EnergyCrystal:POWER=5\n");
+            out.flush();
+            testEqual("FINAL CARGO: EnergyCrystal:POWER=10", in.readLine(), "The server should answer with the final cargo.");
+            testEqual(true, in.readLine().startsWith("ERROR: "), "The server should answer malformed entries with an error.");
+            out.write("ASTEROID | " + "x".repeat(MAX_LOG_LINE) + "\nASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=7\r\n");
+            out.flush();
+            testEqual("ERROR: Log entry longer than " + MAX_LOG_LINE + " characters", in.readLine(), "The server should reject over-long entries.");
+            testEqual("FINAL CARGO: EnergyCrystal:POWER=7", in.readLine(), "The server should keep answering after an over-long entry.");
+        }
+        LoadReport report = runLoad(server.getLocalAddress(), 50, 40);
+        testEqual(2000L, report.requests(), "Every load test request should be answered.");
+        testEqual(0L, report.errors(), "Random log entries should all be valid.");
+        testEqual(true, report.p50Nanos() <= report.p99Nanos(), "The median latency should not exceed the 99th percentile.");
+    } catch (IOException e) {
+        testEqual(null, e, "The encounter server should not fail on the loopback interface.");
+    }
+    try {
+        if (acceptor != null) {
+            acceptor.join();
+        }
+    } catch (InterruptedException e) {
+        testEqual(null, e, "The server should stop accepting once closed.");
+    }
+    testEqual(2L, percentile(new long[] {1, 2, 3, 4}, 0.5), "The median of 1..4 is 2 by nearest rank.");
+    testEqual(4L, percentile(new long[] {1, 2, 3, 4}, 0.99), "The 99th percentile of 1..4 is 4.");
+}
+
+// Part 3 - Fast start
+// The run command simulates its entries with no self-tests or threads; run it from a JAR with an AppCDS archive
+// (-XX:ArchiveClassesAtExit once, then -XX:SharedArchiveFile) to start fastest.
+
+/**
+ * Simulates each log entry read from a reader and writes one answer line per entry, as the encounter server does.
+ * Blank lines are skipped. The output is flushed whenever no more input is waiting, so an interactive caller
+ * gets each answer as soon as it sends an entry, and a piped log is written in large blocks.
+ * Examples:
+ *     - Given: answerLines(reader of "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10\n\n", out)
+ *       Expect: 1, with "FINAL CARGO: EnergyCrystal:POWER=10\n" written to out
+ * @param in the log entries, one per line
+ * @param out where the answer lines are written
+ * @return the number of entries answered
+ * @throws IOException if reading or writing fails
+ */
+long answerLines(BufferedReader in, BufferedWriter out) throws IOException {
+    long answered = 0;
+    String line = in.readLine();
+    while (line != null) {
+        if (!line.isBlank()) {
+            out.write(answerLogEntry(line));
+            out.write('\n');
+            answered++;
+        }
+        if (!in.ready()) {
+            out.flush();
+        }
+        line = in.readLine();
+    }
+    out.flush();
+    return answered;
+}
+
+/**
+ * Answers the log entries read from standard input on standard output (the run command without an entry).
+ * @throws IOException if reading or writing fails
+ */
+void answerStandardInput() throws IOException {
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), CARGO_OUTPUT_BUFFER);
+    answerLines(in, out);
+}
+
+/**
+ * Builds the command line that starts this program in a fresh JVM, with the same JVM options and class path
+ * as the current one, except for class-data sharing options, and the given extra JVM options.
+ * Examples:
+ *     - Given: javaCommand(["-XX:TieredStopAtLevel=1"], ["run", "..."]) in a JVM started with --enable-preview
+ *       Expect: [".../bin/java", "--enable-preview", "-XX:TieredStopAtLevel=1", "-cp", "...", "Artifacts", "run", "..."]
+ * @param options the extra JVM options
+ * @param args the program arguments
+ * @return the command line
+ * @throws IllegalArgumentException if this program was started by the source launcher, which a child cannot reuse
+ */
+ArrayList<String> javaCommand(String[] options, String[] args) {
+    if (getClass().getClassLoader() != ClassLoader.getSystemClassLoader()) {
+        throw new IllegalArgumentException("Compile Artifacts.java and run it from the class path to start new JVMs");
+    }
+    ArrayList<String> command = new ArrayList<>();
+    command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+        if (!option.startsWith("-XX:SharedArchiveFile") && !option.startsWith("-XX:ArchiveClassesAtExit")
+                && !option.startsWith("-Xshare")) {
+            command.add(option);
+        }
+    }
+    command.addAll(Arrays.asList(options));
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(getClass().getName());
+    command.addAll(Arrays.asList(args));
+    return command;
+}
+
+/**
+ * Starts a command and waits for it, timing its first line of output and its whole run.
+ * Examples:
+ *     - Given: timeStartup(javaCommand([], ["run", "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10"]))
+ *       Expect: [about 60 million, about 70 million] on a desktop machine
+ * @param command the command line
+ * @return the nanoseconds until the first output line, and until the process exited
+ * @throws IOException if the process cannot be started
+ * @throws IllegalArgumentException if the process fails, or its first line is not a FINAL CARGO line
+ */
+long[] timeStartup(ArrayList<String> command) throws IOException {
+    ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+    long start = System.nanoTime();
+    Process process = builder.start();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+        String first = in.readLine();
+        long firstOutput = System.nanoTime() - start;
+        while (in.readLine() != null) {
+            // drain the output, so the process never blocks on a full pipe
+        }
+        int status = process.waitFor();
+        long total = System.nanoTime() - start;
+        if (status != 0 || first == null || !first.startsWith("FINAL CARGO: ")) {
+            throw new IllegalArgumentException("Startup run failed with status " + status + ": " + first);
+        }
+        return new long[] {firstOutput, total};
+    } catch (InterruptedException e) {
+        process.destroy();
+        throw new IllegalArgumentException("Interrupted while timing " + command);
+    }
+}
+
+/**
+ * Times the run command in fresh JVMs with the default class-data sharing, with an AppCDS archive,
+ * and with the archive and the quick compiler only; the archive is created first if it does not exist.
+ * Examples:
+ *     - Given: benchmarkStartup(10, "artifacts.jsa")
+ *       Expect: three lines such as "AppCDS archive: first output median 52.1 ms, best 49.8 ms; exit median ..."
+ * @param runs the number of timed runs of each configuration
+ * @param archive the path of the AppCDS archive
+ * @throws IOException if a JVM cannot be started
+ * @throws IllegalArgumentException if the class path holds a directory, which an archive cannot cover
+ */
+void benchmarkStartup(int runs, String archive) throws IOException {
+    String[] entry = {"run", "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10"};
+    for (String element : System.getProperty("java.class.path").split(File.pathSeparator)) {
+        if (Files.isDirectory(Path.of(element))) {
+            throw new IllegalArgumentException("Class-data sharing needs JAR files on the class path, not the directory " + element);
+        }
+    }
+    if (!Files.exists(Path.of(archive))) {
+        timeStartup(javaCommand(new String[] {"-XX:ArchiveClassesAtExit=" + archive}, entry));
+        println("Created the class-data sharing archive " + archive + " (" + Files.size(Path.of(archive)) + " bytes).");
+    }
+    String[] names = {"default CDS", "AppCDS archive", "AppCDS archive, C1 only"};
+    String[][] options = {
+        {},
+        {"-XX:SharedArchiveFile=" + archive},
+        {"-XX:SharedArchiveFile=" + archive, "-XX:TieredStopAtLevel=1"}
+    };
+    for (int i = 0; i < names.length; i++) {
+        ArrayList<String> command = javaCommand(options[i], entry);
+        timeStartup(command);
+        long[] firstOutput = new long[runs];
+        long[] exit = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            long[] times = timeStartup(command);
+            firstOutput[run] = times[0];
+            exit[run] = times[1];
+        }
+        Arrays.sort(firstOutput);
+        Arrays.sort(exit);
+        println(String.format("%s: first output median %.1f ms, best %.1f ms; exit median %.1f ms, best %.1f ms",
+            names[i], percentile(firstOutput, 0.5) / 1e6, firstOutput[0] / 1e6, percentile(exit, 0.5) / 1e6, exit[0] / 1e6));
+    }
+}
+
+void testFastStart() {
+    try {
+        BufferedReader in = new BufferedReader(new StringReader(
+            "ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10\n\nASTEROID | EnergyCrystal:POWER=5\n"));
+        StringWriter text = new StringWriter();
+        BufferedWriter out = new BufferedWriter(text);
+        testEqual(2L, answerLines(in, out), "Blank lines should not be answered.");
+        testEqual("FINAL CARGO: EnergyCrystal:POWER=10\nERROR: Malformed log entry: ASTEROID | EnergyCrystal:POWER=5\n",
+            text.toString(), "Each entry should get its answer line, in order.");
+    } catch (IOException e) {
+        testEqual(null, e, "Answering from a string should not fail.");
+    }
+}
+
+// Metrics
+// Analysis and outcome counters and sampled latencies, recorded only with "--metrics".
+// The drivers, encounter (used by bulk mode and the server) and the fleet engine, record the metrics,
+// so the analysis and Part 2 functions stay pure.
+
+/** Whether metrics are recorded; set once at startup, before any work. */
+boolean metricsEnabled = false;
+
+/** Names of the protocols in metric names, indexed by protocol id. */
+static final List<String> PROTOCOL_NAMES = List.of("rational", "riskTaker");
+
+/** Names of the artifact types in metric names, indexed by type tag. */
+static final List<String> TYPE_NAMES = List.of("StarChart", "EnergyCrystal", "InertRock");
+
+/** Outcome counter of an asteroid exploration where the scavenger swapped for a VALUABLE artifact. */
+static final int EXPLORE_SWAP = 0;
+/** Outcome counter of an asteroid exploration where the scavenger ignored the artifact. */
+static final int EXPLORE_IGNORE = 1;
+/** Outcome counter of a HAZARDOUS artifact where the shields held. */
+static final int SHIELDS_HELD = 2;
+/** Outcome counter of a HAZARDOUS artifact where the shields failed. */
+static final int SHIELDS_FAILED = 3;
+/** Outcome counter of the meetings at a starport. */
+static final int TRADE_ATTEMPT = 4;
+/** Outcome counter of the meetings at a starport that ended in a trade. */
+static final int TRADE_DONE = 5;
+
+/** Names of the outcome counters, indexed by counter. */
+static final List<String> OUTCOME_NAMES = List.of("explore.swap", "explore.ignore", "explore.shieldsHeld", "explore.shieldsFailed",
+    "trade.attempts", "trade.trades");
+
+/** One call in this many (a power of two) is timed by the latency histograms of each thread. */
+static final int LATENCY_SAMPLE_PERIOD = 64;
+
+/** Value of latencySampleStart for a call that is not timed. */
+static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+/**
+ * A latency histogram with one bucket per power of two: bucket b counts latencies of b bits,
+ * that is in [2^(b-1), 2^b) nanoseconds (bucket 0 counts zero latencies).
+ * Examples:
+ * - LatencyHistogram("encounter", 0, [0, 0, ..., 12 (bucket 8: 128-255 ns), 3 (bucket 9), 0, ...])
+ * @param name the name of the timed operation
+ * @param slot the index of the histogram's call counter in latencyTicks
+ * @param buckets the count of each bucket
+ */
+record LatencyHistogram(String name, int slot, LongAdder[] buckets) {}
+
+/**
+ * The metrics registry.
+ * @param analyses the number of analyses, indexed by analysisIndex(protocol, owned tag, new tag, result)
+ * @param outcomes the outcome counters, indexed by EXPLORE_SWAP ... TRADE_DONE
+ * @param encounterLatency the sampled latencies of encounter
+ * @param parseLatency the sampled latencies of parseRationalScavengerLog (which includes the encounter)
+ */
+record Metrics(LongAdder[] analyses, LongAdder[] outcomes, LatencyHistogram encounterLatency, LatencyHistogram parseLatency) {}
+
+/**
+ * Creates a registry with every counter at zero.
+ * @return a new Metrics
+ */
+Metrics makeMetrics() {
+    return new Metrics(makeCounters(PROTOCOL_NAMES.size() * 9 * RESULTS.size()), makeCounters(OUTCOME_NAMES.size()),
+        new LatencyHistogram("encounter", 0, makeCounters(65)), new LatencyHistogram("parseRationalScavengerLog", 1, makeCounters(65)));
+}
+
+/**
+ * Creates counters at zero.
+ * @param count the number of counters
+ * @return the counters
+ */
+LongAdder[] makeCounters(int count) {
+    LongAdder[] counters = new LongAdder[count];
+    for (int i = 0; i < count; i++) {
+        counters[i] = new LongAdder();
+    }
+    return counters;
+}
+
+/** The metrics of this process. */
+Metrics metrics = makeMetrics();
+
+/**
+ * The number of calls each thread made to latencySampleStart for each histogram, used to pick the sampled calls.
+ * Each histogram has its own counter, so nested timed calls (parsing, then the encounter) are both sampled.
+ */
+ThreadLocal<int[]> latencyTicks = ThreadLocal.withInitial(() -> new int[2]);
+
+/**
+ * Returns the index of the counter of an analysis.
+ * Examples:
+ *     - Given: analysisIndex(RATIONAL_PROTOCOL, STAR_CHART_TAG, STAR_CHART_TAG, Result.isValuable)
+ *       Expect: 0
+ * @param protocol RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @param ownedTag the type tag of the owned artifact
+ * @param newTag the type tag of the new artifact
+ * @param result the result of the analysis
+ * @return the index in Metrics.analyses
+ */
+int analysisIndex(int protocol, int ownedTag, int newTag, Result result) {
+    return ((protocol * 3 + ownedTag) * 3 + newTag) * RESULTS.size() + result.ordinal();
+}
+
+/**
+ * Counts an analysis.
+ * @param protocol RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @param ownedTag the type tag of the owned artifact
+ * @param newTag the type tag of the new artifact
+ * @param result the result of the analysis
+ */
+void countAnalysis(int protocol, int ownedTag, int newTag, Result result) {
+    metrics.analyses()[analysisIndex(protocol, ownedTag, newTag, result)].increment();
+}
+
+/**
+ * Counts an outcome.
+ * @param outcome EXPLORE_SWAP ... TRADE_DONE
+ */
+void countOutcome(int outcome) {
+    metrics.outcomes()[outcome].increment();
+}
+
+/**
+ * Starts timing a call if metrics are enabled and it is one of the sampled calls of the current thread.
+ * @param histogram the histogram of the operation
+ * @return the start time for recordLatency, or NOT_SAMPLED
+ */
+long latencySampleStart(LatencyHistogram histogram) {
+    if (!metricsEnabled) {
+        return NOT_SAMPLED;
+    }
+    int[] ticks = latencyTicks.get();
+    int tick = ticks[histogram.slot()] + 1;
+    ticks[histogram.slot()] = tick;
+    if ((tick & (LATENCY_SAMPLE_PERIOD - 1)) != 0) {
+        return NOT_SAMPLED;
+    }
+    return System.nanoTime();
+}
 
-    // ASTEROID: EnergyCrystal lower power - keep owned
-    String log5 = "ASTEROID | EnergyCrystal:POWER=15 | EnergyCrystal:POWER=5";
-    Artifact result5 = parseRationalScavengerLog(log5);
-    testEqual("EnergyCrystal:POWER=15", describeArtifact(result5), 
-              "Should keep higher power crystal.");
+/**
+ * Records the latency of a call started with latencySampleStart, unless it was not sampled.
+ * @param histogram the histogram of the operation
+ * @param start the value returned by latencySampleStart
+ */
+void recordLatency(LatencyHistogram histogram, long start) {
+    if (start != NOT_SAMPLED) {
+        long nanos = Math.max(System.nanoTime() - start, 0);
+        histogram.buckets()[64 - Long.numberOfLeadingZeros(nanos)].increment();
+    }
+}
 
-    // TRADING_POST: Both StarCharts, Risk Taker Scavenge has lower level - trade
-    String log6 = "TRADING_POST | StarChart:A;RISK=9;SEC=4;SYS=5 | StarChart:C;RISK=5;SEC=4;SYS=6";
-    Artifact result6 = parseRationalScavengerLog(log6);
-    testEqual("StarChart:C;RISK=5;SEC=4;SYS=6", describeArtifact(result6),
-              "Should trade for higher-level StarChart.");
+/**
+ * Simulates an encounter as encounter does, recording its analysis, its outcome and a sampled latency.
+ * @param encounterType the type of encounter ("ASTEROID" or "TRADING_POST")
+ * @param owned the artifact currently owned by the Rational Scavenger
+ * @param other the encountered artifact (either found in asteroid or in trade)
+ * @return the artifact Rational Scavenger has after the encounter
+ */
+Artifact countedEncounter(String encounterType, Artifact owned, Artifact other) {
+    long start = latencySampleStart(metrics.encounterLatency());
+    Artifact after;
+    if (Equals(encounterType, "ASTEROID")) {
+        Result result = rationalScavengerAnalysisByTable(owned, other);
+        countAnalysis(RATIONAL_PROTOCOL, artifactTag(owned), artifactTag(other), result);
+        countOutcome(isValuable(result) ? EXPLORE_SWAP : EXPLORE_IGNORE);
+        after = isValuable(result) ? other : owned;
+    } else {
+        Result result = riskTakerScavengerAnalysisByTable(other, owned);
+        countAnalysis(RISK_TAKER_PROTOCOL, artifactTag(other), artifactTag(owned), result);
+        countOutcome(TRADE_ATTEMPT);
+        if (isValuable(result)) {
+            countOutcome(TRADE_DONE);
+        }
+        after = isValuable(result) ? other : owned;
+    }
+    recordLatency(metrics.encounterLatency(), start);
+    return after;
+}
 
-    // TRADING_POST: Both StarCharts, owned has higher level - no trade
-    String log7 = "TRADING_POST | StarChart:A;RISK=8;SEC=4;SYS=6 | StarChart:B;RISK=9;SEC=3;SYS=4";
-    Artifact result7 = parseRationalScavengerLog(log7);
-    testEqual("StarChart:B;RISK=9;SEC=3;SYS=4", describeArtifact(result7),
-              "Should keep higher-level StarChart.");
+/**
+ * Returns an upper bound of a percentile of a histogram: the upper end of the bucket holding it.
+ * Examples:
+ *     - Given: a histogram with 99 latencies in [128, 256) ns and 1 in [1024, 2048) ns, fraction = 0.5
+ *       Expect: 255
+ * @param histogram the histogram
+ * @param fraction the percentile, in (0, 1]
+ * @return the upper bound in nanoseconds (0 for an empty histogram)
+ */
+long histogramPercentile(LatencyHistogram histogram, double fraction) {
+    long count = histogramCount(histogram);
+    long rank = Math.max((long) Math.ceil(fraction * count), 1);
+    long seen = 0;
+    for (int bucket = 0; bucket < histogram.buckets().length; bucket++) {
+        seen = seen + histogram.buckets()[bucket].sum();
+        if (seen >= rank && count > 0) {
+            return bucket == 0 ? 0 : (1L << bucket) - 1;
+        }
+    }
+    return 0;
+}
 
-    // TRADING_POST: One StarChart, one EnergyCrystal - no trade
-    String log8 = "TRADING_POST | EnergyCrystal:POWER=5 | StarChart:B;RISK=3;SEC=4;SYS=6";
-    Artifact result8 = parseRationalScavengerLog(log8);
-    testEqual("EnergyCrystal:POWER=5", describeArtifact(result8),
-              "No trade when artifact types differ.");
+/**
+ * Returns the number of latencies recorded in a histogram.
+ * @param histogram the histogram
+ * @return the sum of its buckets
+ */
+long histogramCount(LatencyHistogram histogram) {
+    long count = 0;
+    for (LongAdder bucket : histogram.buckets()) {
+        count = count + bucket.sum();
+    }
+    return count;
+}
 
-    // TRADING_POST: Two non-StarCharts - no trade
-    String log9 = "TRADING_POST | InertRock:COLOR=green | EnergyCrystal:POWER=8";
-    Artifact result9 = parseRationalScavengerLog(log9);
-    testEqual("InertRock:COLOR=green", describeArtifact(result9),
-              "No trade when neither artifact is a StarChart.");
-}
\ No newline at end of file
+/**
+ * Reads every metric into a map from metric name to value, sorted by name:
+ * - analysis.[protocol].[owned type]-[new type].[result], for example "analysis.rational.StarChart-StarChart.isValuable"
+ * - outcome counters, for example "explore.shieldsFailed" or "trade.trades"
+ * - latency.[operation].samples / .p50Nanos / .p99Nanos (upper bounds)
+ * @param registry the metrics
+ * @return the metric values
+ */
+TreeMap<String, Long> metricsSnapshot(Metrics registry) {
+    TreeMap<String, Long> values = new TreeMap<String, Long>();
+    for (int protocol = 0; protocol < PROTOCOL_NAMES.size(); protocol++) {
+        for (int owned = 0; owned < 3; owned++) {
+            for (int found = 0; found < 3; found++) {
+                for (Result result : RESULTS) {
+                    values.put("analysis." + PROTOCOL_NAMES.get(protocol) + "." + TYPE_NAMES.get(owned) + "-" + TYPE_NAMES.get(found) + "." + result,
+                        registry.analyses()[analysisIndex(protocol, owned, found, result)].sum());
+                }
+            }
+        }
+    }
+    for (int outcome = 0; outcome < OUTCOME_NAMES.size(); outcome++) {
+        values.put(OUTCOME_NAMES.get(outcome), registry.outcomes()[outcome].sum());
+    }
+    for (LatencyHistogram histogram : new LatencyHistogram[] {registry.encounterLatency(), registry.parseLatency()}) {
+        values.put("latency." + histogram.name() + ".samples", histogramCount(histogram));
+        values.put("latency." + histogram.name() + ".p50Nanos", histogramPercentile(histogram, 0.50));
+        values.put("latency." + histogram.name() + ".p99Nanos", histogramPercentile(histogram, 0.99));
+    }
+    return values;
+}
+
+/**
+ * Formats the metrics as text, one "name value" line per metric, leaving out analyses that never happened.
+ * Examples:
+ *     - Given: metricsReport(metrics) after one rational analysis of two EnergyCrystals
+ *       Expect: "analysis.rational.EnergyCrystal-EnergyCrystal.isValuable 1\nexplore.ignore 0\n..."
+ * @param registry the metrics
+ * @return the report
+ */
+String metricsReport(Metrics registry) {
+    StringBuilder report = new StringBuilder();
+    for (var metric : metricsSnapshot(registry).entrySet()) {
+        if (!metric.getKey().startsWith("analysis.") || metric.getValue() != 0) {
+            report.append(metric.getKey()).append(' ').append(metric.getValue()).append('\n');
+        }
+    }
+    return report.toString();
+}
+
+/**
+ * A JMX view of a metrics registry: every metric of the snapshot is a read-only Long attribute.
+ * Examples:
+ * - MetricsMBean(() -> metricsSnapshot(metrics)), registered as "artifacts:type=Metrics"
+ * @param snapshot reads the current metric values, as metricsSnapshot does
+ */
+record MetricsMBean(Supplier<TreeMap<String, Long>> snapshot) implements DynamicMBean {
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = snapshot.get().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        TreeMap<String, Long> values = snapshot.get();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            if (values.containsKey(attribute)) {
+                list.add(new Attribute(attribute, values.get(attribute)));
+            }
+        }
+        return list;
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        ArrayList<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (String name : snapshot.get().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", name, true, false, false));
+        }
+        return new MBeanInfo(MetricsMBean.class.getName(), "Encounter and trade metrics",
+            attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
+
+/**
+ * Registers the metrics of this process with the platform MBean server, as "artifacts:type=Metrics".
+ * @throws IllegalArgumentException if the MBean cannot be registered
+ */
+void registerMetricsMBean() {
+    try {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(() -> metricsSnapshot(metrics)), new ObjectName("artifacts:type=Metrics"));
+    } catch (JMException e) {
+        throw new IllegalArgumentException("Cannot register the metrics MBean", e);
+    }
+}
+
+/**
+ * Prints the metrics report to the error stream at a fixed period, from a daemon thread.
+ * @param periodSeconds the period of the report
+ * @return the scheduler printing the reports
+ */
+ScheduledExecutorService startMetricsDump(long periodSeconds) {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        task -> Thread.ofPlatform().name("metrics-dump").daemon().unstarted(task));
+    scheduler.scheduleAtFixedRate(() -> System.err.print(metricsReport(metrics)), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    return scheduler;
+}
+
+void testMetrics() {
+    String analysis = "analysis.rational.EnergyCrystal-EnergyCrystal.isValuable";
+    boolean enabled = metricsEnabled;
+    metricsEnabled = false;
+    TreeMap<String, Long> before = metricsSnapshot(metrics);
+    parseRationalScavengerLog("ASTEROID | EnergyCrystal:POWER=4 | EnergyCrystal:POWER=9");
+    testEqual(before, metricsSnapshot(metrics), "Nothing should be recorded while metrics are disabled.");
+
+    metricsEnabled = true;
+    rationalScavengerAnalysis(new EnergyCrystal(4), new EnergyCrystal(9));
+    testEqual(before.get(analysis), metricsSnapshot(metrics).get(analysis), "The analysis functions should not count themselves.");
+    encounter("ASTEROID", new EnergyCrystal(4), new EnergyCrystal(9));
+    encounter("TRADING_POST", new StarChart("A", 5, 0, 0), new StarChart("B", 2, 0, 0));
+    testEqual(1L, metricsSnapshot(metrics).get(analysis) - before.get(analysis), "Encounters should count their analysis.");
+
+    Fleet fleet = makeFleet(10, makeSymbolTable());
+    ArtifactColumns found = makeArtifactColumns(10);
+    for (int i = 0; i < 10; i++) {
+        setScavenger(fleet, i, null, RATIONAL_PROTOCOL, new EnergyCrystal(5));
+        setArtifact(found, i, new StarChart("Mars", 2, 3, 4), fleet.symbols());
+    }
+    exploreAsteroidRound(fleet, found, new SplittableRandom(3));
+    setScavenger(fleet, 0, null, RATIONAL_PROTOCOL, new StarChart("A", 5, 0, 0));
+    setScavenger(fleet, 1, null, RISK_TAKER_PROTOCOL, new StarChart("B", 2, 0, 0));
+    tradeInFleet(fleet, 0, 1, new SplittableRandom(3));
+    for (int i = 0; i < 4 * LATENCY_SAMPLE_PERIOD; i++) {
+        parseRationalScavengerLog("ASTEROID | EnergyCrystal:POWER=5 | EnergyCrystal:POWER=10");
+    }
+    TreeMap<String, Long> after = metricsSnapshot(metrics);
+    metricsEnabled = enabled;
+    testEqual(2L, after.get("trade.attempts") - before.get("trade.attempts"), "Trading posts and fleet trades should be counted.");
+    testEqual(2L, after.get("trade.trades") - before.get("trade.trades"), "Trades should be counted.");
+    testEqual(10L, after.get("explore.shieldsHeld") + after.get("explore.shieldsFailed")
+        - before.get("explore.shieldsHeld") - before.get("explore.shieldsFailed"), "Every shield check should be counted.");
+    testEqual(true, after.get("latency.parseRationalScavengerLog.samples") - before.get("latency.parseRationalScavengerLog.samples") >= 3,
+        "Parsing latency should be sampled.");
+    testEqual(true, after.get("latency.encounter.p50Nanos") <= after.get("latency.encounter.p99Nanos"),
+        "The median latency should not exceed the 99th percentile.");
+    testEqual(true, metricsReport(metrics).contains(analysis + " "), "The report should list analyses that happened.");
+
+    try {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("artifacts:type=Metrics");
+        server.registerMBean(new MetricsMBean(() -> metricsSnapshot(metrics)), name);
+        testEqual(metricsSnapshot(metrics).get("trade.trades"), server.getAttribute(name, "trade.trades"), "JMX should expose the counters.");
+        testEqual(metricsSnapshot(metrics).size(), server.getMBeanInfo(name).getAttributes().length, "JMX should list every metric.");
+    } catch (JMException e) {
+        testEqual(null, e, "The metrics MBean should register.");
+    }
+}
+
+// Analysis cache
+// A lock-free set-associative memo of analysis protocols with CLOCK (approximate LRU) eviction per set;
+// coin-flip results are never cached.
+
+/** Number of slots of each set of an analysis cache: a pair may live in any slot of the set its hash selects. */
+static final int ANALYSIS_CACHE_WAYS = 4;
+
+/**
+ * A cached analysis: the protocol, the owned and the new artifact, and the result of analysing them.
+ * @param protocol the protocol that gave the result, so protocols sharing a cache never see each other's results
+ * @param owned the owned artifact
+ * @param found the new artifact
+ * @param result the result of the analysis
+ */
+record CachedAnalysis(BiFunction<Artifact, Artifact, Result> protocol, Artifact owned, Artifact found, Result result) {}
+
+/**
+ * A bounded, concurrent cache of analysis results, with its statistics.
+ * Examples:
+ * - AnalysisCache([1024 slots], ...) holds at most 1024 results, in 256 sets of ANALYSIS_CACHE_WAYS slots
+ * @param slots the entries; a pair lives in one slot of the set selected by analysisHash (a power of two of them)
+ * @param referenced 1 for a slot used since the clock hand of its set last passed it, else 0
+ * @param hands the clock hand of each set: the way where the search for a slot to evict starts
+ * @param hits the number of lookups answered from the cache
+ * @param misses the number of lookups that ran the protocol and cached its result
+ * @param evictions the number of results replaced by another pair
+ * @param uncacheable the number of analyses that ran the protocol because their result is random
+ */
+record AnalysisCache(AtomicReferenceArray<CachedAnalysis> slots, AtomicIntegerArray referenced, AtomicIntegerArray hands,
+                     LongAdder hits, LongAdder misses, LongAdder evictions, LongAdder uncacheable) {}
+
+/**
+ * Creates an empty analysis cache.
+ * @param capacity the maximum number of cached results (rounded up to a power of two, at least ANALYSIS_CACHE_WAYS)
+ * @return a new AnalysisCache
+ * @throws IllegalArgumentException if the capacity is not positive or too large
+ */
+AnalysisCache makeAnalysisCache(int capacity) {
+    if (capacity <= 0 || capacity > 1 << 30) {
+        throw new IllegalArgumentException("Bad analysis cache size: " + capacity + " entries");
+    }
+    int slots = Math.max(ANALYSIS_CACHE_WAYS, Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1);
+    return new AnalysisCache(new AtomicReferenceArray<CachedAnalysis>(slots), new AtomicIntegerArray(slots),
+        new AtomicIntegerArray(slots / ANALYSIS_CACHE_WAYS), new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder());
+}
+
+/**
+ * Returns a hash of a pair of artifacts computed from their type tags and fields (see artifactHashValue);
+ * the hashes of their Strings are cached by the Strings themselves.
+ * Examples:
+ *     - Given: analysisHash(EnergyCrystal(4), EnergyCrystal(9)) and analysisHash(EnergyCrystal(4), EnergyCrystal(9))
+ *       Expect: the same value
+ * @param ownedArtifact the owned artifact
+ * @param newArtifact the new artifact
+ * @return the hash
+ */
+int analysisHash(Artifact ownedArtifact, Artifact newArtifact) {
+    long hash = (artifactTag(ownedArtifact) * 3L + artifactTag(newArtifact)) * 0x9E3779B97F4A7C15L;
+    hash = (hash ^ artifactHashValue(ownedArtifact)) * 0x9E3779B97F4A7C15L;
+    hash = (hash ^ artifactHashValue(newArtifact)) * 0xFF51AFD7ED558CCDL;
+    return (int) (hash ^ (hash >>> 32) ^ (hash >>> 45));
+}
+
+/**
+ * Returns the hash of the fields of an artifact that analysisHash mixes in.
+ * @param artifact the artifact
+ * @return a hash of every field of a StarChart, the power of an EnergyCrystal, or the hash of the color of an InertRock
+ */
+int artifactHashValue(Artifact artifact) {
+    if (artifact instanceof StarChart chart) {
+        return ((chart.dest().hashCode() * 31 + chart.risk()) * 31 + chart.sector()) * 31 + chart.system();
+    } else if (artifact instanceof EnergyCrystal crystal) {
+        return crystal.power();
+    } else {
+        return ((InertRock) artifact).color().hashCode();
+    }
+}
+
+/**
+ * Checks whether a protocol always gives the same result for a pair of artifacts.
+ * Only the Risk Taker's comparison of two InertRocks of different colors flips a coin.
+ * Examples:
+ *     - Given: isDeterministic(RISK_TAKER_PROTOCOL, InertRock("red"), InertRock("blue"))
+ *       Expect: false
+ *     - Given: isDeterministic(RATIONAL_PROTOCOL, InertRock("red"), InertRock("blue"))
+ *       Expect: true
+ * @param protocol RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @param ownedArtifact the owned artifact
+ * @param newArtifact the new artifact
+ * @return true if the result of the analysis can be cached
+ */
+boolean isDeterministic(int protocol, Artifact ownedArtifact, Artifact newArtifact) {
+    int code = protocolTable(protocol)[artifactTag(ownedArtifact) * 3 + artifactTag(newArtifact)];
+    return code != COMPARE_COLOR_OR_FLIP
+        || Equals(((InertRock) ownedArtifact).color(), ((InertRock) newArtifact).color());
+}
+
+/**
+ * Wraps a protocol with a cache. Pairs the deterministic test rejects always run the protocol.
+ * Examples:
+ *     - Given: cachingProtocol(this::rationalScavengerAnalysis, (o, n) -> true, cache)
+ *       Expect: a protocol giving the same results, running rationalScavengerAnalysis once per distinct pair in the cache
+ * @param protocol the analysis protocol to wrap
+ * @param deterministic tells whether the protocol always gives the same result for a pair
+ * @param cache the cache to use
+ * @return the caching protocol
+ */
+BiFunction<Artifact, Artifact, Result> cachingProtocol(BiFunction<Artifact, Artifact, Result> protocol,
+                                                       BiFunction<Artifact, Artifact, Boolean> deterministic, AnalysisCache cache) {
+    return (ownedArtifact, newArtifact) -> cachedAnalysis(cache, protocol, deterministic, ownedArtifact, newArtifact);
+}
+
+/**
+ * Wraps the protocol with the given id with a cache, never caching its coin flips.
+ * Examples:
+ *     - Given: makeScavenger("Alice", cachingProtocol(RATIONAL_PROTOCOL, cache), new EnergyCrystal(5))
+ *       Expect: a Rational Scavenger whose analyses are cached
+ * @param protocol RATIONAL_PROTOCOL or RISK_TAKER_PROTOCOL
+ * @param cache the cache to use
+ * @return the caching protocol
+ */
+BiFunction<Artifact, Artifact, Result> cachingProtocol(int protocol, AnalysisCache cache) {
+    return cachingProtocol(protocolFunction(protocol), (ownedArtifact, newArtifact) -> isDeterministic(protocol, ownedArtifact, newArtifact), cache);
+}
+
+/**
+ * Returns the cached result of an analysis, running the protocol and caching its result on a miss.
+ * A hit marks its slot as referenced; a miss fills an empty slot of the set, or else the first one the clock hand
+ * finds unreferenced, clearing the marks it passes, so a pair used since the hand last passed it survives.
+ * Two threads missing on the same pair may both run the protocol and cache it; a lookup uses the first copy.
+ * @param cache the cache
+ * @param protocol the analysis protocol
+ * @param deterministic tells whether the protocol always gives the same result for a pair
+ * @param ownedArtifact the owned artifact
+ * @param newArtifact the new artifact
+ * @return the result of the analysis
+ */
+Result cachedAnalysis(AnalysisCache cache, BiFunction<Artifact, Artifact, Result> protocol,
+                      BiFunction<Artifact, Artifact, Boolean> deterministic, Artifact ownedArtifact, Artifact newArtifact) {
+    if (!deterministic.apply(ownedArtifact, newArtifact)) {
+        cache.uncacheable().increment();
+        return protocol.apply(ownedArtifact, newArtifact);
+    }
+    AtomicReferenceArray<CachedAnalysis> slots = cache.slots();
+    AtomicIntegerArray referenced = cache.referenced();
+    int set = analysisHash(ownedArtifact, newArtifact) & (cache.hands().length() - 1);
+    int first = set * ANALYSIS_CACHE_WAYS;
+    int empty = -1;
+    for (int slot = first; slot < first + ANALYSIS_CACHE_WAYS; slot++) {
+        CachedAnalysis cached = slots.getAcquire(slot);
+        if (cached == null) {
+            empty = empty < 0 ? slot : empty;
+        } else if (cached.protocol() == protocol && cached.owned().equals(ownedArtifact) && cached.found().equals(newArtifact)) {
+            if (referenced.getPlain(slot) == 0) {
+                referenced.setOpaque(slot, 1);
+            }
+            cache.hits().increment();
+            return cached.result();
+        }
+    }
+    cache.misses().increment();
+    Result result = protocol.apply(ownedArtifact, newArtifact);
+    int victim = empty;
+    if (victim < 0) {
+        int hand = cache.hands().get(set);
+        for (int step = 0; step < ANALYSIS_CACHE_WAYS && referenced.get(first + hand) != 0; step++) {
+            referenced.setOpaque(first + hand, 0);
+            hand = (hand + 1) % ANALYSIS_CACHE_WAYS;
+        }
+        victim = first + hand;
+        cache.hands().setOpaque(set, (hand + 1) % ANALYSIS_CACHE_WAYS);
+        cache.evictions().increment();
+    }
+    referenced.setOpaque(victim, 0);
+    slots.setRelease(victim, new CachedAnalysis(protocol, ownedArtifact, newArtifact, result));
+    return result;
+}
+
+/**
+ * Reads the statistics of a cache into a map from name to value, as metricsSnapshot does for the metrics.
+ * Examples:
+ *     - Given: a cache after 3 hits and 1 miss
+ *       Expect: {evictions=0, hitRatePercent=75, hits=3, misses=1, size=1, uncacheable=0}
+ * @param cache the cache
+ * @return the statistics
+ */
+TreeMap<String, Long> cacheSnapshot(AnalysisCache cache) {
+    TreeMap<String, Long> values = new TreeMap<String, Long>();
+    long hits = cache.hits().sum();
+    long lookups = hits + cache.misses().sum();
+    long size = 0;
+    for (int slot = 0; slot < cache.slots().length(); slot++) {
+        if (cache.slots().get(slot) != null) {
+            size = size + 1;
+        }
+    }
+    values.put("hits", hits);
+    values.put("misses", cache.misses().sum());
+    values.put("hitRatePercent", lookups == 0 ? 0 : hits * 100 / lookups);
+    values.put("evictions", cache.evictions().sum());
+    values.put("uncacheable", cache.uncacheable().sum());
+    values.put("size", size);
+    return values;
+}
+
+/**
+ * Registers the statistics of a cache with the platform MBean server, as read-only attributes.
+ * @param cache the cache
+ * @param name the name of the cache in the object name "artifacts:type=AnalysisCache,name=[name]"
+ * @throws IllegalArgumentException if the MBean cannot be registered
+ */
+void registerCacheMBean(AnalysisCache cache, String name) {
+    try {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(() -> cacheSnapshot(cache)),
+            new ObjectName("artifacts:type=AnalysisCache,name=" + name));
+    } catch (JMException e) {
+        throw new IllegalArgumentException("Cannot register the analysis cache MBean", e);
+    }
+}
+
+void testAnalysisCache() {
+    AnalysisCache cache = makeAnalysisCache(1000);
+    BiFunction<Artifact, Artifact, Result> rational = cachingProtocol(RATIONAL_PROTOCOL, cache);
+    SplittableRandom random = new SplittableRandom(9);
+    for (int i = 0; i < 2000; i++) {
+        Artifact owned = randomArtifact(random);
+        Artifact found = randomArtifact(random);
+        testEqual(rationalScavengerAnalysis(owned, found), rational.apply(owned, found), "Cached results should be correct.");
+        testEqual(rationalScavengerAnalysis(owned, found), rational.apply(owned, found), "Cached results should stay correct.");
+    }
+    TreeMap<String, Long> stats = cacheSnapshot(cache);
+    testEqual(true, stats.get("hits") >= 2000, "Repeated pairs should hit the cache.");
+    testEqual(true, stats.get("size") <= 1024, "The cache should stay within its capacity, rounded up to a power of two.");
+    testEqual(true, stats.get("evictions") > 0, "A full cache should evict.");
+
+    BiFunction<Artifact, Artifact, Result> riskTaker = cachingProtocol(RISK_TAKER_PROTOCOL, cache);
+    long size = cacheSnapshot(cache).get("size");
+    int valuable = 0;
+    for (int i = 0; i < 200; i++) {
+        if (riskTaker.apply(new InertRock("red"), new InertRock("blue")) == Result.isValuable) {
+            valuable = valuable + 1;
+        }
+    }
+    testEqual(true, valuable > 0 && valuable < 200, "Coin flips should not be cached.");
+    testEqual(200L, cacheSnapshot(cache).get("uncacheable"), "Every coin flip should count as uncacheable.");
+    testEqual(size, cacheSnapshot(cache).get("size"), "Coin flips should not enter the cache.");
+    testEqual(Result.isMundane, riskTaker.apply(new InertRock("red"), new InertRock("red")), "Rocks of one color are never a coin flip.");
+    Artifact rock = new InertRock("red");
+    Artifact chart = new StarChart("Vega", 3, 1, 1);
+    testEqual(Result.isUnknown, rational.apply(rock, chart), "The Rational Scavenger cannot value a StarChart against a rock.");
+    testEqual(Result.isValuable, riskTaker.apply(rock, chart), "A shared cache should not give one protocol's result to another.");
+    testEqual(Result.isUnknown, rational.apply(rock, chart), "Each protocol should keep its own cached result.");
+
+    // a single set of ANALYSIS_CACHE_WAYS slots: a pair used since the clock hand passed it survives
+    AnalysisCache single = makeAnalysisCache(1);
+    BiFunction<Artifact, Artifact, Result> small = cachingProtocol(RATIONAL_PROTOCOL, single);
+    for (int power = 0; power < ANALYSIS_CACHE_WAYS; power++) {
+        small.apply(new EnergyCrystal(power), new EnergyCrystal(power + 1));
+    }
+    small.apply(new EnergyCrystal(0), new EnergyCrystal(1));
+    testEqual(1L, single.hits().sum(), "An equal pair should hit the cache.");
+    testEqual(0L, single.evictions().sum(), "A set should fill up before evicting.");
+    small.apply(new EnergyCrystal(-1), new EnergyCrystal(0));
+    testEqual(1L, single.evictions().sum(), "A pair should evict another one of its set when the set is full.");
+    small.apply(new EnergyCrystal(0), new EnergyCrystal(1));
+    testEqual(2L, single.hits().sum(), "The recently used pair should not be evicted.");
+    small.apply(new EnergyCrystal(1), new EnergyCrystal(2));
+    testEqual(ANALYSIS_CACHE_WAYS + 2L, single.misses().sum(), "The least recently used pair should have been evicted.");
+
+    boolean rejected = false;
+    try {
+        makeAnalysisCache(0);
+    } catch (IllegalArgumentException e) {
+        rejected = true;
+    }
+    testEqual(true, rejected, "An empty cache should be rejected.");
+}
+
+// Benchmark suite
+// Run with "bench [name]"; for isolated numbers, run one benchmark per JVM.
+
+/** Number of measured operations per benchmark. */
+static final int BENCHMARK_ITERATIONS = 2_000_000;
+
+/** Number of distinct inputs per benchmark (a power of two, so inputs are picked with a mask). */
+static final int BENCHMARK_INPUTS = 1024;
+
+/** Destinations used for generated StarCharts. */
+static final List<String> BENCHMARK_DESTINATIONS = List.of("Proxima Centauri", "Sirius", "Vega", "Altair", "Betelgeuse");
+
+/** Colors used for generated InertRocks. */
+static final List<String> BENCHMARK_COLORS = List.of("red", "blue", "green", "black", "quartz", "obsidian");
+
+/**
+ * A named operation of the benchmark suite.
+ * Examples:
+ * - BenchmarkCase("describeArtifact", i -> describeArtifact(artifacts[i & mask]))
+ * @param name the name of the benchmark
+ * @param operation the operation to time; it receives the iteration number
+ */
+record BenchmarkCase(String name, IntFunction<Object> operation) {}
+
+/**
+ * Generates a random artifact from a mix of 40% StarCharts, 40% EnergyCrystals and 20% InertRocks,
+ * with risks in [0, 10), power levels in [0, 1000), and names from BENCHMARK_DESTINATIONS and BENCHMARK_COLORS.
+ * Examples:
+ *     - Given: randomArtifact(new SplittableRandom(42))
+ *       Expect: the same artifact every time for the same seed
+ * @param random the random source
+ * @return a random artifact
+ */
+Artifact randomArtifact(SplittableRandom random) {
+    int kind = random.nextInt(10);
+    if (kind < 4) {
+        return new StarChart(BENCHMARK_DESTINATIONS.get(random.nextInt(BENCHMARK_DESTINATIONS.size())),
+            random.nextInt(10), random.nextInt(100), random.nextInt(100));
+    } else if (kind < 8) {
+        return new EnergyCrystal(random.nextInt(1000));
+    } else {
+        return new InertRock(BENCHMARK_COLORS.get(random.nextInt(BENCHMARK_COLORS.size())));
+    }
+}
+
+/**
+ * Generates a random log entry: 70% asteroid encounters and 30% trading post encounters between random artifacts.
+ * Examples:
+ *     - Given: randomLogEntry(new SplittableRandom(42))
+ *       Expect: e.g. "ASTEROID | EnergyCrystal:POWER=120 | InertRock:COLOR=blue"
+ * @param random the random source
+ * @return a random log entry
+ */
+String randomLogEntry(SplittableRandom random) {
+    String encounterType = "ASTEROID";
+    if (random.nextInt(10) >= 7) {
+        encounterType = "TRADING_POST";
+    }
+    return encounterType + " | " + describeArtifact(randomArtifact(random)) + " | " + describeArtifact(randomArtifact(random));
+}
+
+/**
+ * The original IndexOf/SubString implementation of parseArtifact, kept only as the baseline
+ * that benchmarkCases reports next to the scanner.
+ * @param s a string representation of an artifact
+ * @return an Artifact object corresponding to the input string
+ * @throws IllegalArgumentException if the input string has an unknown format
+ */
+Artifact parseArtifactBySubString(String s) {
+    // get type (before the ":")
+    int colonIndex = IndexOf(":", s, 0);
+    String type = SubString(s, 0, colonIndex);
+
+    // StarChart, eg. StarChart:Proxima Centauri;RISK=3;SEC=7;SYS=42
+    if (Equals(type, "StarChart")) {
+        int semi1 = IndexOf(";", s, colonIndex);
+        String dest = SubString(s, colonIndex + 1, semi1);
+        int riskStart = IndexOf("RISK=", s, semi1) + 5;
+        int semi2 = IndexOf(";", s, riskStart);
+        int risk = StringToInt(SubString(s, riskStart, semi2));
+        int sectorStart = IndexOf("SEC=", s, semi2) + 4;
+        int semi3 = IndexOf(";", s, sectorStart);
+        int sector = StringToInt(SubString(s, sectorStart, semi3));
+        int systemStart = IndexOf("SYS=", s, semi3) + 4;
+        int system = StringToInt(SubString(s, systemStart, Length(s)));
+        return new StarChart(dest, risk, sector, system);
+    }
+
+    // EnergyCrystal, eg. EnergyCrystal:POWER=500
+    if (Equals(type, "EnergyCrystal")) {
+        int equal = IndexOf("=", s, colonIndex);
+        return new EnergyCrystal(StringToInt(SubString(s, equal + 1, Length(s))));
+    }
+
+    // InertRock, eg. InertRock:COLOR=quartz
+    if (Equals(type, "InertRock")) {
+        int equal = IndexOf("=", s, colonIndex);
+        return new InertRock(SubString(s, equal + 1, Length(s)));
+    }
+
+    throw new IllegalArgumentException("Unknown artifact format: " + s);
+}
+
+/**
+ * The original IndexOf/SubString implementation of parseRationalScavengerLog, kept only as the baseline
+ * that benchmarkCases reports next to the scanner.
+ * @param log a string representing the log entry
+ * @return Artifact the Rational Scavenger ends up with
+ */
+Artifact parseRationalScavengerLogBySubString(String log) {
+    // get three part in "ASTEROID | [ownedArtifact] | [foundArtifact]"
+    int firstBar = IndexOf("|", log, 0);
+    String encounter = SubString(log, 0, firstBar).trim();
+    int secondBar = IndexOf("|", log, firstBar + 1);
+    String ownedStr = SubString(log, firstBar + 1, secondBar).trim();
+    String otherStr = SubString(log, secondBar + 1, Length(log)).trim();
+    return encounter(encounter, parseArtifactBySubString(ownedStr), parseArtifactBySubString(otherStr));
+}
+
+/**
+ * Builds the benchmark suite over BENCHMARK_INPUTS random inputs.
+ * The inputs are the same on every run, since they come from a fixed seed.
+ * @return the benchmarks, in the order they are run
+ */
+ArrayList<BenchmarkCase> benchmarkCases() {
+    SplittableRandom random = new SplittableRandom(42);
+    int mask = BENCHMARK_INPUTS - 1;
+    Artifact[] owned = new Artifact[BENCHMARK_INPUTS];
+    Artifact[] found = new Artifact[BENCHMARK_INPUTS];
+    String[] descriptions = new String[BENCHMARK_INPUTS];
+    String[] logs = new String[BENCHMARK_INPUTS];
+    ByteBuffer encoded = ByteBuffer.allocate(BENCHMARK_INPUTS * 64);
+    ArtifactEncoder encoder = makeArtifactEncoder(ByteBuffer.allocate(BENCHMARK_INPUTS * 64));
+    ArtifactEncoder sourceEncoder = makeArtifactEncoder(encoded);
+    Scavenger[] rational = new Scavenger[BENCHMARK_INPUTS];
+    Scavenger[] riskTakers = new Scavenger[BENCHMARK_INPUTS];
+    // mixed fleets: three protocols, as method references and as AnalysisProtocols
+    ArrayList<BiFunction<Artifact, Artifact, Result>> references = new ArrayList<BiFunction<Artifact, Artifact, Result>>();
+    references.add(this::rationalScavengerAnalysis);
+    references.add(this::riskTakerScavengerAnalysis);
+    references.add(this::rationalScavengerAnalysisByTable);
+    ArrayList<BiFunction<Artifact, Artifact, Result>> sealed = new ArrayList<BiFunction<Artifact, Artifact, Result>>();
+    sealed.add(RATIONAL_ANALYSIS);
+    sealed.add(RISK_TAKER_ANALYSIS);
+    sealed.add(asAnalysisProtocol(this::rationalScavengerAnalysisByTable));
+    Scavenger[] mixedReferences = new Scavenger[BENCHMARK_INPUTS];
+    Scavenger[] mixedSealed = new Scavenger[BENCHMARK_INPUTS];
+    for (int i = 0; i < BENCHMARK_INPUTS; i++) {
+        owned[i] = randomArtifact(random);
+        found[i] = randomArtifact(random);
+        descriptions[i] = describeArtifact(found[i]);
+        logs[i] = randomLogEntry(random);
+        rational[i] = makeScavenger("Rational" + i, this::rationalScavengerAnalysis, owned[i]);
+        riskTakers[i] = makeScavenger("RiskTaker" + i, this::riskTakerScavengerAnalysis, found[i]);
+        mixedReferences[i] = makeScavenger("Mixed" + i, references.get(i % 3), owned[i]);
+        mixedSealed[i] = makeScavenger("Mixed" + i, sealed.get(i % 3), owned[i]);
+        encodeArtifact(sourceEncoder, found[i]);
+    }
+    encoded.flip();
+    ArtifactDecoder decoder = makeArtifactDecoder(encoded);
+
+    ArrayList<BenchmarkCase> cases = new ArrayList<BenchmarkCase>();
+    // Part 1
+    cases.add(new BenchmarkCase("rationalScavengerAnalysis", i -> rationalScavengerAnalysis(owned[i & mask], found[i & mask])));
+    cases.add(new BenchmarkCase("rationalScavengerAnalysisByTable", i -> rationalScavengerAnalysisByTable(owned[i & mask], found[i & mask])));
+    cases.add(new BenchmarkCase("riskTakerScavengerAnalysis", i -> riskTakerScavengerAnalysis(owned[i & mask], found[i & mask])));
+    cases.add(new BenchmarkCase("riskTakerScavengerAnalysisByTable", i -> riskTakerScavengerAnalysisByTable(owned[i & mask], found[i & mask])));
+    BiFunction<Artifact, Artifact, Result> cachedRational = cachingProtocol(RATIONAL_PROTOCOL, makeAnalysisCache(BENCHMARK_INPUTS));
+    cases.add(new BenchmarkCase("rationalScavengerAnalysisCached", i -> cachedRational.apply(owned[i & mask], found[i & mask])));
+    // Part 2
+    cases.add(new BenchmarkCase("exploreAsteroid", i -> exploreAsteroid(rational[i & mask], found[i & mask])));
+    cases.add(new BenchmarkCase("tradeAtStarport", i -> tradeAtStarport(rational[i & mask], riskTakers[i & mask])));
+    cases.add(new BenchmarkCase("exploreAsteroidMixedReferences", i -> exploreAsteroid(mixedReferences[i & mask], found[i & mask])));
+    cases.add(new BenchmarkCase("exploreAsteroidMixedSealed", i -> exploreAsteroid(mixedSealed[i & mask], found[i & mask])));
+    // Part 3
+    cases.add(new BenchmarkCase("describeArtifact", i -> describeArtifact(found[i & mask])));
+    cases.add(new BenchmarkCase("parseArtifact", i -> parseArtifact(descriptions[i & mask])));
+    cases.add(new BenchmarkCase("parseArtifactBySubString", i -> parseArtifactBySubString(descriptions[i & mask])));
+    cases.add(new BenchmarkCase("parseRationalScavengerLog", i -> parseRationalScavengerLog(logs[i & mask])));
+    cases.add(new BenchmarkCase("parseRationalScavengerLogBySubString", i -> parseRationalScavengerLogBySubString(logs[i & mask])));
+    cases.add(new BenchmarkCase("encodeArtifact", i -> {
+        if ((i & mask) == 0) {
+            encoder.buffer().position(BINARY_HEADER_LENGTH);
+        }
+        encodeArtifact(encoder, found[i & mask]);
+        return encoder;
+    }));
+    cases.add(new BenchmarkCase("decodeArtifact", i -> {
+        if (!encoded.hasRemaining()) {
+            encoded.position(BINARY_HEADER_LENGTH);
+        }
+        return decodeArtifact(decoder);
+    }));
+    return cases;
+}
+
+/**
+ * Runs the benchmarks whose name contains the filter and prints one report line for each.
+ * Examples:
+ *     - Given: runBenchmarks("parse", 1000000)
+ *       Expect: report lines for parseArtifact, parseArtifactBySubString, parseRationalScavengerLog
+ *               and parseRationalScavengerLogBySubString, each scanner next to its baseline
+ * @param filter the text a benchmark name must contain ("" for all)
+ * @param iterations the number of measured operations per benchmark
+ */
+void runBenchmarks(String filter, int iterations) {
+    for (BenchmarkCase benchmark : benchmarkCases()) {
+        if (benchmark.name().contains(filter)) {
+            println(formatBenchmark(runBenchmark(benchmark.name(), iterations, benchmark.operation())));
+        }
+    }
+}
+
+void testBenchmarkInputs() {
+    SplittableRandom random1 = new SplittableRandom(7);
+    SplittableRandom random2 = new SplittableRandom(7);
+    for (int i = 0; i < 100; i++) {
+        String log = randomLogEntry(random1);
+        testEqual(log, randomLogEntry(random2), "Benchmark inputs should be reproducible from the seed.");
+        testEqual(true, parseRationalScavengerLog(log) != null, "Benchmark log entries should be valid: " + log);
+        testEqual(parseRationalScavengerLogBySubString(log), parseRationalScavengerLog(log),
+            "The baseline parser should agree with the scanner on " + log);
+    }
+    BenchmarkResult result = runBenchmark("describeArtifact", 100, i -> describeArtifact(new EnergyCrystal(i)));
+    testEqual("describeArtifact", result.name(), "Benchmarks should keep their name.");
+    testEqual(true, result.nsPerOp() >= 0, "Benchmarks should report a time per operation.");
+}